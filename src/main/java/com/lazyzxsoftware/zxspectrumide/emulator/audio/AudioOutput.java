@@ -0,0 +1,96 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.audio;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * AudioOutput: Lleva las muestras del emulador a un AudioSink.
+ *
+ * El hilo del emulador deja cada frame en un AudioRing (offer) y un hilo propio lo vacía
+ * hacia el sink. Si el sink bloquea (la tarjeta de sonido), la cola solo se vacía al ritmo
+ * real del audio, y awaitRoom permite que ese ritmo sea el que marque los frames: el
+ * emulador nunca se adelanta ni se queda atrás respecto a lo que suena.
+ */
+public final class AudioOutput {
+    public static final int SAMPLE_RATE = 44100;
+    private static final int CHUNK = SAMPLE_RATE / 100; // 10 ms por escritura al sink
+    private static final float DC_POLE = 0.995f;        // Filtro paso alto para quitar la continua
+
+    private final AudioSink sink;
+    private final AudioRing ring = new AudioRing(16384);
+    private volatile boolean running;
+    private Thread thread;
+    private volatile Thread producer;
+
+    // Hilo productor
+    private short[] pcm = new short[1024];
+    private float dcIn, dcOut;
+
+    public AudioOutput(AudioSink sink) {
+        this.sink = sink;
+    }
+
+    /** Abre el sink y arranca el hilo de audio. El hilo que llama queda como productor. */
+    public void start() throws Exception {
+        sink.open(SAMPLE_RATE);
+        producer = Thread.currentThread();
+        running = true;
+        thread = new Thread(this::drain, "SpectrumAudio");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        try { thread.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        sink.close();
+    }
+
+    /**
+     * Encola las muestras de un frame (rango nominal -1..1). Quita la componente continua,
+     * recorta y convierte a 16 bits. Lo que no cabe en la cola se pierde.
+     */
+    public void offer(float[] samples, int count) {
+        if (pcm.length < count) pcm = new short[count];
+        for (int i = 0; i < count; i++) {
+            float x = samples[i];
+            dcOut = x - dcIn + DC_POLE * dcOut;
+            dcIn = x;
+            float y = Math.max(-1f, Math.min(1f, dcOut));
+            pcm[i] = (short) (y * Short.MAX_VALUE);
+        }
+        ring.write(pcm, 0, count);
+        LockSupport.unpark(thread);
+    }
+
+    /** Muestras encoladas que aún no han llegado al sink. */
+    public int queued() {
+        return ring.size();
+    }
+
+    /**
+     * Espera (en el hilo productor) hasta que la cola baje de maxQueued muestras.
+     * @param wakeUp Se consulta en cada despertar; si devuelve true deja de esperar.
+     */
+    public void awaitRoom(int maxQueued, BooleanSupplier wakeUp) {
+        while (running && ring.size() > maxQueued && !wakeUp.getAsBoolean()) {
+            LockSupport.parkNanos(this, 5_000_000L);
+        }
+    }
+
+    private void drain() {
+        short[] chunk = new short[CHUNK];
+        while (running) {
+            int n = ring.read(chunk, 0, CHUNK);
+            if (n == 0) {
+                // Cola vacía (p.ej. en pausa): dormir hasta el próximo offer o stop
+                LockSupport.park(this);
+                continue;
+            }
+            sink.write(chunk, 0, n);
+            LockSupport.unpark(producer);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AudioRing: Cola circular de muestras entre un productor (el hilo del emulador) y un
+ * consumidor (el hilo de audio), sin bloqueos. Cada lado solo escribe su propio contador;
+ * el otro lo lee para saber cuánto hay libre u ocupado.
+ */
+public final class AudioRing {
+    private final short[] data;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // Muestras leídas (consumidor)
+    private final AtomicLong tail = new AtomicLong(); // Muestras escritas (productor)
+
+    /** @param capacity Potencia de dos. */
+    public AudioRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("La capacidad debe ser potencia de dos");
+        this.data = new short[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Añade hasta len muestras. Si no caben, se descartan las que sobran.
+     * @return Muestras escritas.
+     */
+    public int write(short[] src, int offset, int len) {
+        long t = tail.get();
+        int n = Math.min(len, data.length - (int) (t - head.get()));
+        // Hasta el final del array y, si da la vuelta, el resto desde el principio
+        int at = (int) t & mask;
+        int first = Math.min(n, data.length - at);
+        System.arraycopy(src, offset, data, at, first);
+        System.arraycopy(src, offset + first, data, 0, n - first);
+        tail.lazySet(t + n);
+        return n;
+    }
+
+    /**
+     * Saca hasta len muestras.
+     * @return Muestras leídas (0 si está vacía).
+     */
+    public int read(short[] dst, int offset, int len) {
+        long h = head.get();
+        int n = Math.min(len, (int) (tail.get() - h));
+        int at = (int) h & mask;
+        int first = Math.min(n, data.length - at);
+        System.arraycopy(data, at, dst, offset, first);
+        System.arraycopy(data, 0, dst, offset + first, n - first);
+        head.lazySet(h + n);
+        return n;
+    }
+
+    /** Muestras pendientes de leer. */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return data.length;
+    }
+}
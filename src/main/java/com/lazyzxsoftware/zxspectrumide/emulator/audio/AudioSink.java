@@ -0,0 +1,11 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.audio;
+
+/**
+ * AudioSink: Destino de las muestras (PCM de 16 bits, mono). Solo lo usa el hilo de audio;
+ * write puede bloquear, y así es como la tarjeta de sonido marca el ritmo.
+ */
+public interface AudioSink {
+    void open(int sampleRate) throws Exception;
+    void write(short[] samples, int offset, int count);
+    void close();
+}
@@ -0,0 +1,186 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.audio;
+
+import java.util.Arrays;
+
+/**
+ * AyChip: El AY-3-8912 del 128K (puertos 0xFFFD selección/lectura y 0xBFFD escritura).
+ *
+ * No se ejecuta a la par que la CPU: el chip solo avanza cuando hace falta saber su salida,
+ * es decir, justo antes de cada escritura de registro y al cerrar el frame. Entonces genera
+ * de golpe todos sus ciclos pendientes y apunta los cambios de nivel en un StepSignal, que
+ * los pasa a muestras igual que el beeper. El coste por frame es fijo (un ciclo del chip
+ * cada 16 T-states) por mucho que trabaje la CPU.
+ */
+public final class AyChip {
+    /** T-states por ciclo interno (reloj del AY = CPU/2, y los contadores van a reloj/8). */
+    public static final int TICK_TSTATES = 16;
+    private static final float CHANNEL_VOLUME = 0.25f;
+
+    // Niveles de amplitud del AY (escala logarítmica, normalizada a 1)
+    private static final float[] LEVELS = {
+            0f, 0.0137f, 0.0205f, 0.0291f, 0.0423f, 0.0618f, 0.0847f, 0.1369f,
+            0.1691f, 0.2647f, 0.3527f, 0.4499f, 0.5704f, 0.6873f, 0.8482f, 1f
+    };
+    // Bits válidos de cada registro (los que no existen se leen a 0)
+    private static final int[] MASKS = {
+            0xFF, 0x0F, 0xFF, 0x0F, 0xFF, 0x0F, 0x1F, 0xFF,
+            0x1F, 0x1F, 0x1F, 0xFF, 0xFF, 0x0F, 0xFF, 0xFF
+    };
+
+    private final StepSignal signal;
+    private final int[] regs = new int[16];
+    private int selected;
+    private int nextTick; // T-state (relativo al frame) del próximo ciclo sin generar
+
+    // Generadores
+    private final int[] toneCounter = new int[3];
+    private final int[] toneOutput = new int[3];
+    private int noiseCounter;
+    private int noiseShift = 1; // LFSR de 17 bits
+    private int noiseOutput;
+    private int envCounter;
+    private int envStep;        // 0..15 dentro del ciclo actual
+    private boolean envUp;      // Subiendo (ataque) o bajando
+    private boolean envHolding;
+    private int envLevel;
+
+    public AyChip(int cpuClock, int sampleRate) {
+        this.signal = new StepSignal(cpuClock, sampleRate);
+        reset();
+    }
+
+    /** Escritura en 0xFFFD: selecciona el registro. */
+    public void select(int value) {
+        selected = value & 0x0F;
+    }
+
+    /** Registro seleccionado con el último select (para guardar snapshots). */
+    public int getSelected() {
+        return selected;
+    }
+
+    /** Valor de un registro sin cambiar la selección (para guardar snapshots). */
+    public int getRegister(int register) {
+        return regs[register & 0x0F];
+    }
+
+    /** Lectura de 0xFFFD: el registro seleccionado. */
+    public int read() {
+        return regs[selected];
+    }
+
+    /**
+     * Escritura en 0xBFFD. Primero genera la salida hasta este instante con los valores
+     * antiguos y luego aplica el nuevo.
+     * @param tState T-state relativo al inicio del frame.
+     */
+    public void write(int tState, int value) {
+        advance(tState);
+        int r = selected;
+        regs[r] = value & MASKS[r];
+        if (r == 13) {
+            envStep = 0;
+            envUp = (regs[13] & 0x04) != 0;
+            envHolding = false;
+            envCounter = 0;
+            envLevel = envUp ? 0 : 15;
+        }
+    }
+
+    /**
+     * Cierra un frame sumando sus muestras a las que ya hay en out (p.ej. las del beeper,
+     * que salen con los mismos instantes).
+     * @return Número de muestras.
+     */
+    public int endFrame(int frameLength, float[] out) {
+        advance(frameLength);
+        nextTick -= frameLength;
+        return signal.endFrame(frameLength, out, true);
+    }
+
+    public void reset() {
+        Arrays.fill(regs, 0);
+        selected = 0;
+        nextTick = 0;
+        Arrays.fill(toneCounter, 0);
+        Arrays.fill(toneOutput, 0);
+        noiseCounter = 0;
+        noiseShift = 1;
+        noiseOutput = 0;
+        envCounter = 0;
+        envStep = 0;
+        envUp = false;
+        envHolding = true;
+        envLevel = 0;
+        signal.reset();
+    }
+
+    /**
+     * Genera los ciclos del chip anteriores a un T-state. Los periodos y el mezclador no
+     * cambian dentro del tramo (las escrituras siempre llegan después de un advance).
+     */
+    private void advance(int tState) {
+        if (nextTick >= tState) return;
+        int period0 = tonePeriod(0), period1 = tonePeriod(1), period2 = tonePeriod(2);
+        int noisePeriod = 2 * Math.max(1, regs[6]);
+        int envPeriod = 2 * Math.max(1, regs[11] | (regs[12] << 8));
+        int mixer = regs[7];
+
+        for (int t = nextTick; t < tState; t += TICK_TSTATES) {
+            if (++toneCounter[0] >= period0) { toneCounter[0] = 0; toneOutput[0] ^= 1; }
+            if (++toneCounter[1] >= period1) { toneCounter[1] = 0; toneOutput[1] ^= 1; }
+            if (++toneCounter[2] >= period2) { toneCounter[2] = 0; toneOutput[2] ^= 1; }
+            if (++noiseCounter >= noisePeriod) {
+                noiseCounter = 0;
+                int bit = (noiseShift ^ (noiseShift >> 3)) & 1;
+                noiseShift = (noiseShift >> 1) | (bit << 16);
+                noiseOutput = noiseShift & 1;
+            }
+            if (++envCounter >= envPeriod) {
+                envCounter = 0;
+                stepEnvelope();
+            }
+            signal.change(t, channel(0, mixer) + channel(1, mixer) + channel(2, mixer));
+            nextTick = t + TICK_TSTATES;
+        }
+    }
+
+    private int tonePeriod(int channel) {
+        return Math.max(1, regs[2 * channel] | (regs[2 * channel + 1] << 8));
+    }
+
+    private float channel(int c, int mixer) {
+        // Un canal suena si su tono y su ruido están a 1 (o desactivados en el mezclador)
+        int tone = toneOutput[c] | (mixer >> c);
+        int noise = noiseOutput | (mixer >> (c + 3));
+        if ((tone & noise & 1) == 0) return 0f;
+        int amplitude = regs[8 + c];
+        int level = (amplitude & 0x10) != 0 ? envLevel : amplitude & 0x0F;
+        return LEVELS[level] * CHANNEL_VOLUME;
+    }
+
+    /**
+     * Un paso de la envolvente. R13: bit 3 continuar, bit 2 ataque, bit 1 alternar, bit 0
+     * mantener. Sin continuar, tras el primer ciclo se queda a 0.
+     */
+    private void stepEnvelope() {
+        if (envHolding) return;
+        if (++envStep > 15) {
+            int shape = regs[13];
+            if ((shape & 0x08) == 0) {
+                envHolding = true;
+                envLevel = 0;
+                return;
+            }
+            if ((shape & 0x01) != 0) {
+                envHolding = true;
+                boolean end = envUp ^ ((shape & 0x02) != 0);
+                envLevel = end ? 15 : 0;
+                return;
+            }
+            if ((shape & 0x02) != 0) envUp = !envUp;
+            envStep = 0;
+        }
+        envLevel = envUp ? envStep : 15 - envStep;
+    }
+}
@@ -0,0 +1,36 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.audio;
+
+/**
+ * Beeper: El altavoz del Spectrum, gobernado por el bit EAR del puerto 0xFE.
+ * Cada cambio de nivel se apunta con su T-state y StepSignal lo pasa a muestras.
+ */
+public final class Beeper {
+    private static final float VOLUME = 0.5f;
+
+    private final StepSignal signal;
+
+    public Beeper(int cpuClock, int sampleRate) {
+        this.signal = new StepSignal(cpuClock, sampleRate);
+    }
+
+    /** Nivel de EAR desde un T-state del frame (relativo a su inicio, en orden). */
+    public void setLevel(int tState, boolean high) {
+        signal.change(tState, high ? VOLUME : 0f);
+    }
+
+    /**
+     * Cierra un frame y deja sus muestras al principio de out (sobrescribe).
+     * @return Número de muestras.
+     */
+    public int endFrame(int frameLength, float[] out) {
+        return signal.endFrame(frameLength, out, false);
+    }
+
+    public int maxSamples(int frameLength) {
+        return signal.maxSamples(frameLength);
+    }
+
+    public void reset() {
+        signal.reset();
+    }
+}
@@ -0,0 +1,42 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * JavaSoundSink: Saca el audio por la tarjeta de sonido con javax.sound.sampled.
+ */
+public final class JavaSoundSink implements AudioSink {
+    private static final int BUFFER_MILLIS = 40;
+
+    private SourceDataLine line;
+    private byte[] bytes = new byte[0];
+
+    @Override
+    public void open(int sampleRate) throws Exception {
+        AudioFormat format = new AudioFormat(sampleRate, 16, 1, true, false);
+        line = AudioSystem.getSourceDataLine(format);
+        line.open(format, sampleRate * BUFFER_MILLIS / 1000 * 2);
+        line.start();
+    }
+
+    @Override
+    public void write(short[] samples, int offset, int count) {
+        if (bytes.length < count * 2) bytes = new byte[count * 2];
+        for (int i = 0; i < count; i++) {
+            short s = samples[offset + i];
+            bytes[2 * i] = (byte) s;
+            bytes[2 * i + 1] = (byte) (s >> 8);
+        }
+        line.write(bytes, 0, count * 2);
+    }
+
+    @Override
+    public void close() {
+        if (line == null) return;
+        line.stop();
+        line.close();
+        line = null;
+    }
+}
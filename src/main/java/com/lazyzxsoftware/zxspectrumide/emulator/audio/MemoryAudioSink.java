@@ -0,0 +1,39 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.audio;
+
+import java.util.Arrays;
+
+/**
+ * MemoryAudioSink: Guarda las muestras en memoria en lugar de sonar. Para ejecutar sin
+ * tarjeta de sonido y poder comparar la salida. No bloquea, así que no frena al emulador.
+ */
+public final class MemoryAudioSink implements AudioSink {
+    private short[] samples = new short[44100];
+    private int count;
+    private int sampleRate;
+
+    @Override
+    public void open(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    public synchronized void write(short[] src, int offset, int n) {
+        if (count + n > samples.length) samples = Arrays.copyOf(samples, Math.max(count + n, samples.length * 2));
+        System.arraycopy(src, offset, samples, count, n);
+        count += n;
+    }
+
+    @Override
+    public void close() {}
+
+    /** Copia de todo lo recibido hasta ahora. */
+    public synchronized short[] getSamples() {
+        return Arrays.copyOf(samples, count);
+    }
+
+    public synchronized void clear() {
+        count = 0;
+    }
+
+    public int getSampleRate() { return sampleRate; }
+}
@@ -0,0 +1,105 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.audio;
+
+import java.util.Arrays;
+
+/**
+ * StepSignal: Señal escalonada (nivel constante entre cambios) que se pasa a muestras.
+ *
+ * Durante el frame solo se apuntan los cambios con su T-state. Al acabar el frame, cada
+ * muestra es la media del nivel durante su intervalo (el área bajo la señal), lo que
+ * filtra lo que hay por encima de la frecuencia de muestreo en lugar de dejar que se
+ * doble como ruido. El intervalo de una muestra no es un número entero de T-states, así
+ * que la posición y el área a medias pasan de un frame al siguiente.
+ *
+ * Dos señales con el mismo reloj y los mismos frames dan siempre las mismas muestras en
+ * los mismos instantes, así que se pueden sumar (ver endFrame con mix).
+ */
+public final class StepSignal {
+    private final double tStatesPerSample;
+    private int[] times = new int[256];
+    private float[] levels = new float[256];
+    private int count;
+
+    private float level;     // Nivel al empezar el frame (antes del primer cambio)
+    private float lastLevel; // Nivel tras el último cambio apuntado
+    private double position; // Fin de la muestra en curso, relativo al inicio del frame
+    private double carry;    // Área ya acumulada de esa muestra en frames anteriores
+
+    public StepSignal(int cpuClock, int sampleRate) {
+        this.tStatesPerSample = (double) cpuClock / sampleRate;
+        this.position = tStatesPerSample;
+    }
+
+    /**
+     * Apunta un nuevo nivel desde un T-state del frame (relativo a su inicio). Los T-states
+     * deben llegar en orden; se pueden pasar del final del frame (pasan al siguiente).
+     */
+    public void change(int tState, float newLevel) {
+        if (newLevel == lastLevel) return;
+        if (count == times.length) {
+            times = Arrays.copyOf(times, count * 2);
+            levels = Arrays.copyOf(levels, count * 2);
+        }
+        times[count] = tState;
+        levels[count++] = newLevel;
+        lastLevel = newLevel;
+    }
+
+    /**
+     * Cierra un frame y deja sus muestras al principio de out.
+     * @param mix true para sumarlas a lo que ya hay en out, false para sobrescribir.
+     * @return Número de muestras (varía en uno entre frames).
+     */
+    public int endFrame(int frameLength, float[] out, boolean mix) {
+        int n = 0;
+        int e = 0;
+        double start = 0; // Hasta dónde está integrada la muestra en curso
+        double area = carry;
+        double end = position;
+        float current = level;
+
+        while (end <= frameLength) {
+            while (e < count && times[e] < end) {
+                area += current * (times[e] - start);
+                start = times[e];
+                current = levels[e++];
+            }
+            area += current * (end - start);
+            start = end;
+            float sample = (float) (area / tStatesPerSample);
+            out[n] = mix ? out[n] + sample : sample;
+            n++;
+            area = 0;
+            end += tStatesPerSample;
+        }
+        while (e < count && times[e] < frameLength) {
+            area += current * (times[e] - start);
+            start = times[e];
+            current = levels[e++];
+        }
+        area += current * (frameLength - start);
+
+        carry = area;
+        position = end - frameLength;
+        level = current;
+        // Los cambios posteriores al fin del frame (la CPU se pasa unos T-states) son del siguiente
+        int left = count - e;
+        System.arraycopy(levels, e, levels, 0, left);
+        for (int i = 0; i < left; i++) times[i] = times[e + i] - frameLength;
+        count = left;
+        return n;
+    }
+
+    /** Máximo de muestras que puede devolver endFrame para un frame de esa longitud. */
+    public int maxSamples(int frameLength) {
+        return (int) Math.ceil(frameLength / tStatesPerSample) + 1;
+    }
+
+    public void reset() {
+        count = 0;
+        level = 0;
+        lastLevel = 0;
+        position = tStatesPerSample;
+        carry = 0;
+    }
+}
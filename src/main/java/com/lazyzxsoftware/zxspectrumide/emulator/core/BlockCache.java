@@ -0,0 +1,202 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+import java.util.Arrays;
+
+/**
+ * BlockCache: Caché de bloques lineales de código Z80 ya decodificados.
+ * Un bloque es una secuencia de instrucciones sin saltos que termina en la primera
+ * instrucción que puede cambiar el flujo (JP, JR, CALL, RET, RST, HALT, LDIR...).
+ * Cada instrucción se guarda en un int: (PC << 16) | (fetches << 10) | (indexMode << 8) | opcode,
+ * de modo que Z80 la reejecuta sin leer prefijos ni opcode de memoria.
+ *
+ * Los bloques se graban la primera vez que el intérprete pasa por ellos y se invalidan
+ * cuando el bus avisa de una escritura sobre sus bytes (la ROM nunca se escribe, así
+ * que sus bloques no se invalidan).
+ *
+ * Un bloque compilado que se invalida cuesta una clase nueva cada vez: en cada dirección se
+ * exige el doble de entradas para volver a compilar y, tras MAX_RECOMPILES, ya no se compila.
+ */
+public final class BlockCache {
+
+    static final int MAX_INSTRUCTIONS = 64;
+    static final int MAX_BYTES = 128;
+    // Margen sobre los T-states grabados: cubre la diferencia entre ramas de la instrucción final
+    static final int TSTATE_SLACK = 32;
+    private static final int NOT_RECORDING = 0x20000;
+    static final int MAX_RECOMPILES = 3;
+
+    /** Bytes de operando de las instrucciones que cierran bloque (-1 = no cierra). */
+    private static final byte[] TERMINATOR = new byte[0x100];
+
+    static {
+        Arrays.fill(TERMINATOR, (byte) -1);
+        for (int op = 0; op < 0x100; op++) {
+            int group = op & 0xC7;
+            if (group == 0xC0 || group == 0xC7) TERMINATOR[op] = 0;       // RET cc, RST
+            else if (group == 0xC2 || group == 0xC4) TERMINATOR[op] = 2;  // JP cc, CALL cc
+        }
+        TERMINATOR[0x10] = 1; // DJNZ
+        TERMINATOR[0x18] = 1; // JR
+        TERMINATOR[0x20] = 1; TERMINATOR[0x28] = 1; TERMINATOR[0x30] = 1; TERMINATOR[0x38] = 1;
+        TERMINATOR[0x76] = 0; // HALT
+        TERMINATOR[0xC3] = 2; // JP nn
+        TERMINATOR[0xC9] = 0; // RET
+        TERMINATOR[0xCD] = 2; // CALL nn
+        TERMINATOR[0xE9] = 0; // JP (HL)
+    }
+
+    static final class Block {
+        final int start;
+        final int end; // exclusivo
+        final int[] code;
+        final int maxTStates; // Cota superior de lo que cuesta ejecutar el bloque entero
+        boolean valid = true;
+        int hits;                // Entradas al bloque (perfilado para el dynarec)
+        CompiledBlock compiled;  // Traducción a bytecode, si el bloque está caliente
+
+        Block(int start, int end, int[] code, int maxTStates) {
+            this.start = start;
+            this.end = end;
+            this.code = code;
+            this.maxTStates = maxTStates;
+        }
+    }
+
+    private final Block[] blocks = new Block[0x10000];
+    // Número de bloques que cubren cada dirección
+    private final short[] cover = new short[0x10000];
+    // Bloques compilados invalidados que cubrían cada dirección (cuenta para cualquier bloque
+    // que empiece ahí: tras una invalidación a medias se graban bloques desde otros puntos)
+    private final byte[] recompiles = new byte[0x10000];
+
+    // Bloque en grabación
+    private final int[] recCode = new int[MAX_INSTRUCTIONS];
+    private int recStart = NOT_RECORDING;
+    private int recEnd;
+    private int recCount;
+    private long recTStates;
+    private boolean recDirty;
+
+    private volatile boolean flushPending;
+
+    /**
+     * Devuelve los bytes que ocupa una instrucción que cierra bloque o -1 si no lo cierra.
+     *
+     * @param op      Opcode tras los prefijos DD/FD.
+     * @param fetches Bytes de prefijos más el propio opcode.
+     * @param edOp    Segundo byte si op es 0xED.
+     */
+    static int terminatorLength(int op, int fetches, int edOp) {
+        if (op == 0xED) {
+            boolean ret = (edOp & 0xC7) == 0x45;    // RETN / RETI
+            boolean repeat = (edOp & 0xF4) == 0xB0; // LDIR, CPIR, INIR, OTIR y sus versiones D
+            return (ret || repeat) ? fetches + 1 : -1;
+        }
+        int extra = TERMINATOR[op];
+        return extra < 0 ? -1 : fetches + extra;
+    }
+
+    Block get(int pc) {
+        if (flushPending) flush();
+        return blocks[pc];
+    }
+
+    /**
+     * Entradas que necesita un bloque que empieza en start para compilarse, o -1 si el código
+     * de esa dirección ya se ha recompilado demasiadas veces (código automodificable).
+     */
+    int hotThreshold(int start, int base) {
+        int n = recompiles[start];
+        return n > MAX_RECOMPILES ? -1 : base << n;
+    }
+
+    // --- GRABACIÓN ---
+
+    boolean isFull() { return recCount == MAX_INSTRUCTIONS; }
+
+    void beginRecording(int start, long tStates) {
+        recTStates = tStates;
+        recStart = start;
+        recEnd = start;
+        recCount = 0;
+        recDirty = false;
+    }
+
+    /**
+     * Añade una instrucción ya ejecutada. Devuelve false si no cabe en el bloque.
+     */
+    boolean append(int pc, int fetches, int indexMode, int op, int end) {
+        // Un bloque nunca da la vuelta de 0xFFFF a 0x0000: su rango [start, end) debe ser contiguo
+        if (fetches > 15 || pc < recStart || end > 0x10000 || end > recStart + MAX_BYTES || recDirty) return false;
+        recCode[recCount++] = (pc << 16) | (fetches << 10) | (indexMode << 8) | op;
+        recEnd = end;
+        return true;
+    }
+
+    void endRecording(long tStates) {
+        int start = recStart, end = recEnd;
+        recStart = NOT_RECORDING;
+        if (recDirty || recCount == 0 || flushPending) return;
+
+        Block old = blocks[start];
+        if (old != null) remove(old);
+        int cost = (int) Math.min(tStates - recTStates, Integer.MAX_VALUE - TSTATE_SLACK);
+        blocks[start] = new Block(start, end, Arrays.copyOf(recCode, recCount), cost + TSTATE_SLACK);
+        for (int a = start; a < end; a++) cover[a]++;
+    }
+
+    // --- INVALIDACIÓN ---
+
+    /**
+     * Notificación del bus: se ha escrito en la dirección indicada (0x0000-0xFFFF).
+     */
+    public void written(int address) {
+        if (cover[address] != 0) invalidate(address);
+        // Mientras se graba, cualquier escritura dentro de la ventana del bloque lo descarta
+        if (address >= recStart && address < recStart + MAX_BYTES) recDirty = true;
+    }
+
+    /**
+     * Notificación del bus para escrituras en bloque (sin dar la vuelta a 0xFFFF).
+     */
+    public void writtenRange(int address, int length) {
+        for (int a = address; a < address + length; a++) written(a);
+    }
+
+    /**
+     * Descarta todos los bloques. Se puede llamar desde cualquier hilo: el vaciado real
+     * lo hace la CPU en la siguiente búsqueda.
+     */
+    public void invalidateAll() {
+        flushPending = true;
+        recDirty = true;
+    }
+
+    private void invalidate(int address) {
+        int from = Math.max(0, address - MAX_BYTES + 1);
+        for (int s = address; s >= from; s--) {
+            Block b = blocks[s];
+            if (b != null && b.end > address) remove(b);
+        }
+    }
+
+    private void remove(Block b) {
+        if (b.compiled != null) {
+            for (int a = b.start; a < b.end; a++) {
+                if (recompiles[a] <= MAX_RECOMPILES) recompiles[a]++;
+            }
+        }
+        b.valid = false;
+        blocks[b.start] = null;
+        for (int a = b.start; a < b.end; a++) cover[a]--;
+    }
+
+    private void flush() {
+        flushPending = false;
+        for (Block b : blocks) {
+            if (b != null) b.valid = false;
+        }
+        Arrays.fill(blocks, null);
+        Arrays.fill(cover, (short) 0);
+    }
+}
@@ -0,0 +1,266 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BlockCompiler: Traduce bloques calientes de la {@link BlockCache} a bytecode JVM.
+ *
+ * Cada bloque se convierte en una clase oculta (Lookup.defineHiddenClass) anidada en Z80
+ * cuyo método run() llama directamente al método del cuadrante de cada instrucción con el
+ * opcode como constante. C2 inlinea esas llamadas y elimina el switch, así que el código
+ * del juego acaba compilado casi instrucción a instrucción.
+ *
+ * Las clases no son "fuertes": cuando un bloque se invalida (código automodificable) y deja
+ * de estar referenciado, su clase se descarga y la CPU vuelve al intérprete para esa zona.
+ */
+final class BlockCompiler {
+
+    /** Entradas en un bloque antes de compilarlo (por defecto). */
+    static final int HOT_THRESHOLD = 512;
+
+    private static final String Z80_CLASS = "com/lazyzxsoftware/zxspectrumide/emulator/core/Z80";
+    private static final String BLOCK_CLASS = "com/lazyzxsoftware/zxspectrumide/emulator/core/BlockCache$Block";
+    private static final String IFACE_CLASS = "com/lazyzxsoftware/zxspectrumide/emulator/core/CompiledBlock";
+    private static final String NAME = "com/lazyzxsoftware/zxspectrumide/emulator/core/Z80Block";
+
+    // Método de Z80 que ejecuta cada cuadrante (bits 7-6 del opcode)
+    private static final String[] QUADRANT = {"executeBlock0", "executeLoad8", "executeAlu", "executeBlock3"};
+
+    private final MethodHandles.Lookup lookup;
+    final int hotThreshold;
+    private int failures;
+    private int compiledBlocks;
+
+    /**
+     * @param lookup       Lookup con acceso privado a Z80 (las clases generadas serán nestmates suyas).
+     * @param hotThreshold Entradas en un bloque antes de compilarlo.
+     */
+    BlockCompiler(MethodHandles.Lookup lookup, int hotThreshold) {
+        this.lookup = lookup;
+        this.hotThreshold = hotThreshold;
+    }
+
+    /** Bloques compilados hasta ahora. */
+    int getCompiledBlocks() { return compiledBlocks; }
+
+    /**
+     * Compila el bloque. Devuelve null si no se ha podido (el bloque sigue interpretado).
+     */
+    CompiledBlock compile(BlockCache.Block block) {
+        try {
+            byte[] bytes = generate(block.code);
+            MethodHandles.Lookup hidden = lookup.defineHiddenClass(bytes, true, MethodHandles.Lookup.ClassOption.NESTMATE);
+            compiledBlocks++;
+            return (CompiledBlock) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            if (failures++ == 0) {
+                System.err.println("❌ Dynarec: no se pudo compilar el bloque " + String.format("%04X", block.start) + ": " + e);
+            }
+            return null;
+        }
+    }
+
+    // --- GENERACIÓN DEL CLASSFILE ---
+
+    private static byte[] generate(int[] code) throws IOException {
+        ConstantPool cp = new ConstantPool();
+        int thisClass = cp.classRef(NAME);
+        int superClass = cp.classRef("java/lang/Object");
+        int iface = cp.classRef(IFACE_CLASS);
+        int objectInit = cp.methodRef("java/lang/Object", "<init>", "()V");
+        int begin = cp.methodRef(Z80_CLASS, "beginCompiled", "(III)V");
+        int[] quadrant = new int[4];
+        for (int q = 0; q < 4; q++) quadrant[q] = cp.methodRef(Z80_CLASS, QUADRANT[q], "(I)V");
+        int indexMode = cp.fieldRef(Z80_CLASS, "indexMode", "I");
+        int valid = cp.fieldRef(BLOCK_CLASS, "valid", "Z");
+        int codeAttr = cp.utf8("Code");
+        int frameAttr = cp.utf8("StackMapTable");
+        int initName = cp.utf8("<init>");
+        int initDesc = cp.utf8("()V");
+        int runName = cp.utf8("run");
+        int runDesc = cp.utf8("(L" + Z80_CLASS + ";L" + BLOCK_CLASS + ";)V");
+
+        // <init>: aload_0, invokespecial Object.<init>, return
+        ByteArrayOutputStream init = new ByteArrayOutputStream();
+        init.write(0x2A);
+        init.write(0xB7); u2(init, objectInit);
+        init.write(0xB1);
+
+        // run(cpu, block): por instrucción -> beginCompiled(pc, fetches, mode); executeXxx(op);
+        // y, si no es la última, "if (!block.valid) return;"
+        ByteArrayOutputStream run = new ByteArrayOutputStream();
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        int frameCount = 0, lastFrame = -1;
+        for (int i = 0; i < code.length; i++) {
+            int w = code[i];
+            int op = w & 0xFF;
+            int mode = (w >> 8) & 0x03;
+
+            run.write(0x2B); // aload_1
+            pushInt(run, cp, w >>> 16);
+            pushInt(run, cp, (w >> 10) & 0x0F);
+            pushInt(run, cp, mode);
+            run.write(0xB6); u2(run, begin);
+
+            run.write(0x2B);
+            pushInt(run, cp, op);
+            run.write(0xB6); u2(run, quadrant[op >> 6]);
+
+            if (mode != 0) {
+                run.write(0x2B);
+                run.write(0x03); // iconst_0
+                run.write(0xB5); u2(run, indexMode);
+            }
+
+            if (i < code.length - 1) {
+                run.write(0x2C); // aload_2
+                run.write(0xB4); u2(run, valid);
+                run.write(0x9A); u2(run, 4); // ifne -> siguiente instrucción
+                run.write(0xB1);
+                // Destino del salto: misma pila vacía y mismos locales que a la entrada
+                int offset = run.size();
+                int delta = offset - lastFrame - 1;
+                if (delta < 64) {
+                    frames.write(delta);
+                } else {
+                    frames.write(251);
+                    u2(frames, delta);
+                }
+                lastFrame = offset;
+                frameCount++;
+            }
+        }
+        run.write(0xB1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream d = new DataOutputStream(out);
+        d.writeInt(0xCAFEBABE);
+        d.writeShort(0);
+        d.writeShort(61); // Java 17
+        cp.writeTo(d);
+        d.writeShort(0x0030); // ACC_FINAL | ACC_SUPER
+        d.writeShort(thisClass);
+        d.writeShort(superClass);
+        d.writeShort(1);
+        d.writeShort(iface);
+        d.writeShort(0); // campos
+
+        d.writeShort(2); // métodos
+        writeMethod(d, 0x0001, initName, initDesc, codeAttr, 1, 1, init.toByteArray(), frameAttr, 0, null);
+        writeMethod(d, 0x0001, runName, runDesc, codeAttr, 4, 3, run.toByteArray(), frameAttr, frameCount, frames.toByteArray());
+
+        d.writeShort(0); // atributos de clase
+        d.flush();
+        return out.toByteArray();
+    }
+
+    private static void writeMethod(DataOutputStream d, int access, int name, int desc, int codeAttr,
+                                    int maxStack, int maxLocals, byte[] code,
+                                    int frameAttr, int frameCount, byte[] frames) throws IOException {
+        d.writeShort(access);
+        d.writeShort(name);
+        d.writeShort(desc);
+        d.writeShort(1);
+
+        int framesLength = frameCount == 0 ? 0 : 2 + 4 + 2 + frames.length;
+        d.writeShort(codeAttr);
+        d.writeInt(2 + 2 + 4 + code.length + 2 + 2 + framesLength);
+        d.writeShort(maxStack);
+        d.writeShort(maxLocals);
+        d.writeInt(code.length);
+        d.write(code);
+        d.writeShort(0); // tabla de excepciones
+        if (frameCount == 0) {
+            d.writeShort(0);
+        } else {
+            d.writeShort(1);
+            d.writeShort(frameAttr);
+            d.writeInt(2 + frames.length);
+            d.writeShort(frameCount);
+            d.write(frames);
+        }
+    }
+
+    private static void pushInt(ByteArrayOutputStream out, ConstantPool cp, int v) {
+        if (v >= -1 && v <= 5) {
+            out.write(0x03 + v); // iconst_<v>
+        } else if (v >= -128 && v <= 127) {
+            out.write(0x10); out.write(v);
+        } else if (v >= -32768 && v <= 32767) {
+            out.write(0x11); u2(out, v);
+        } else {
+            out.write(0x13); u2(out, cp.integer(v)); // ldc_w
+        }
+    }
+
+    private static void u2(ByteArrayOutputStream out, int v) {
+        out.write(v >> 8);
+        out.write(v);
+    }
+
+    /**
+     * Constant pool mínimo: solo los tipos de entrada que usa el generador.
+     */
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String s) {
+            return entry("U" + s, () -> { out.writeByte(1); out.writeUTF(s); });
+        }
+
+        int integer(int v) {
+            return entry("I" + v, () -> { out.writeByte(3); out.writeInt(v); });
+        }
+
+        int classRef(String name) {
+            int n = utf8(name);
+            return entry("C" + name, () -> { out.writeByte(7); out.writeShort(n); });
+        }
+
+        int fieldRef(String owner, String name, String desc) {
+            return memberRef(9, owner, name, desc);
+        }
+
+        int methodRef(String owner, String name, String desc) {
+            return memberRef(10, owner, name, desc);
+        }
+
+        private int memberRef(int tag, String owner, String name, String desc) {
+            int c = classRef(owner);
+            int n = utf8(name), t = utf8(desc);
+            int nat = entry("N" + name + ":" + desc, () -> { out.writeByte(12); out.writeShort(n); out.writeShort(t); });
+            return entry(tag + owner + "." + name + ":" + desc, () -> { out.writeByte(tag); out.writeShort(c); out.writeShort(nat); });
+        }
+
+        private int entry(String key, Writer writer) {
+            Integer index = entries.get(key);
+            if (index != null) return index;
+            try {
+                writer.write();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            entries.put(key, count);
+            return count++;
+        }
+
+        void writeTo(DataOutputStream d) throws IOException {
+            d.writeShort(count);
+            out.flush();
+            bytes.writeTo(d);
+        }
+
+        private interface Writer {
+            void write() throws IOException;
+        }
+    }
+}
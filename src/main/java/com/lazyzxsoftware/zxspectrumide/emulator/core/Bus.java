@@ -6,4 +6,17 @@ public interface Bus {
 
     int input(int port);
     void output(int port, int value);
-}
\ No newline at end of file
+
+    /**
+     * Registra la caché de bloques a la que hay que avisar de cada escritura en memoria
+     * (null = ninguna). Los buses sin RAM escribible pueden ignorarlo.
+     */
+    default void setBlockCache(BlockCache cache) { }
+
+    /**
+     * Copia count bytes de src a dst avanzando (step = 1, como LDIR) o retrocediendo (step = -1,
+     * como LDDR). Debe dar el mismo resultado que count pares read/write byte a byte; si no puede
+     * garantizarlo de golpe devuelve false sin tocar nada y la CPU hace el bucle.
+     */
+    default boolean copyBlock(int src, int dst, int count, int step) { return false; }
+}
@@ -0,0 +1,14 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+/**
+ * Bloque Z80 traducido a bytecode por {@link BlockCompiler}.
+ * Las implementaciones son clases ocultas anidadas en Z80 (acceden a sus métodos privados).
+ */
+interface CompiledBlock {
+
+    /**
+     * Ejecuta el bloque entero sin comprobar el límite de T-states (quien llama ya ha
+     * verificado que cabe). Vuelve antes de tiempo si una escritura invalida el bloque.
+     */
+    void run(Z80 cpu, BlockCache.Block block);
+}
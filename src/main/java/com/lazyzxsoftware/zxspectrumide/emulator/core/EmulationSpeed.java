@@ -0,0 +1,26 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+/**
+ * Velocidad de emulación respecto a la máquina real (50 frames por segundo).
+ */
+public enum EmulationSpeed {
+    NORMAL(1, "x1"),
+    DOUBLE(2, "x2"),
+    TURBO(10, "x10"),
+    /** Sin esperas: tan rápido como dé la CPU (cargar y ejecutar programas de prueba). */
+    UNLIMITED(0, "Sin límite");
+
+    private final int multiplier;
+    private final String label;
+
+    EmulationSpeed(int multiplier, String label) {
+        this.multiplier = multiplier;
+        this.label = label;
+    }
+
+    /** Frames emulados por cada frame real (0 = sin límite). */
+    public int getMultiplier() { return multiplier; }
+
+    @Override
+    public String toString() { return label; }
+}
@@ -0,0 +1,129 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+import java.util.Arrays;
+
+/**
+ * EventScheduler: Cola de eventos de la máquina ordenada por T-state absoluto.
+ * Montículo binario sobre arrays primitivos: programar y extraer no reserva memoria
+ * (salvo al crecer). A igual T-state, los eventos salen en el orden en que se programaron.
+ * El dueño ejecuta la CPU con runUntil(nextTime()) y despacha el evento con pop().
+ * Solo debe usarse desde el hilo del emulador.
+ */
+public final class EventScheduler {
+
+    private long[] times = new long[16];
+    private long[] order = new long[16];
+    private int[] events = new int[16];
+    private int size;
+    private long sequence;
+
+    /**
+     * Programa un evento (identificador libre del dueño) en el T-state absoluto indicado.
+     */
+    public void schedule(long tState, int event) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            order = Arrays.copyOf(order, size * 2);
+            events = Arrays.copyOf(events, size * 2);
+        }
+        int i = size++;
+        times[i] = tState;
+        order[i] = sequence++;
+        events[i] = event;
+        siftUp(i);
+    }
+
+    /** T-state del próximo evento (Long.MAX_VALUE si no hay ninguno). */
+    public long nextTime() {
+        return size == 0 ? Long.MAX_VALUE : times[0];
+    }
+
+    /** Identificador del próximo evento (-1 si no hay ninguno). */
+    public int nextEvent() {
+        return size == 0 ? -1 : events[0];
+    }
+
+    /**
+     * Saca el próximo evento y devuelve su identificador.
+     */
+    public int pop() {
+        if (size == 0) throw new IllegalStateException("No hay eventos programados");
+        int event = events[0];
+        removeAt(0);
+        return event;
+    }
+
+    /**
+     * Anula todas las apariciones de un evento. Devuelve true si había alguna.
+     */
+    public boolean cancel(int event) {
+        boolean found = false;
+        for (int i = size - 1; i >= 0; i--) {
+            if (events[i] == event) {
+                removeAt(i);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    public boolean isScheduled(int event) {
+        for (int i = 0; i < size; i++) {
+            if (events[i] == event) return true;
+        }
+        return false;
+    }
+
+    public int size() { return size; }
+
+    public void clear() {
+        size = 0;
+        sequence = 0;
+    }
+
+    // --- MONTÍCULO ---
+
+    private void removeAt(int i) {
+        int last = --size;
+        if (i == last) return;
+        move(last, i);
+        siftDown(i);
+        siftUp(i);
+    }
+
+    private boolean before(int a, int b) {
+        return times[a] < times[b] || (times[a] == times[b] && order[a] < order[b]);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (!before(i, parent)) return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) return;
+            int child = (left + 1 < size && before(left + 1, left)) ? left + 1 : left;
+            if (!before(child, i)) return;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void move(int from, int to) {
+        times[to] = times[from];
+        order[to] = order[from];
+        events[to] = events[from];
+    }
+
+    private void swap(int a, int b) {
+        long t = times[a]; times[a] = times[b]; times[b] = t;
+        long o = order[a]; order[a] = order[b]; order[b] = o;
+        int e = events[a]; events[a] = events[b]; events[b] = e;
+    }
+}
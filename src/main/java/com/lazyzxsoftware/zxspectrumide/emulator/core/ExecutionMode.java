@@ -0,0 +1,13 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+/**
+ * Modo de ejecución de la CPU en runUntil.
+ */
+public enum ExecutionMode {
+    /** Decodifica cada instrucción desde memoria. */
+    INTERPRETER,
+    /** Reejecuta bloques lineales ya decodificados (ver {@link BlockCache}). */
+    BLOCK_CACHE,
+    /** Como BLOCK_CACHE, pero los bloques calientes se traducen a bytecode (ver {@link BlockCompiler}). */
+    DYNAREC
+}
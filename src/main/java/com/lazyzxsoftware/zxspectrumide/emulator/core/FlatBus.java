@@ -0,0 +1,102 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+import java.util.Arrays;
+
+/**
+ * FlatBus: Bus de 64KB de RAM plana, sin ROM, bancos ni contención.
+ * Lo usan el banco de pruebas de la CPU y las ejecuciones headless (ZEXALL...).
+ * Los puertos de entrada devuelven 0xFF y el puerto 0x01 actúa como consola de texto.
+ */
+public final class FlatBus implements Bus {
+    private final byte[] data = new byte[65536];
+    private final StringBuilder console = new StringBuilder();
+    private boolean echo;
+    private BlockCache blockCache;
+
+    public FlatBus() {
+        reset();
+    }
+
+    /**
+     * Reinicia la memoria a ceros y vacía la consola.
+     */
+    public void reset() {
+        Arrays.fill(data, (byte) 0);
+        console.setLength(0);
+        if (blockCache != null) blockCache.invalidateAll();
+    }
+
+    @Override
+    public int read(int address) {
+        return data[address & 0xFFFF] & 0xFF;
+    }
+
+    @Override
+    public void write(int address, int value) {
+        int addr = address & 0xFFFF;
+        data[addr] = (byte) value;
+        if (blockCache != null) blockCache.written(addr);
+    }
+
+    @Override
+    public void setBlockCache(BlockCache cache) {
+        this.blockCache = cache;
+    }
+
+    @Override
+    public boolean copyBlock(int src, int dst, int count, int step) {
+        long range = Memory.arrayCopyRange(src, dst, count, step);
+        if (range < 0) return false;
+        int s = (int) (range >>> 16), d = (int) range & 0xFFFF;
+        System.arraycopy(data, s, data, d, count);
+        if (blockCache != null) blockCache.writtenRange(d, count);
+        return true;
+    }
+
+    @Override
+    public int input(int port) {
+        return 0xFF;
+    }
+
+    @Override
+    public void output(int port, int value) {
+        // ZEXALL y similares envían caracteres al terminal por el puerto 0x01
+        if ((port & 0xFF) == 0x01) {
+            console.append((char) (value & 0xFF));
+            if (echo) System.out.print((char) (value & 0xFF));
+        }
+    }
+
+    // --- MÉTODOS AUXILIARES DE 16 BITS (Little Endian) ---
+
+    public int readWord(int address) {
+        return read(address) | (read(address + 1) << 8);
+    }
+
+    public void writeWord(int address, int value) {
+        write(address, value);
+        write(address + 1, value >> 8);
+    }
+
+    // --- UTILIDADES PARA TESTS ---
+
+    /**
+     * Carga un array de bytes en una dirección específica.
+     */
+    public void loadData(int address, byte[] content) {
+        for (int i = 0; i < content.length; i++) {
+            data[(address + i) & 0xFFFF] = content[i];
+        }
+        if (blockCache != null) blockCache.invalidateAll();
+    }
+
+    /** Texto acumulado en el puerto 0x01 desde el último reset(). */
+    public String getConsoleOutput() {
+        return console.toString();
+    }
+
+    /** Si está activo, la consola también se copia a la salida estándar. */
+    public void setEcho(boolean echo) {
+        this.echo = echo;
+    }
+}
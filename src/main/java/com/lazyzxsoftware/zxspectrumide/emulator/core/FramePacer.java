@@ -0,0 +1,75 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * FramePacer: Marca el ritmo de los frames del emulador.
+ *
+ * Cada frame tiene un instante objetivo absoluto (el anterior + periodo), así los errores de
+ * parkNanos no se acumulan: si un frame se despierta tarde, el siguiente espera menos. Si
+ * vamos muy retrasados (la máquina no da más de sí, o se ha parado el hilo) se vuelve a
+ * sincronizar con el reloj en lugar de intentar recuperar a ráfagas.
+ *
+ * Por encima de x1 no tiene sentido pintar todos los frames: shouldRender solo deja pintar
+ * uno por cada periodo real de 20 ms.
+ */
+public final class FramePacer {
+    public static final long FRAME_NANOS = 20_000_000L; // 50 Hz
+    private static final long MAX_LAG_NANOS = 100_000_000L;
+
+    private volatile EmulationSpeed speed = EmulationSpeed.NORMAL;
+    private volatile boolean warp; // Sin límite mientras dure (p.ej. cinta sonando), sin tocar speed
+    private long deadline = System.nanoTime(); // Hilo del emulador
+    private long lastRender;
+
+    public void setSpeed(EmulationSpeed speed) { this.speed = speed; }
+
+    public EmulationSpeed getSpeed() { return speed; }
+
+    public void setWarp(boolean warp) { this.warp = warp; }
+
+    /** A x1 y sin warp: el único caso en el que lo emulado va a la par que el reloj real. */
+    public boolean isRealTime() { return speed == EmulationSpeed.NORMAL && !warp; }
+
+    /** Vuelve a contar desde ahora (al arrancar o al salir de pausa). */
+    public void reset() {
+        deadline = System.nanoTime();
+    }
+
+    /**
+     * Espera hasta el instante del siguiente frame según la velocidad actual.
+     * @param wakeUp Se consulta en cada despertar (unpark); si devuelve true deja de esperar.
+     *               El siguiente frame sigue contando desde el mismo instante objetivo.
+     */
+    public void frameDone(BooleanSupplier wakeUp) {
+        int multiplier = warp ? 0 : speed.getMultiplier();
+        long now = System.nanoTime();
+        if (multiplier == 0) {
+            deadline = now;
+            return;
+        }
+        deadline += FRAME_NANOS / multiplier;
+        long wait = deadline - now;
+        if (wait < -MAX_LAG_NANOS) {
+            deadline = now;
+            return;
+        }
+        while (wait > 0 && !wakeUp.getAsBoolean()) {
+            LockSupport.parkNanos(wait);
+            wait = deadline - System.nanoTime();
+        }
+    }
+
+    /**
+     * Indica si hay que pintar el frame que empieza. A x1 siempre; más rápido, solo si ha
+     * pasado un periodo real desde el último frame pintado.
+     */
+    public boolean shouldRender() {
+        if (isRealTime()) return true;
+        long now = System.nanoTime();
+        if (now - lastRender < FRAME_NANOS) return false;
+        lastRender = now;
+        return true;
+    }
+}
@@ -4,16 +4,64 @@ import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Random; // Importar Random
 
+/**
+ * Memory: Mapa de memoria del Spectrum en cuatro ranuras de 16K.
+ * Cada ranura apunta a un banco compartido (ROM0-ROM3 o RAM0-RAM7), así que paginar es
+ * cambiar una referencia, no copiar 16K. La protección de la ROM es un atributo de la
+ * ranura: las escrituras en una ranura de solo lectura se ignoran.
+ *
+ * Las escrituras en el archivo de pantalla (6912 bytes del banco que muestra la ULA) se
+ * marcan en un mapa de "sucio" que el render recoge y limpia para redibujar solo lo que ha
+ * cambiado. Se usa desde el hilo del emulador.
+ *
+ * Por defecto queda el mapa del 48K: ROM0, RAM5, RAM2, RAM0 (el mismo que ve un 128K
+ * recién encendido), de modo que el 48K y los modelos 128K comparten esta clase.
+ */
 public class Memory {
-    private final byte[] data = new byte[65536];
-    private boolean isRomProtected = true;
+    public static final int BANK_SIZE = 0x4000;
+    public static final int ROM_BANKS = 4;
+    public static final int RAM_BANKS = 8;
+    /** Bitmap + atributos. */
+    public static final int SCREEN_SIZE = 6912;
+    /** Longs del mapa de bits de pantalla (un bit por byte). */
+    public static final int SCREEN_DIRTY_WORDS = (SCREEN_SIZE + 63) / 64;
+
+    private final byte[][] romBanks = new byte[ROM_BANKS][BANK_SIZE];
+    private final byte[][] ramBanks = new byte[RAM_BANKS][BANK_SIZE];
+
+    // Tabla de páginas: banco de cada ranura, si es de solo lectura y qué otra ranura
+    // ve el mismo banco (-1 si ninguna) para avisar a la caché de bloques por las dos direcciones.
+    // Las escrituras usan su propia tabla: las ranuras de ROM apuntan a un banco de descarte,
+    // así escribir es siempre un único store sin comprobar la dirección
+    private final byte[][] pages = new byte[4][];
+    private final byte[][] writePages = new byte[4][];
+    private final byte[] romSink = new byte[BANK_SIZE];
+    private final boolean[] readOnly = new boolean[4];
+    private final int[] alias = new int[4];
+    private final int[] pageId = new int[4]; // 0-3 ROM, 4-11 RAM
+    private final boolean[] screenSlot = new boolean[4]; // La ranura ve el banco de pantalla
+
+    // Bytes de pantalla escritos. Un byte por marca y no un bit: marcar es un store simple, sin
+    // leer-modificar-escribir sobre el mismo long en cada escritura; takeDirtyScreen los
+    // devuelve ya como bits
+    private final byte[] dirtyScreen = new byte[SCREEN_SIZE];
+
+    // Último valor del puerto 0x7FFD (128K)
+    private int port7FFD;
+    private boolean pagingLocked;
+
+    private BlockCache blockCache; // Código cacheado de la CPU (null si no hay)
 
     public Memory() {
         reset(); // Usar el reset para llenar con ruido
     }
 
+    public void setBlockCache(BlockCache cache) {
+        this.blockCache = cache;
+    }
+
     public int read(int address) {
-        return this.data[address & 0xFFFF] & 0xFF;
+        return pages[(address >> 14) & 3][address & 0x3FFF] & 0xFF;
     }
 
     public void loadBinary(String resourcePath, int startAddress) {
@@ -23,27 +71,234 @@ public class Memory {
                 return;
             }
             byte[] buffer = is.readAllBytes();
+            // Carga directa en los bancos mapeados: puede sobrescribir la ROM
             for (int i = 0; i < buffer.length && (startAddress + i) < 65536; i++) {
-                this.data[(startAddress + i) & 0xFFFF] = (byte) (buffer[i] & 0xFF);
+                int addr = (startAddress + i) & 0xFFFF;
+                pages[addr >> 14][addr & 0x3FFF] = buffer[i];
             }
+            markAllDirty();
+            if (blockCache != null) blockCache.invalidateAll();
             System.out.println("✅ Binario cargado: " + resourcePath + " en " + String.format("%04X", startAddress));
         } catch (Exception e) {
             System.err.println("❌ Error cargando binario: " + e.getMessage());
         }
     }
 
+    /**
+     * Camino rápido de escritura. Para depurar escrituras está {@link ValidatingBus}.
+     */
     public void write(int address, int value) {
         int addr = address & 0xFFFF;
-        if (addr >= 0x4000) {
-            data[addr] = (byte) (value & 0xFF);
-
-            // --- NUEVA ESTRATEGIA DE LOG ---
-            int verify = data[addr] & 0xFF;
-            if (verify != (value & 0xFF)) {
-                System.out.println(String.format("!!! ERROR DE MEMORIA en %04X: Escribí %02X pero leo %02X",
-                        addr, (value & 0xFF), verify));
+        int page = addr >> 14;
+        int offset = addr & 0x3FFF;
+        writePages[page][offset] = (byte) value;
+        if (offset < SCREEN_SIZE && screenSlot[page]) dirtyScreen[offset] = 1;
+        if (blockCache != null) notifyWrite(addr);
+    }
+
+    private void notifyWrite(int addr) {
+        int page = addr >> 14;
+        if (readOnly[page]) return; // Escritura descartada: el código de la ROM sigue igual
+        blockCache.written(addr);
+        if (alias[page] >= 0) blockCache.written((alias[page] << 14) | (addr & 0x3FFF));
+    }
+
+    /**
+     * Copia en bloque para LDIR/LDDR (ver {@link Bus#copyBlock}). Se trocea en las fronteras
+     * de página; los trozos que caen en ROM se descartan como lo haría la copia byte a byte.
+     */
+    public boolean copyBlock(int src, int dst, int count, int step) {
+        // Con un banco visible en dos ranuras el solape real no se ve en las direcciones
+        for (int p = 0; p < 4; p++) {
+            if (alias[p] >= 0) return false;
+        }
+        long range = arrayCopyRange(src, dst, count, step);
+        if (range < 0) return false;
+        int s = (int) (range >>> 16), d = (int) range & 0xFFFF;
+        // Orden del recorrido: con solape permitido, hacia delante en LDIR y hacia atrás en LDDR
+        if (step > 0) {
+            while (count > 0) {
+                int n = Math.min(count, Math.min(BANK_SIZE - (s & 0x3FFF), BANK_SIZE - (d & 0x3FFF)));
+                copyChunk(s, d, n);
+                s += n; d += n; count -= n;
+            }
+        } else {
+            int se = s + count, de = d + count; // finales exclusivos
+            while (count > 0) {
+                int n = Math.min(count, Math.min(((se - 1) & 0x3FFF) + 1, ((de - 1) & 0x3FFF) + 1));
+                se -= n; de -= n; count -= n;
+                copyChunk(se, de, n);
             }
         }
+        return true;
+    }
+
+    private void copyChunk(int src, int dst, int count) {
+        int page = dst >> 14;
+        if (readOnly[page]) return;
+        System.arraycopy(pages[src >> 14], src & 0x3FFF, pages[page], dst & 0x3FFF, count);
+        markScreen(page, dst & 0x3FFF, count);
+        if (blockCache != null) blockCache.writtenRange(dst, count);
+    }
+
+    /**
+     * Escribe un bloque de bytes a partir de una dirección (cargas de cinta, snapshots) con el
+     * mismo efecto que escribirlos uno a uno, pero con System.arraycopy por trozos de página.
+     * La dirección da la vuelta en 0xFFFF y lo que cae en ROM se descarta.
+     */
+    public void writeBlock(int address, byte[] src, int offset, int count) {
+        int addr = address & 0xFFFF;
+        while (count > 0) {
+            int page = addr >> 14;
+            int off = addr & 0x3FFF;
+            int n = Math.min(count, BANK_SIZE - off);
+            if (!readOnly[page]) {
+                System.arraycopy(src, offset, writePages[page], off, n);
+                markScreen(page, off, n);
+                if (blockCache != null) {
+                    blockCache.writtenRange(addr, n);
+                    if (alias[page] >= 0) blockCache.writtenRange((alias[page] << 14) | off, n);
+                }
+            }
+            addr = (addr + n) & 0xFFFF;
+            offset += n;
+            count -= n;
+        }
+    }
+
+    /**
+     * Sustituye un banco de RAM entero (snapshots) con un arraycopy, esté paginado o no. Marca
+     * la pantalla si es el banco que se ve y avisa a la caché por las ranuras donde está mapeado.
+     */
+    public void writeRamBank(int bank, byte[] src) {
+        System.arraycopy(src, 0, ramBanks[bank], 0, BANK_SIZE);
+        int id = ROM_BANKS + bank;
+        if (bank == getScreenBank()) Arrays.fill(dirtyScreen, (byte) 1);
+        if (blockCache != null) {
+            for (int slot = 0; slot < 4; slot++) {
+                if (pageId[slot] == id) blockCache.writtenRange(slot << 14, BANK_SIZE);
+            }
+        }
+    }
+
+    /** Copia de un banco de RAM entero (snapshots). */
+    public byte[] copyRamBank(int bank) {
+        return ramBanks[bank].clone();
+    }
+
+    private void markScreen(int page, int offset, int count) {
+        if (screenSlot[page] && offset < SCREEN_SIZE) {
+            Arrays.fill(dirtyScreen, offset, Math.min(offset + count, SCREEN_SIZE), (byte) 1);
+        }
+    }
+
+    /**
+     * Comprueba que una copia tipo LDIR/LDDR puede hacerse con System.arraycopy: rangos sin
+     * dar la vuelta a 0xFFFF y sin el solape que hace que la copia byte a byte replique datos
+     * ya copiados. Devuelve el inicio de origen y destino empaquetados (src << 16 | dst, en un
+     * long para que un origen por encima de 0x8000 no salga negativo), o -1 si no se puede.
+     */
+    static long arrayCopyRange(int src, int dst, int count, int step) {
+        if (step > 0) {
+            if (src + count > 0x10000 || dst + count > 0x10000) return -1;
+            if (dst > src && dst < src + count) return -1;
+            return ((long) src << 16) | dst;
+        }
+        int s0 = src - count + 1, d0 = dst - count + 1;
+        if (s0 < 0 || d0 < 0) return -1;
+        if (dst < src && dst > src - count) return -1;
+        return ((long) s0 << 16) | d0;
+    }
+
+    // --- PAGINACIÓN ---
+
+    /** Pone el banco de ROM indicado (0-3) en la ranura (0-3), como solo lectura. */
+    public void mapRom(int slot, int bank) {
+        map(slot, romBanks[bank], true, bank);
+    }
+
+    /** Pone el banco de RAM indicado (0-7) en la ranura (0-3). */
+    public void mapRam(int slot, int bank) {
+        map(slot, ramBanks[bank], false, ROM_BANKS + bank);
+    }
+
+    private void map(int slot, byte[] bank, boolean ro, int id) {
+        if (pages[slot] == bank) return;
+        pages[slot] = bank;
+        writePages[slot] = ro ? romSink : bank;
+        readOnly[slot] = ro;
+        pageId[slot] = id;
+        for (int p = 0; p < 4; p++) {
+            alias[p] = -1;
+            for (int q = 0; q < 4; q++) {
+                if (q != p && pages[q] == pages[p]) alias[p] = q;
+            }
+        }
+        updateScreenSlots();
+        // El código cacheado de esa ranura ya no es el que hay en memoria
+        if (blockCache != null) blockCache.writtenRange(slot << 14, BANK_SIZE);
+    }
+
+    /**
+     * Puerto 0x7FFD de los modelos 128K: bits 0-2 RAM en 0xC000, bit 3 pantalla (RAM5/RAM7),
+     * bit 4 ROM en 0x0000 y bit 5 bloquea la paginación hasta el siguiente reset.
+     */
+    public void writePort7FFD(int value) {
+        if (pagingLocked) return;
+        int oldScreen = getScreenBank();
+        port7FFD = value & 0xFF;
+        mapRam(3, value & 0x07);
+        mapRom(0, (value >> 4) & 0x01);
+        pagingLocked = (value & 0x20) != 0;
+        if (getScreenBank() != oldScreen) {
+            updateScreenSlots();
+            Arrays.fill(dirtyScreen, (byte) 1);
+        }
+    }
+
+    private void updateScreenSlots() {
+        byte[] screen = ramBanks[getScreenBank()];
+        for (int p = 0; p < 4; p++) screenSlot[p] = pages[p] == screen;
+    }
+
+    // --- PANTALLA SUCIA ---
+
+    /**
+     * Vuelca con OR en out (SCREEN_DIRTY_WORDS longs; bit n = byte n del archivo de pantalla)
+     * los bytes de pantalla escritos y limpia el mapa. Devuelve false si no había ninguno.
+     */
+    public boolean takeDirtyScreen(long[] out) {
+        boolean any = false;
+        for (int i = 0; i < SCREEN_SIZE; i++) {
+            if (dirtyScreen[i] != 0) {
+                out[i >> 6] |= 1L << i;
+                dirtyScreen[i] = 0;
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    /** Marca toda la pantalla como sucia (carga de ROM, snapshot, reset). */
+    public void markAllDirty() {
+        Arrays.fill(dirtyScreen, (byte) 1);
+    }
+
+    public int getPort7FFD() { return port7FFD; }
+
+    /** Banco de RAM que muestra la ULA (5 o 7 según el bit 3 de 0x7FFD). */
+    public int getScreenBank() {
+        return (port7FFD & 0x08) != 0 ? 7 : 5;
+    }
+
+    /** Lectura directa de un banco de RAM, sin pasar por el mapa (p. ej. para la ULA). */
+    public int readRam(int bank, int offset) {
+        return ramBanks[bank][offset & 0x3FFF] & 0xFF;
+    }
+
+    /** Banco mapeado en una ranura: 0-3 ROM, 4-11 RAM0-RAM7. */
+    public int getPageId(int slot) {
+        return pageId[slot];
     }
 
     public void reset() {
@@ -52,14 +307,22 @@ public class Memory {
         // detecte correctamente dónde termina la RAM física.
         Random rand = new Random();
 
-        // La RAM del Spectrum 48K comienza en la dirección 0x4000 (16384).
-        // No tocamos la zona de ROM (0x0000 - 0x3FFF) ya que se encarga loadRom.
-        for (int i = 0x4000; i < data.length; i++) {
-            // Usamos el cast (byte) para convertir el int (0-255) al tipo del array.
-            // Esto evita el error de "lossy conversion" en Java.
-            data[i] = (byte) rand.nextInt(256);
+        // Todos los bancos de RAM; la ROM no se toca, ya que se encarga loadRom.
+        for (byte[] bank : ramBanks) {
+            rand.nextBytes(bank);
         }
 
+        // Mapa de encendido: ROM0, RAM5, RAM2, RAM0 y paginación desbloqueada
+        port7FFD = 0;
+        pagingLocked = false;
+        mapRom(0, 0);
+        mapRam(1, 5);
+        mapRam(2, 2);
+        mapRam(3, 0);
+        updateScreenSlots();
+
+        markAllDirty();
+        if (blockCache != null) blockCache.invalidateAll();
         System.out.println("✅ Memoria RAM reiniciada con valores aleatorios.");
     }
 
@@ -72,14 +335,15 @@ public class Memory {
             // Leemos todos los bytes del archivo de la ROM
             byte[] buffer = is.readAllBytes();
 
-            // El Spectrum 48K carga su ROM en los primeros 16KB (direcciones 0 a 16383)
-            // Usamos Math.min para no intentar escribir más allá del espacio de la ROM
-            for (int i = 0; i < Math.min(buffer.length, 16384); i++) {
-                // Aplicamos cast (byte) para convertir el int resultante de la máscara
-                // Esto guarda los 8 bits exactos en el array 'data'
-                this.data[i] = (byte) (buffer[i] & 0xFF);
+            // Cada 16KB del fichero van a un banco de ROM consecutivo: el 48K tiene uno,
+            // el 128K dos y el +2A/+3 cuatro
+            for (int bank = 0; bank < ROM_BANKS && bank * BANK_SIZE < buffer.length; bank++) {
+                int from = bank * BANK_SIZE;
+                System.arraycopy(buffer, from, romBanks[bank], 0, Math.min(BANK_SIZE, buffer.length - from));
             }
+            markAllDirty();
 
+            if (blockCache != null) blockCache.invalidateAll();
             System.out.println("✅ ROM cargada correctamente en memoria: " + resourcePath);
 
         } catch (Exception e) {
@@ -91,7 +355,7 @@ public class Memory {
     // Debug
     public int[] getDump(int start, int length) {
         int[] dump = new int[length];
-        for (int i = 0; i < length; i++) dump[i] = data[(start + i) & 0xFFFF];
+        for (int i = 0; i < length; i++) dump[i] = read(start + i);
         return dump;
     }
 }
\ No newline at end of file
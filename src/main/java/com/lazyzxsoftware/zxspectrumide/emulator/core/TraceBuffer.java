@@ -0,0 +1,97 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+import java.util.Arrays;
+
+/**
+ * TraceBuffer: Caja negra binaria de la CPU.
+ * Buffer circular con PC, AF, BC, DE, HL, IX, IY, SP y T-states de cada instrucción,
+ * capturados justo antes de ejecutarla. Escribir una entrada no reserva memoria.
+ */
+public final class TraceBuffer {
+
+    // Campos de cada entrada
+    public static final int PC = 0, AF = 1, BC = 2, DE = 3, HL = 4, IX = 5, IY = 6, SP = 7;
+    private static final int FIELDS = 8;
+
+    private final int[] regs;
+    private final long[] tStates;
+    private final int mask;
+    private long count = 0;
+
+    // Copy-on-write: se recorre en cada instrucción sin sincronizar
+    private volatile TraceListener[] listeners = new TraceListener[0];
+
+    /**
+     * @param capacity Número de instrucciones a conservar (se redondea a potencia de 2).
+     */
+    public TraceBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.regs = new int[size * FIELDS];
+        this.tStates = new long[size];
+        this.mask = size - 1;
+    }
+
+    void record(int pc, int af, int bc, int de, int hl, int ix, int iy, int sp, long t) {
+        int slot = (int) (count & mask);
+        int base = slot * FIELDS;
+        regs[base] = pc;
+        regs[base + AF] = af;
+        regs[base + BC] = bc;
+        regs[base + DE] = de;
+        regs[base + HL] = hl;
+        regs[base + IX] = ix;
+        regs[base + IY] = iy;
+        regs[base + SP] = sp;
+        tStates[slot] = t;
+        count++;
+
+        TraceListener[] current = listeners;
+        for (TraceListener listener : current) {
+            listener.onInstruction(this, slot);
+        }
+    }
+
+    public int capacity() { return mask + 1; }
+
+    /** Entradas disponibles (como mucho la capacidad del buffer). */
+    public int size() { return (int) Math.min(count, mask + 1); }
+
+    /** Total de instrucciones registradas desde el último clear(). */
+    public long getCount() { return count; }
+
+    /**
+     * Convierte un índice cronológico (0 = entrada más antigua) en un slot del buffer.
+     */
+    public int slot(int index) {
+        return (int) ((count - size() + index) & mask);
+    }
+
+    public int get(int slot, int field) { return regs[slot * FIELDS + field]; }
+
+    public long getTStates(int slot) { return tStates[slot]; }
+
+    public void clear() {
+        count = 0;
+        Arrays.fill(regs, 0);
+        Arrays.fill(tStates, 0);
+    }
+
+    public synchronized void addListener(TraceListener listener) {
+        TraceListener[] next = Arrays.copyOf(listeners, listeners.length + 1);
+        next[listeners.length] = listener;
+        listeners = next;
+    }
+
+    public synchronized void removeListener(TraceListener listener) {
+        TraceListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                TraceListener[] next = new TraceListener[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                listeners = next;
+                return;
+            }
+        }
+    }
+}
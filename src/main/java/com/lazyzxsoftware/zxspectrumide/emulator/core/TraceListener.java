@@ -0,0 +1,14 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+/**
+ * Recibe una notificación por cada instrucción registrada en un {@link TraceBuffer}.
+ * Se ejecuta en el hilo del emulador: no debe reservar memoria ni bloquearse.
+ */
+public interface TraceListener {
+
+    /**
+     * @param buffer Buffer donde se acaba de escribir la entrada.
+     * @param slot   Posición de la entrada (usar {@link TraceBuffer#get(int, int)} para leerla).
+     */
+    void onInstruction(TraceBuffer buffer, int slot);
+}
@@ -0,0 +1,63 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TripleBuffer: Intercambio sin bloqueos de frames entre un productor y un consumidor.
+ *
+ * Hay tres buffers: el trasero (solo lo toca el productor), el del medio (el último publicado)
+ * y el delantero (solo lo toca el consumidor). Publicar y recoger son un getAndSet atómico
+ * sobre el índice del medio, así que ninguno de los dos espera al otro, el consumidor nunca
+ * ve un frame a medias y no hace falta copiar píxeles.
+ *
+ * Ojo: tras publicar, el productor recibe el buffer que estaba en medio, que no contiene el
+ * último frame que pintó. Quien pinte de forma incremental debe llevar el estado de cada buffer.
+ */
+public final class TripleBuffer<T> {
+    private static final int FRESH = 0x4; // El del medio tiene un frame que el consumidor no ha visto
+    private static final int INDEX = 0x3;
+
+    private final Object[] buffers;
+    private final long[] sequences = new long[3]; // Frame publicado en cada buffer
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;   // Hilo productor
+    private int front = 2;  // Hilo consumidor
+    private long sequence;  // Hilo productor
+
+    public TripleBuffer(T first, T second, T third) {
+        this.buffers = new Object[]{first, second, third};
+    }
+
+    /** Buffer en el que pinta el productor. */
+    @SuppressWarnings("unchecked")
+    public T back() {
+        return (T) buffers[back];
+    }
+
+    /**
+     * Publica el buffer trasero como último frame y pasa a pintar en otro.
+     * @return Número de secuencia del frame publicado (empieza en 1).
+     */
+    public long publish() {
+        sequences[back] = ++sequence;
+        back = middle.getAndSet(back | FRESH) & INDEX;
+        return sequence;
+    }
+
+    /**
+     * Devuelve el frame publicado más reciente. El consumidor puede leerlo hasta la siguiente
+     * llamada; si no hay nada nuevo devuelve el mismo que la vez anterior.
+     */
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return (T) buffers[front];
+    }
+
+    /** Secuencia del buffer devuelto por el último acquire (0 = aún no se ha publicado nada). */
+    public long frontSequence() {
+        return sequences[front];
+    }
+}
@@ -0,0 +1,85 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+/**
+ * ValidatingBus: Envoltorio de depuración sobre otro Bus.
+ * Comprueba que la CPU pasa direcciones de 16 bits y valores de 8 bits, y relee cada
+ * escritura: el byte leído debe ser el escrito o, si la escritura se descarta (ROM),
+ * el que ya había. Las copias en bloque solo se validan en sus parámetros y luego se dejan
+ * a la CPU, para que cada byte pase por write (ver copyBlock).
+ * Solo para depurar: cada escritura cuesta dos lecturas extra.
+ */
+public final class ValidatingBus implements Bus {
+    private final Bus bus;
+    private int errors;
+
+    public ValidatingBus(Bus bus) {
+        this.bus = bus;
+    }
+
+    @Override
+    public int read(int address) {
+        checkAddress(address, "lectura");
+        return bus.read(address);
+    }
+
+    @Override
+    public void write(int address, int value) {
+        checkAddress(address, "escritura");
+        if ((value & ~0xFF) != 0) {
+            report(String.format("!!! VALOR FUERA DE RANGO en %04X: %X", address & 0xFFFF, value));
+        }
+        int before = bus.read(address);
+        bus.write(address, value);
+        int verify = bus.read(address);
+        if (verify != (value & 0xFF) && verify != before) {
+            report(String.format("!!! ERROR DE MEMORIA en %04X: Escribí %02X pero leo %02X",
+                    address & 0xFFFF, value & 0xFF, verify));
+        }
+    }
+
+    @Override
+    public int input(int port) {
+        checkAddress(port, "entrada");
+        return bus.input(port);
+    }
+
+    @Override
+    public void output(int port, int value) {
+        checkAddress(port, "salida");
+        bus.output(port, value);
+    }
+
+    @Override
+    public void setBlockCache(BlockCache cache) {
+        bus.setBlockCache(cache);
+    }
+
+    /**
+     * Comprueba los parámetros de la copia y la rechaza siempre: la CPU hace entonces el bucle
+     * byte a byte y cada escritura se relee en write. Delegar en la copia del bus de debajo
+     * dejaría sin comprobar justo los bytes de LDIR/LDDR; que esa copia equivale al bucle ya
+     * lo cubren los tests de instrucciones de bloque.
+     */
+    @Override
+    public boolean copyBlock(int src, int dst, int count, int step) {
+        checkAddress(src, "copia, origen");
+        checkAddress(dst, "copia, destino");
+        if (count < 1 || count > 0x10000 || (step != 1 && step != -1)) {
+            report(String.format("!!! COPIA EN BLOQUE NO VÁLIDA: %X bytes, paso %d", count, step));
+        }
+        return false;
+    }
+
+    public int getErrors() { return errors; }
+
+    private void checkAddress(int address, String access) {
+        if ((address & ~0xFFFF) != 0) {
+            report(String.format("!!! DIRECCIÓN FUERA DE RANGO (%s): %X", access, address));
+        }
+    }
+
+    private void report(String message) {
+        errors++;
+        System.out.println(message);
+    }
+}
@@ -1,16 +1,14 @@
 package com.lazyzxsoftware.zxspectrumide.emulator.core;
 
-import com.lazyzxsoftware.zxspectrumide.emulator.impl.Spectrum48k;
-
-import java.io.FileWriter;
-import java.io.PrintWriter;
-import java.io.IOException;
-import java.io.File;
-
+import java.lang.invoke.MethodHandles;
 
+/**
+ * Z80: Núcleo único de CPU. Todo acceso a memoria y puertos pasa por un {@link Bus};
+ * las implementaciones concretas son finales para que HotSpot pueda desvirtualizar
+ * las llamadas en el bucle de step().
+ */
 public class Z80 {
-    private final Memory mem;
-    private final Spectrum48k machine;
+    private final Bus bus;
 
     // Registros
     public int A, F, B, C, D, E, H, L;
@@ -21,35 +19,40 @@ public class Z80 {
     public boolean IFF1, IFF2, Halted;
     public int MEMPTR;
 
-    // --- DEBUG: CAJA NEGRA DE PC ---
-    private final int[] pcHistory = new int[10000];
-    private int pcIdx = 0;
-    private int instructionsExecuted = 0;
-    private boolean logDumped = false;
+    // --- TRAZA: Caja negra opcional (null = sin coste en step) ---
+    private TraceBuffer trace;
 
-    // --- NUEVO SISTEMA DE LOG A FICHERO ---
-    private PrintWriter fileLogger;
-    private long totalInstructions = 0;
-    private static final String LOG_PATH = "build/initialize_emulator_log.txt";
+    // --- TRAPS: direcciones donde runUntil devuelve el control (cinta, breakpoints...) ---
+    private final boolean[] traps = new boolean[0x10000];
 
-    private static final int LOG_INTERVAL = 10000;
-    private StringBuilder stepLog = new StringBuilder();
+    // --- MODO DE EJECUCIÓN: intérprete puro o caché de bloques ---
+    private ExecutionMode executionMode = ExecutionMode.INTERPRETER;
+    private BlockCache blockCache;
+    private BlockCompiler compiler; // Solo en DYNAREC
 
     public long tStates;
+    // Límite de la llamada a runUntil en curso: hasta dónde pueden encadenarse vueltas de LDIR y compañía
+    private long runLimit;
     private int indexMode = 0; // 0=HL, 1=IX, 2=IY
 
     // Flags Masks
-    private static final int SF=0x80, ZF=0x40, YF=0x20, HF=0x10, XF=0x08, PF=0x04, NF=0x02, CF=0x01;
+    public static final int SF=0x80, ZF=0x40, YF=0x20, HF=0x10, XF=0x08, PF=0x04, NF=0x02, CF=0x01;
     private static final int[] SZ53P = new int[0x100];
     private static final int[] SZ53 = new int[0x100];
 
-    // Tablas de Half-Carry y Overflow para sumas
+    // Half-Carry de ADC/SBC HL: índice con el bit 11 de HL, del operando y del resultado
     private static final int[] HC_ADD = {0, HF, HF, HF, 0, 0, 0, HF};
-    private static final int[] OV_ADD = {0, 0, 0, PF, PF, 0, 0, 0};
-
-    // Tablas de Half-Carry y Overflow para restas (usadas por CP)
     private static final int[] HC_SUB = {0, 0, HF, 0, HF, 0, HF, HF};
-    private static final int[] OV_SUB = {0, PF, 0, 0, 0, 0, PF, 0};
+
+    // --- TABLAS COMPLETAS DE LA ALU DE 8 BITS ---
+    // ADC/SBC: índice (carry << 16) | (A << 8) | operando -> F resultante (ADD/SUB/CP usan carry = 0)
+    private static final byte[] ADC_FLAGS = new byte[0x20000];
+    private static final byte[] SBC_FLAGS = new byte[0x20000];
+    // INC/DEC: índice = valor original -> F sin el carry (que se conserva)
+    private static final byte[] INC_FLAGS = new byte[0x100];
+    private static final byte[] DEC_FLAGS = new byte[0x100];
+    // DAA: índice (N << 10) | (H << 9) | (C << 8) | A -> (A' << 8) | F'
+    private static final int[] DAA_TABLE = new int[0x800];
 
     static {
         for (int i = 0; i < 256; i++) {
@@ -60,27 +63,54 @@ public class Z80 {
             for (int b = 0; b < 8; b++) { if (((i >> b) & 1) != 0) p++; }
             SZ53P[i] = SZ53[i] | ((p & 1) == 0 ? PF : 0);
         }
-    }
 
-    public Z80(Memory memory, Spectrum48k machine) {
-        this.mem = memory;
-        this.machine = machine;
-        initFileLogger();
-        reset();
-    }
+        for (int cy = 0; cy < 2; cy++) {
+            for (int a = 0; a < 256; a++) {
+                for (int v = 0; v < 256; v++) {
+                    int idx = (cy << 16) | (a << 8) | v;
+
+                    int sum = a + v + cy;
+                    int fa = SZ53[sum & 0xFF];
+                    if (sum > 0xFF) fa |= CF;
+                    if ((a & 0x0F) + (v & 0x0F) + cy > 0x0F) fa |= HF;
+                    if (((a ^ ~v) & (a ^ sum) & 0x80) != 0) fa |= PF;
+                    ADC_FLAGS[idx] = (byte) fa;
+
+                    int diff = a - v - cy;
+                    int fs = SZ53[diff & 0xFF] | NF;
+                    if (diff < 0) fs |= CF;
+                    if ((a & 0x0F) - (v & 0x0F) - cy < 0) fs |= HF;
+                    if (((a ^ v) & (a ^ diff) & 0x80) != 0) fs |= PF;
+                    SBC_FLAGS[idx] = (byte) fs;
+                }
+            }
+        }
+
+        for (int v = 0; v < 256; v++) {
+            int up = (v + 1) & 0xFF;
+            INC_FLAGS[v] = (byte) (SZ53[up] | ((v & 0x0F) == 0x0F ? HF : 0) | (v == 0x7F ? PF : 0));
+            int down = (v - 1) & 0xFF;
+            DEC_FLAGS[v] = (byte) (SZ53[down] | NF | ((v & 0x0F) == 0x00 ? HF : 0) | (v == 0x80 ? PF : 0));
+        }
 
-    private void initFileLogger() {
-        try {
-            File dir = new File("build");
-            if (!dir.exists()) dir.mkdirs();
-            // Append = false para que cada ejecución empiece de cero
-            this.fileLogger = new PrintWriter(new FileWriter(LOG_PATH, false));
-            System.out.println("📝 Log de CPU iniciado en: " + LOG_PATH);
-        } catch (IOException e) {
-            System.err.println("❌ No se pudo crear el fichero de log: " + e.getMessage());
+        for (int idx = 0; idx < 0x800; idx++) {
+            int a = idx & 0xFF;
+            boolean c = (idx & 0x100) != 0, h = (idx & 0x200) != 0, n = (idx & 0x400) != 0;
+            int corr = 0;
+            int f = 0;
+            if (h || (a & 0x0F) > 9) corr |= 0x06;
+            if (c || a > 0x99) { corr |= 0x60; f |= CF; }
+            int t = n ? a - corr : a + corr;
+            f |= SZ53P[t & 0xFF] | ((a ^ t) & HF) | (n ? NF : 0);
+            DAA_TABLE[idx] = ((t & 0xFF) << 8) | f;
         }
     }
 
+    public Z80(Bus bus) {
+        this.bus = bus;
+        reset();
+    }
+
     public void reset() {
         PC = 0; SP = 0xFFFF;
         A = 0; F = 0; // Valor real de hardware tras power-on
@@ -96,53 +126,191 @@ public class Z80 {
 
     public int getPC() { return PC; }
     public long getTStates() { return tStates; }
-    public void resetTStates() { tStates = 0; }
 
-    public void step() {
-        int aPrevia = A;
+    /**
+     * Marca (o desmarca) una dirección en la que runUntil debe parar antes de ejecutarla.
+     */
+    public void setTrap(int address, boolean enabled) {
+        traps[address & 0xFFFF] = enabled;
+        // Un trap siempre empieza bloque: los bloques grabados pueden saltárselo
+        BlockCache cache = blockCache;
+        if (cache != null) cache.invalidateAll();
+    }
 
-        if (Halted) {
-            tStates += 4;
-            return;
+    /**
+     * Selecciona cómo ejecuta runUntil. Todos los modos dan exactamente el mismo resultado;
+     * BLOCK_CACHE y DYNAREC registran una caché en el bus para enterarse de las escrituras sobre código.
+     */
+    public void setExecutionMode(ExecutionMode mode) {
+        setExecutionMode(mode, BlockCompiler.HOT_THRESHOLD);
+    }
+
+    /**
+     * Igual, con las entradas que necesita un bloque para compilarse en DYNAREC (los tests lo
+     * bajan para que el código generado se ejecute enseguida).
+     */
+    void setExecutionMode(ExecutionMode mode, int hotThreshold) {
+        if (mode == executionMode) return;
+        executionMode = mode;
+        if (mode == ExecutionMode.INTERPRETER) {
+            bus.setBlockCache(null);
+            blockCache = null;
+            compiler = null;
+        } else {
+            blockCache = new BlockCache();
+            compiler = (mode == ExecutionMode.DYNAREC) ? new BlockCompiler(MethodHandles.lookup(), hotThreshold) : null;
+            bus.setBlockCache(blockCache);
         }
+    }
 
-        if (fileLogger != null) {
-            if (PC == 0x11DF) {
-                // Cuando la ROM llega a CP H, imprimimos los valores
-                fileLogger.printf("[%04X] CP H -> A:%02X | H:%02X | ZF:%b%n",
-                        PC, A, getH(), (F & ZF) != 0);
+    public ExecutionMode getExecutionMode() { return executionMode; }
+
+    // Para los tests: la caché y el compilador del modo actual (null en INTERPRETER)
+    BlockCache getBlockCache() { return blockCache; }
+    BlockCompiler getCompiler() { return compiler; }
+
+    /**
+     * Ejecuta instrucciones hasta alcanzar el T-state indicado o hasta que el PC llegue
+     * a una dirección marcada con setTrap (sin ejecutarla). Es el punto de entrada del
+     * bucle de frame: una llamada por frame en lugar de una por instrucción.
+     *
+     * @return true si se ha detenido en un trap, false si ha llegado al límite.
+     */
+    public boolean runUntil(long limit) {
+        runLimit = limit;
+        final BlockCache cache = blockCache;
+        boolean trapped = (cache != null) ? runCached(cache, traps, limit) : runInterpreted(traps, limit);
+        runLimit = 0; // Fuera de runUntil (step suelto) las instrucciones de bloque dan una sola vuelta
+        return trapped;
+    }
+
+    private boolean runInterpreted(boolean[] trapMap, long limit) {
+        while (tStates < limit) {
+            if (Halted) {
+                skipHalt(limit);
+                break;
+            }
+            if (trapMap[PC]) return true;
+            step();
+        }
+        return false;
+    }
+
+    private boolean runCached(BlockCache cache, boolean[] trapMap, long limit) {
+        while (tStates < limit) {
+            if (Halted) {
+                skipHalt(limit);
+                break;
+            }
+            if (trapMap[PC]) return true;
+
+            BlockCache.Block block = cache.get(PC);
+            if (block != null) {
+                CompiledBlock compiled = block.compiled;
+                if (compiled != null && trace == null && limit - tStates >= block.maxTStates) {
+                    compiled.run(this, block);
+                } else {
+                    replay(block, limit);
+                    if (compiler != null && ++block.hits == cache.hotThreshold(block.start, compiler.hotThreshold)
+                            && block.valid) {
+                        block.compiled = compiler.compile(block);
+                    }
+                }
             } else {
-                // El resto de instrucciones las seguimos logueando normal
-                fileLogger.printf("%04X -> ", PC);
-                totalInstructions++;
-                if (totalInstructions % 10 == 0) fileLogger.println();
+                record(cache, trapMap, limit);
             }
+        }
+        return false;
+    }
 
-            // Sincronizar el fichero cada 1000 instrucciones para no perder el rastro
-            if (totalInstructions % 1000 == 0) {
-                fileLogger.flush();
-                System.out.println("💾 Log guardado: " + totalInstructions + " instrucciones escritas.");
+    /**
+     * Reejecuta un bloque cacheado. Si el bloque entero cabe antes del límite se ejecuta sin
+     * comprobarlo; si no, se comprueba antes de cada instrucción (igual que el intérprete).
+     * Se abandona en cuanto una escritura invalida el bloque.
+     */
+    private void replay(BlockCache.Block block, long limit) {
+        final int[] code = block.code;
+        final boolean fits = limit - tStates >= block.maxTStates;
+        for (int i = 0; i < code.length; i++) {
+            if (i > 0 && (!block.valid || (!fits && tStates >= limit))) return;
+            int w = code[i];
+            PC = w >>> 16;
+            if (trace != null) {
+                trace.record(PC, (A << 8) | F, (B << 8) | C, (D << 8) | E, (H << 8) | L, IX, IY, SP, tStates);
             }
+            // Prefijos y opcode ya leídos: solo se replican sus efectos sobre PC y R
+            int fetches = (w >> 10) & 0x0F;
+            PC = (PC + fetches) & 0xFFFF;
+            R = (R & 0x80) | ((R + fetches) & 0x7F);
+            indexMode = (w >> 8) & 0x03;
+            executeOpcode(w & 0xFF);
+            indexMode = 0;
         }
+    }
+
+    /**
+     * Entrada de cada instrucción en el código generado por BlockCompiler: replica el
+     * efecto de leer los prefijos y el opcode sobre PC y R.
+     */
+    private void beginCompiled(int pc, int fetches, int mode) {
+        PC = (pc + fetches) & 0xFFFF;
+        R = (R & 0x80) | ((R + fetches) & 0x7F);
+        indexMode = mode;
+    }
 
-        if (PC == 0x0E5C) {
-            fileLogger.printf("[LDIR DETECTADO] BC:%04X | HL:%04X | DE:%04X%n",
-                    (B << 8 | C), (H << 8 | L), (D << 8 | E));
+    /**
+     * Ejecuta con el intérprete desde PC mientras graba el bloque en la caché.
+     */
+    private void record(BlockCache cache, boolean[] trapMap, long limit) {
+        cache.beginRecording(PC, tStates);
+        while (true) {
+            int pc = PC;
+            if (trace != null) {
+                trace.record(pc, (A << 8) | F, (B << 8) | C, (D << 8) | E, (H << 8) | L, IX, IY, SP, tStates);
+            }
+
+            int op = fetch();
+            int fetches = 1;
+            indexMode = 0;
+            while (op == 0xDD || op == 0xFD) {
+                indexMode = (op == 0xDD) ? 1 : 2;
+                op = fetch();
+                fetches++;
+            }
+            int mode = indexMode;
+            executeOpcode(op);
+            indexMode = 0;
+
+            int edOp = (op == 0xED) ? bus.read((pc + fetches) & 0xFFFF) : 0;
+            int length = BlockCache.terminatorLength(op, fetches, edOp);
+            boolean last = length >= 0;
+            if (!last) length = (PC - pc) & 0xFFFF; // Instrucción lineal: PC avanza su longitud
+
+            if (!cache.append(pc, fetches, mode, op, pc + length)) break;
+            if (last || cache.isFull() || tStates >= limit || trapMap[PC]) break;
         }
+        cache.endRecording(tStates);
+    }
 
-        // --- AÑADE ESTO AQUÍ ---
-        if (PC == 0x11DC) {
-            // En 11DC la ROM hace LD (HL), 2. Leemos la memoria JUSTO después de que actúe.
-            // Pero como estamos ANTES de ejecutar, el log será más útil si lo ponemos
-            // también justo DESPUÉS de ejecutar ese opcode.
-            fileLogger.printf("[DEBUG RAM] PC:11DC - HL:%04X - Intentando escribir valor 0x02%n", getHL());
+    /**
+     * En HALT la CPU ejecuta NOPs internos (4 T-states y un refresco de R cada uno) hasta la
+     * siguiente interrupción: se avanzan de golpe todos los que empiezan antes del límite.
+     */
+    private void skipHalt(long limit) {
+        long nops = (limit - tStates + 3) / 4;
+        tStates += 4 * nops;
+        R = (R & 0x80) | ((int) (R + nops) & 0x7F);
+    }
+
+    public void step() {
+        if (Halted) {
+            tStates += 4;
+            R = (R & 0x80) | ((R + 1) & 0x7F);
+            return;
         }
 
-        if (PC == 0x11DE) {
-            // En 11DE la ROM hace LD H, (HL). Queremos ver qué hay en la memoria antes de cargarlo en H.
-            int valorEnMemoria = mem.read(getHL());
-            fileLogger.printf("[DEBUG RAM] PC:11DE - HL:%04X - Memoria contiene: %02X - Registro H actual: %02X%n",
-                    getHL(), valorEnMemoria, H);
+        if (trace != null) {
+            trace.record(PC, (A << 8) | F, (B << 8) | C, (D << 8) | E, (H << 8) | L, IX, IY, SP, tStates);
         }
 
         int op = fetch();
@@ -153,20 +321,8 @@ public class Z80 {
             op = fetch();
         }
 
-        if (op == 0xED) {
-            indexMode = 0;
-            decodeED();
-        } else if (op == 0xCB) {
-            decodeCB();
-        } else {
-            executeOpcode(op);
-        }
+        executeOpcode(op);
         indexMode = 0; // <--- FORZAR RESET TRAS EJECUCIÓN
-
-        if (aPrevia == 0 && A == 0x3F) {
-            fileLogger.printf("‼️ ¡ALERTA! A ha cambiado de 00 a 3F en el PC: %04X ejecutando Opcode anterior%n", pcHistory[(pcIdx - 1 + 10000) % 10000]);
-            fileLogger.flush();
-        }
     }
 
     private void decodeCB() {
@@ -189,7 +345,7 @@ public class Z80 {
         }
 
         // Leer el valor sobre el que vamos a operar
-        int val = (indexMode != 0 || reg == 6) ? mem.read(addr) : getReg(reg);
+        int val = (indexMode != 0 || reg == 6) ? bus.read(addr) : getReg(reg);
         int res = val;
 
         // --- Identificar la operación ---
@@ -239,21 +395,26 @@ public class Z80 {
     // Método auxiliar para guardar el resultado en CB
     private void storeResultCB(int reg, int addr, int res) {
         if (indexMode != 0) {
-            mem.write(addr, res);
+            bus.write(addr, res);
             // En instrucciones DDCB/FDCB, si el registro no es (HL), también se guarda en el registro
             if (reg != 6) storeReg(reg, res);
         } else if (reg == 6) {
-            mem.write(addr, res);
+            bus.write(addr, res);
         } else {
             storeReg(reg, res);
         }
     }
 
-    public void closeLogger() {
-        if (fileLogger != null) {
-            fileLogger.flush();
-            fileLogger.close();
-        }
+    /**
+     * Activa la traza de instrucciones. Con null se desactiva y step() no paga nada.
+     * Debe llamarse con la CPU detenida o desde el hilo del emulador.
+     */
+    public void setTraceBuffer(TraceBuffer buffer) {
+        this.trace = buffer;
+    }
+
+    public TraceBuffer getTraceBuffer() {
+        return trace;
     }
 
     /**
@@ -273,6 +434,25 @@ public class Z80 {
         }
     }
 
+    /**
+     * Igual que getReg pero ignorando el prefijo DD/FD (4=H, 5=L reales).
+     */
+    private int getRegNoIndex(int reg) {
+        switch (reg) {
+            case 4: return H;
+            case 5: return L;
+            default: return getReg(reg);
+        }
+    }
+
+    private void storeRegNoIndex(int reg, int val) {
+        switch (reg) {
+            case 4: H = val & 0xFF; break;
+            case 5: L = val & 0xFF; break;
+            default: storeReg(reg, val); break;
+        }
+    }
+
     /**
      * Guarda un valor en el registro indicado por el índice de 3 bits.
      */
@@ -289,34 +469,36 @@ public class Z80 {
     }
 
     public void dumpPCStack(String reason) {
-        logDumped = true;
         System.out.println("\n=== 🔴 DEBUG CRASH DUMP: " + reason + " ===");
-        System.out.println("Últimos 10,000 saltos de PC (orden cronológico):");
-
-        for (int i = 0; i < 10000; i++) {
-            int val = pcHistory[(pcIdx + i) % 10000];
-            if (val == 0 && i < 9900) continue; // Saltar ceros iniciales si el buffer no está lleno
-            System.out.printf("%04X -> ", val);
-            if (i % 10 == 9) System.out.println();
+        if (trace == null) {
+            System.out.println("Traza desactivada (setTraceBuffer).");
+            return;
         }
-        System.out.println("\n=== END OF DUMP ===\n");
+        System.out.println("Últimos " + trace.size() + " saltos de PC (orden cronológico):");
+        printPCHistory(0, trace.size());
     }
 
-    // En Z80.java
     public void forceLogDump(String reason) {
         System.out.println("\n=== 🔴 FORCED DEBUG DUMP: " + reason + " ===");
+        if (trace == null) {
+            System.out.println("Traza desactivada (setTraceBuffer).");
+            return;
+        }
         // Imprimir los últimos 200 saltos (10,000 es demasiado para la consola de IntelliJ a veces)
-        int start = (pcIdx - 200 + 10000) % 10000;
-        for (int i = 0; i < 200; i++) {
-            int val = pcHistory[(start + i) % 10000];
-            System.out.printf("%04X -> ", val);
+        int count = Math.min(200, trace.size());
+        printPCHistory(trace.size() - count, count);
+    }
+
+    private void printPCHistory(int from, int count) {
+        for (int i = 0; i < count; i++) {
+            System.out.printf("%04X -> ", trace.get(trace.slot(from + i), TraceBuffer.PC));
             if (i % 10 == 9) System.out.println();
         }
         System.out.println("\n=== END OF DUMP ===\n");
     }
 
     private int fetch() {
-        int val = mem.read(PC);
+        int val = bus.read(PC);
         PC = (PC + 1) & 0xFFFF;
 
         // El registro R (Refresco) aumenta en cada fetch de opcode
@@ -326,103 +508,54 @@ public class Z80 {
         return val;
     }
 
-    // --- MÉTODOS ALU (RESTAURADOS DE JSPECCY) ---
-    private void add(int val) {
-        int a8 = A & 0xFF;
-        int v8 = val & 0xFF;
-        int res = a8 + v8;
-        int res8 = res & 0xFF;
-
-        F = (res8 == 0 ? ZF : 0) | (res8 & SF); // N es 0 en suma
-        if ((res & 0x100) != 0) F |= CF; // Carry
-
-        // Half Carry: Si la suma de los nibbles bajos desborda
-        if (((a8 & 0x0F) + (v8 & 0x0F)) > 0x0F) F |= HF;
-
-        // Overflow
-        if (((a8 ^ ~v8) & (a8 ^ res8) & 0x80) != 0) F |= PF;
-
-        A = res8;
+    // Lee un byte de operando sin contar como fetch de opcode (R no cambia)
+    private int readOperand() {
+        int val = bus.read(PC);
+        PC = (PC + 1) & 0xFFFF;
+        return val;
     }
 
-    private void adc(int v) {
-        int cy = (F & CF);
-        int r = A + v + cy;
-        int c = A ^ v ^ r;
-        F = SZ53[r & 0xFF] | ((r & 0x100) != 0 ? CF : 0) | (c & HF) | (((c ^ 0x80) & (v ^ r) & 0x80) != 0 ? PF : 0);
-        A = r & 0xFF;
+    // --- MÉTODOS ALU (TABLAS PRECALCULADAS) ---
+    private void add(int val) {
+        F = ADC_FLAGS[(A << 8) | val] & 0xFF;
+        A = (A + val) & 0xFF;
     }
-    private void sub(int val) {
-        int a8 = A & 0xFF;
-        int v8 = val & 0xFF;
-        int res = a8 - v8;
-        int res8 = res & 0xFF;
-
-        F = NF; // N=1 en resta
-        if (res8 == 0) F |= ZF;
-        if ((res8 & 0x80) != 0) F |= SF;
-        if ((res & 0x100) != 0) F |= CF; // Borrow
-
-        // Half-Carry (Resta): Si bit 4 pide préstamo al bit 3
-        // ((A & 0x0F) - (val & 0x0F)) < 0
-        if (((a8 & 0x0F) - (v8 & 0x0F)) < 0) F |= HF;
 
-        // Overflow (Resta): (Operando signos distintos) Y (Resultado signo cambio incorrecto)
-        // (A^val)&0x80  AND  (A^res)&0x80
-        if (((a8 ^ v8) & (a8 ^ res8) & 0x80) != 0) F |= PF;
-
-        A = res8;
+    private void adc(int val) {
+        int cy = F & CF;
+        F = ADC_FLAGS[(cy << 16) | (A << 8) | val] & 0xFF;
+        A = (A + val + cy) & 0xFF;
     }
 
-    private void sbc(int v) {
-        int cy = (F & CF);
-        int r = A - v - cy;
-        int c = A ^ v ^ r;
-        F = SZ53[r & 0xFF] | NF | ((r & 0x100) != 0 ? CF : 0) | (c & HF) | (((v ^ A) & (A ^ r) & 0x80) != 0 ? PF : 0);
-        A = r & 0xFF;
+    private void sub(int val) {
+        F = SBC_FLAGS[(A << 8) | val] & 0xFF;
+        A = (A - val) & 0xFF;
     }
 
-    private void cp(int value) {
-        int temp = A - (value & 0xFF); // Resta temporal
-        F = (F & ~(SF | ZF | HF | PF | NF | CF)); // Limpiar flags afectados
-
-        if ((temp & 0xFF) == 0) F |= ZF; // Zero: Si resultado es 0
-        if ((temp & 0x80) != 0) F |= SF; // Signo
-        if ((A & 0x0F) < (value & 0x0F)) F |= HF; // Half Carry
-        if (((A ^ value) & (A ^ temp) & 0x80) != 0) F |= PF; // Overflow
-        F |= NF; // Add/Sub: Siempre 1 en CP
-        if (temp < 0) F |= CF; // Carry: Si hubo préstamo
-        // IMPORTANTE: NO guardamos temp en A. CP solo compara.
+    private void sbc(int val) {
+        int cy = F & CF;
+        F = SBC_FLAGS[(cy << 16) | (A << 8) | val] & 0xFF;
+        A = (A - val - cy) & 0xFF;
     }
 
-    private void and(int val) {
-        A &= (val & 0xFF);
-        // AND: C=0, N=0, H=1 (Estándar Z80), S, Z, P(Paridad)
-        F = HF; // H siempre 1 en AND
-        updateLogicFlags();
+    private void cp(int val) {
+        // Como SUB sin guardar A; los bits 5 y 3 vienen del operando
+        F = (SBC_FLAGS[(A << 8) | val] & (SF | ZF | HF | PF | NF | CF)) | (val & (YF | XF));
     }
-    // Auxiliar para flags lógicos (S, Z, P)
-    private void updateLogicFlags() {
-        if (A == 0) F |= ZF;
-        if ((A & 0x80) != 0) F |= SF;
 
-        // P/V en lógica actúa como PARIDAD (número par de bits a 1)
-        int bits = Integer.bitCount(A);
-        if ((bits % 2) == 0) F |= PF;
+    private void and(int val) {
+        A &= val;
+        F = SZ53P[A] | HF; // AND: C=0, N=0, H=1
     }
 
     private void or(int val) {
-        A |= (val & 0xFF);
-        // OR: C=0, N=0, H=0, S, Z, P(Paridad)
-        F = 0;
-        updateLogicFlags();
+        A |= val;
+        F = SZ53P[A]; // OR: C=0, N=0, H=0
     }
 
     private void xor(int val) {
-        A ^= (val & 0xFF);
-        // XOR: C=0, N=0, H=0, S, Z, P(Paridad)
-        F = 0;
-        updateLogicFlags();
+        A ^= val;
+        F = SZ53P[A]; // XOR: C=0, N=0, H=0
     }
 
     private void add16(int v) {
@@ -433,17 +566,32 @@ public class Z80 {
         setHL(r & 0xFFFF);
     }
 
+    /**
+     * Despacho del juego de instrucciones principal.
+     * El switch de 256 casos se reparte por cuadrantes (bits 7-6 del opcode) para que
+     * ningún método se acerque al límite de 8000 bytes de HotSpot (HugeMethodLimit) y los
+     * grupos regulares (LD r,r' y ALU) queden por debajo de FreqInlineSize y se inlineen aquí.
+     */
     private void executeOpcode(int op) {
+        switch (op >> 6) {
+            case 0: executeBlock0(op); break; // 0x00-0x3F: cargas inmediatas, INC/DEC, JR, DJNZ
+            case 1: executeLoad8(op); break;  // 0x40-0x7F: LD r, r' y HALT
+            case 2: executeAlu(op); break;    // 0x80-0xBF: ALU A, r
+            default: executeBlock3(op); break; // 0xC0-0xFF: pila, saltos, E/S y prefijos
+        }
+    }
+
+    private void executeBlock0(int op) {
         int cycles = 4;
         switch (op) {
             case 0x00: break;
             case 0x01: // LD BC, nn
-                C = mem.read(PC++) & 0xFF; // Primero el bajo
-                B = mem.read(PC++) & 0xFF; // Luego el alto
+                C = readOperand() & 0xFF; // Primero el bajo
+                B = readOperand() & 0xFF; // Luego el alto
                 cycles = 10;
                 break;
             case 0x02:
-                mem.write(((B & 0xFF) << 8) | (C & 0xFF), A);
+                bus.write(((B & 0xFF) << 8) | (C & 0xFF), A);
                 cycles = 7;
                 break;
             case 0x03: { int v=(B<<8|C)+1; B=(v>>8)&0xFF; C=v&0xFF; cycles=6; break; }
@@ -453,19 +601,19 @@ public class Z80 {
             case 0x07: { int b7=A>>7; A=((A<<1)|b7)&0xFF; F=(F&(SF|ZF|PF))|b7|(A&(YF|XF)); break; }
             case 0x08: { int t=A; A=A_; A_=t; t=F; F=F_; F_=t; break; }
             case 0x09: add16(B<<8|C); cycles=11; break;
-            case 0x0A: A=mem.read(((B & 0xFF) << 8) | (C & 0xFF)); cycles=7; break;
+            case 0x0A: A=bus.read(((B & 0xFF) << 8) | (C & 0xFF)); cycles=7; break;
             case 0x0B: { int v=(B<<8|C)-1; B=(v>>8)&0xFF; C=v&0xFF; cycles=6; break; }
             case 0x0C: C=inc(C); break;
             case 0x0D: C=dec(C); break;
             case 0x0E: C=fetch(); cycles=7; break;
             case 0x0F: { int b0=A&1; A=((A>>1)|(b0<<7))&0xFF; F=(F&(SF|ZF|PF))|b0|(A&(YF|XF)); break; }
-            case 0x10: B=(B-1)&0xFF; if(B!=0) jr(); else {PC++; cycles=8;} break;
+            case 0x10: B=(B-1)&0xFF; if(B!=0) jr(); else {PC = (PC + 1) & 0xFFFF; cycles=8;} break;
             case 0x11: // LD DE, nn
-                E = mem.read(PC++) & 0xFF; // Primero el bajo
-                D = mem.read(PC++) & 0xFF; // Luego el alto
+                E = readOperand() & 0xFF; // Primero el bajo
+                D = readOperand() & 0xFF; // Luego el alto
                 cycles = 10;
                 break;
-            case 0x12: mem.write(((D & 0xFF) << 8) | (E & 0xFF), A); cycles=7; break;
+            case 0x12: bus.write(((D & 0xFF) << 8) | (E & 0xFF), A); cycles=7; break;
             case 0x13: { int v=(D<<8|E)+1; D=(v>>8)&0xFF; E=v&0xFF; cycles=6; break; }
             case 0x14: D=inc(D); break;
             case 0x15: D=dec(D); break;
@@ -473,336 +621,195 @@ public class Z80 {
             case 0x17: { int b7=A>>7; int oldC=F&CF; A=((A<<1)|oldC)&0xFF; F=(F&(SF|ZF|PF))|b7|(A&(YF|XF)); break; }
             case 0x18: jr(); break;
             case 0x19: add16(D<<8|E); cycles=11; break;
-            case 0x1A: A=mem.read(D<<8|E); cycles=7; break;
+            case 0x1A: A=bus.read(D<<8|E); cycles=7; break;
             case 0x1B: { int v=(D<<8|E)-1; D=(v>>8)&0xFF; E=v&0xFF; cycles=6; break; }
             case 0x1C: E=inc(E); break;
             case 0x1D: E=dec(E); break;
             case 0x1E: E=fetch(); cycles=7; break;
             case 0x1F: { int b0=A&1; int oldC=F&CF; A=((A>>1)|(oldC<<7))&0xFF; F=(F&(SF|ZF|PF))|b0|(A&(YF|XF)); break; }
-            case 0x20: if ((F & ZF) == 0) jr(); else { PC++; } break;
+            case 0x20: if ((F & ZF) == 0) jr(); else { PC = (PC + 1) & 0xFFFF; } break;
             case 0x21: // LD HL, nn
                 int low = fetch();  // PRIMERO el bajo
                 int high = fetch(); // LUEGO el alto
                 setHL((high << 8) | low);
                 break;
-            case 0x22: { int ad=fetch()|(fetch()<<8); mem.write(ad,getL()); mem.write(ad+1,getH()); cycles=16; break; }
+            case 0x22: { int ad=fetch()|(fetch()<<8); bus.write(ad,getL()); bus.write(ad+1,getH()); cycles=16; break; }
             case 0x23: setHL((getHL_val()+1)&0xFFFF); cycles=6; break;
             case 0x24: setH(inc(getH())); break;
             case 0x25: setH(dec(getH())); break;
             case 0x26: setH(fetch()); cycles=7; break;
             case 0x27: daa(); break;
-            case 0x28: if((F&ZF)!=0) jr(); else {PC++; cycles=7;} break;
+            case 0x28: if((F&ZF)!=0) jr(); else {PC = (PC + 1) & 0xFFFF; cycles=7;} break;
             case 0x29: add16(getHL_val()); cycles=11; break;
-            case 0x2A: { int ad=fetch()|(fetch()<<8); setL(mem.read(ad)); setH(mem.read(ad+1)); cycles=16; break; }
+            case 0x2A: { int ad=fetch()|(fetch()<<8); setL(bus.read(ad)); setH(bus.read(ad+1)); cycles=16; break; }
             case 0x2B: setHL((getHL_val()-1)&0xFFFF); cycles=6; break;
             case 0x2C: setL(inc(getL())); break;
             case 0x2D: setL(dec(getL())); break;
             case 0x2E: setL(fetch()); cycles=7; break;
             case 0x2F: A^=0xFF; F=(F&(SF|ZF|PF|CF))|HF|NF|(A&(YF|XF)); break;
-            case 0x30: if((F&CF)==0) jr(); else {PC++; cycles=7;} break;
+            case 0x30: if((F&CF)==0) jr(); else {PC = (PC + 1) & 0xFFFF; cycles=7;} break;
             case 0x31: // LD SP, nn
-                int spLow = mem.read(PC++) & 0xFF;
-                int spHigh = mem.read(PC++) & 0xFF;
+                int spLow = readOperand() & 0xFF;
+                int spHigh = readOperand() & 0xFF;
                 SP = ((spHigh << 8) | spLow) & 0xFFFF;
                 cycles = 10;
                 break;
-            case 0x32: { int ad=fetch()|(fetch()<<8); mem.write(ad,A); cycles=13; break; }
+            case 0x32: { int ad=fetch()|(fetch()<<8); bus.write(ad,A); cycles=13; break; }
             case 0x33: SP=(SP+1)&0xFFFF; cycles=6; break;
             case 0x34: writeMemHL(inc(readMemHL())); cycles=11; break;
             case 0x35: writeMemHL(dec(readMemHL())); cycles=11; break;
             case 0x36: writeMemHL(fetch()); cycles=10; break;
             case 0x37: F=(F&(SF|ZF|PF))|(A&(YF|XF))|CF; break;
-            case 0x38: if((F&CF)!=0) jr(); else {PC++; cycles=7;} break;
+            case 0x38: if((F&CF)!=0) jr(); else {PC = (PC + 1) & 0xFFFF; cycles=7;} break;
             case 0x39: add16(SP); cycles=11; break;
-            case 0x3A: { int ad=fetch()|(fetch()<<8); A=mem.read(ad); cycles=13; break; }
+            case 0x3A: { int ad=fetch()|(fetch()<<8); A=bus.read(ad); cycles=13; break; }
             case 0x3B: SP=(SP-1)&0xFFFF; cycles=6; break;
             case 0x3C: A=inc(A); break;
             case 0x3D: A=dec(A); break;
             case 0x3E: A=fetch(); cycles=7; break;
             case 0x3F: F=(F&(SF|ZF|PF|CF))|((F&CF)!=0?HF:0)|(A&(YF|XF)); F^=CF; F&=~NF; break;
-            case 0x40: break;
-            case 0x41: B=C; break;
-            case 0x42: B=D; break;
-            case 0x43: B=E; break;
-            case 0x44: B=getH(); break;
-            case 0x45: B=getL(); break;
-            case 0x46: B=readMemHL(); cycles=7; break;
-            case 0x47: B=A; break;
-            case 0x48: C=B; break;
-            case 0x49: break;
-            case 0x4A: C=D; break;
-            case 0x4B: C=E; break;
-            case 0x4C: C=getH(); break;
-            case 0x4D: C=getL(); break;
-            case 0x4E: C=readMemHL(); cycles=7; break;
-            case 0x4F: C=A; break;
-            case 0x50: D=B; break;
-            case 0x51: D=C; break;
-            case 0x52: break;
-            case 0x53: D=E; break;
-            case 0x54: D=getH(); break;
-            case 0x55: D=getL(); break;
-            case 0x56: D=readMemHL(); cycles=7; break;
-            case 0x57:
-                A = I;
-                // LD A, I afecta a los flags de una forma especial (copia IFF2 a PV)
-                F = (F & CF) | SZ53[A] | (IFF2 ? PF : 0);
-                tStates += 9;
-                break;
-            case 0x58: E=B; break;
-            case 0x59: E=C; break;
-            case 0x5A: E=D; break;
-            case 0x5C: E=getH(); break;
-            case 0x5D: E=getL(); break;
-            case 0x5E: E=readMemHL(); cycles=7; break;
-            case 0x5F: E=A; break;
-            case 0x60: setH(B); break;
-            case 0x61: setH(C); break;
-            case 0x62: setH(D); break;
-            case 0x63: setH(E); break;
-            case 0x64: break;
-            case 0x65: setH(getL()); break;
-            case 0x66: // LD H, (HL)
-                setH(mem.read(getHL_val()) & 0xFF);
-                cycles = 7;
-                break;
-            case 0x67: setH(A); break;
-            case 0x68: setL(B); break;
-            case 0x69: setL(C); break;
-            case 0x6A: setL(D); break;
-            case 0x6B: setL(E); break;
-            case 0x6C: setL(getH()); break;
-            case 0x6D: break;
-            case 0x6E: setL(readMemHL()); cycles=7; break;
-            case 0x6F: setL(A); break;
-            case 0x70: writeMemHL(B); cycles=7; break;
-            case 0x71: writeMemHL(C); cycles=7; break;
-            case 0x72: writeMemHL(D); cycles=7; break;
-            case 0x73: writeMemHL(E); cycles=7; break;
-            case 0x74: writeMemHL(getH()); cycles=7; break;
-            case 0x75: writeMemHL(getL()); cycles=7; break;
-            case 0x76: Halted=true; break;
-            case 0x77: writeMemHL(A); cycles=7; break;
-            case 0x78: A=B; break;
-            case 0x79: A=C; break;
-            case 0x7A: A=D; break;
-            case 0x7B: A=E; break;
-            case 0x7C: A=getH(); break;
-            case 0x7D: A=getL(); break;
-            case 0x7E: A = mem.read(getHL());
-                break;
-            case 0x7F: break;
-            case 0x80: add(B); break;
-            case 0x81: add(C); break;
-            case 0x82: add(D); break;
-            case 0x83: add(E); break;
-            case 0x84: add(getH()); break;
-            case 0x85: add(getL()); break;
-            case 0x86: add(readMemHL()); cycles=7; break;
-            case 0x87: add(A); break;
-            case 0x88: adc(B); break;
-            case 0x89: adc(C); break;
-            case 0x8A: adc(D); break;
-            case 0x8B: adc(E); break;
-            case 0x8C: adc(getH()); break;
-            case 0x8D: adc(getL()); break;
-            case 0x8E: adc(readMemHL()); cycles=7; break;
-            case 0x8F: adc(A); break;
-            case 0x90: sub(B); break;
-            case 0x91: sub(C); break;
-            case 0x92: sub(D); break;
-            case 0x93: sub(E); break;
-            case 0x94: sub(getH()); break;
-            case 0x95: sub(getL()); break;
-            case 0x96: sub(readMemHL()); cycles=7; break;
-            case 0x97: sub(A); break;
-            case 0x98: sbc(B); break;
-            case 0x99: sbc(C); break;
-            case 0x9A: sbc(D); break;
-            case 0x9B: sbc(E); break;
-            case 0x9C: sbc(getH()); break;
-            case 0x9D: sbc(getL()); break;
-            case 0x9E: sbc(readMemHL()); cycles=7; break;
-            case 0x9F: sbc(A); break;
-            case 0xA0: and(B); break;
-            case 0xA1: and(C); break;
-            case 0xA2: and(D); break;
-            case 0xA3: and(E); break;
-            case 0xA4: and(getH()); break;
-            case 0xA5: and(getL()); break;
-            case 0xA6: and(readMemHL()); cycles=7; break;
-            case 0xA7: and(A); break;
-            case 0xA8: xor(B); break;
-            case 0xA9: xor(C); break;
-            case 0xAA: xor(D); break;
-            case 0xAB: xor(E); break;
-            case 0xAC: xor(getH()); break;
-            case 0xAD: xor(getL()); break;
-            case 0xAE: xor(readMemHL()); cycles=7; break;
-            case 0xAF: xor(A); break;
-            case 0xB0: or(B); break;
-            case 0xB1: or(C); break;
-            case 0xB2: or(D); break;
-            case 0xB3: or(E); break;
-            case 0xB4: or(getH()); break;
-            case 0xB5: or(getL()); break;
-            case 0xB6: or(readMemHL()); cycles=7; break;
-            case 0xB7: or(A); break;
-            case 0xB8: cp(B); break;
-            case 0xB9: cp(C); break;
-            case 0xBA: cp(D); break;
-            case 0xBB: cp(E); break;
-            case 0xBC:
-                cp(getH());
-                break;
-            case 0xBD: cp(getL()); break;
-            case 0xBE: cp(readMemHL()); cycles=7; break;
-            case 0xBF: cp(A); break;
+        }
+        tStates += cycles;
+    }
+
+    /**
+     * LD r, r' (0x40-0x7F). Con prefijo DD/FD, H y L pasan a ser IXH/IXL salvo cuando
+     * el otro operando es (IX+d): en ese caso se usan los H y L reales.
+     */
+    private void executeLoad8(int op) {
+        if (op == 0x76) { // HALT
+            Halted = true;
+            tStates += 4;
+            return;
+        }
+        int dst = (op >> 3) & 0x07;
+        int src = op & 0x07;
+        if (src == 6) {
+            storeRegNoIndex(dst, readMemHL());
+            tStates += 7;
+        } else if (dst == 6) {
+            writeMemHL(getRegNoIndex(src));
+            tStates += 7;
+        } else {
+            storeReg(dst, getReg(src));
+            tStates += 4;
+        }
+    }
+
+    /**
+     * ADD/ADC/SUB/SBC/AND/XOR/OR/CP A, r (0x80-0xBF).
+     */
+    private void executeAlu(int op) {
+        int reg = op & 0x07;
+        if (reg == 6) {
+            alu((op >> 3) & 0x07, readMemHL());
+            tStates += 7;
+        } else {
+            alu((op >> 3) & 0x07, getReg(reg));
+            tStates += 4;
+        }
+    }
+
+    private void alu(int kind, int val) {
+        switch (kind) {
+            case 0: add(val); break;
+            case 1: adc(val); break;
+            case 2: sub(val); break;
+            case 3: sbc(val); break;
+            case 4: and(val); break;
+            case 5: xor(val); break;
+            case 6: or(val); break;
+            default: cp(val); break;
+        }
+    }
+
+    private void executeBlock3(int op) {
+        int cycles = 4;
+        switch (op) {
             case 0xC0: if((F&ZF)==0) ret(); else cycles=5; break;
             case 0xC1: { int v=pop(); C=v&0xFF; B=v>>8; cycles=10; break; }
-            case 0xC2: if((F&ZF)==0) jp(); else {PC+=2; cycles=10;} break;
+            case 0xC2: if((F&ZF)==0) jp(); else {PC=(PC+2)&0xFFFF; cycles=10;} break;
             case 0xC3: jp(); cycles=10; break;
-            case 0xC4: if((F&ZF)==0) call(); else {PC+=2; cycles=10;} break;
+            case 0xC4: if((F&ZF)==0) call(); else {PC=(PC+2)&0xFFFF; cycles=10;} break;
             case 0xC5: push(B<<8|C); cycles=11; break;
             case 0xC6: add(fetch()); cycles=7; break;
             case 0xC7: rst(0x00); break;
             case 0xC8: if((F&ZF)!=0) ret(); else cycles=5; break;
             case 0xC9: ret(); break;
-            case 0xCA: if((F&ZF)!=0) jp(); else {PC+=2; cycles=10;} break;
-            case 0xCB: decodeCB(); break;
-            case 0xCC: if((F&ZF)!=0) call(); else {PC+=2; cycles=10;} break;
+            case 0xCA: if((F&ZF)!=0) jp(); else {PC=(PC+2)&0xFFFF; cycles=10;} break;
+            case 0xCB: decodeCB(); return;
+            case 0xCC: if((F&ZF)!=0) call(); else {PC=(PC+2)&0xFFFF; cycles=10;} break;
             case 0xCD: call(); cycles=17; break;
             case 0xCE: adc(fetch()); cycles=7; break;
             case 0xCF: rst(0x08); break;
             case 0xD0: if((F&CF)==0) ret(); else cycles=5; break;
             case 0xD1: { int v=pop(); E=v&0xFF; D=v>>8; cycles=10; break; }
-            case 0xD2: if((F&CF)==0) jp(); else {PC+=2; cycles=10;} break;
+            case 0xD2: if((F&CF)==0) jp(); else {PC=(PC+2)&0xFFFF; cycles=10;} break;
             case 0xD3: // OUT (n), A
-                int port = fetch() | (A << 8);
-                // ZEXALL a menudo usa el acumulador para enviar caracteres al terminal
-                if ((port & 0xFF) == 0x01) { // Puerto común de salida en tests
-                    System.out.print((char) A);
-                }
-                machine.output(port, A);
+                bus.output(fetch() | (A << 8), A);
                 break;
-            case 0xD4: if((F&CF)==0) call(); else {PC+=2; cycles=10;} break;
+            case 0xD4: if((F&CF)==0) call(); else {PC=(PC+2)&0xFFFF; cycles=10;} break;
             case 0xD5: push(D<<8|E); cycles=11; break;
             case 0xD6: sub(fetch()); cycles=7; break;
             case 0xD7: rst(0x10); break;
             case 0xD8: if((F&CF)!=0) ret(); else cycles=5; break;
             case 0xD9: { int t=B;B=B_;B_=t; t=C;C=C_;C_=t; t=D;D=D_;D_=t; t=E;E=E_;E_=t; t=H;H=H_;H_=t; t=L;L=L_;L_=t; break; }
-            case 0xDA: if((F&CF)!=0) jp(); else {PC+=2; cycles=10;} break;
-            case 0xDB: A=machine.input(fetch()|(A<<8)); cycles=11; break;
-            case 0xDC: if((F&CF)!=0) call(); else {PC+=2; cycles=10;} break;
+            case 0xDA: if((F&CF)!=0) jp(); else {PC=(PC+2)&0xFFFF; cycles=10;} break;
+            case 0xDB: A=bus.input(fetch()|(A<<8)); cycles=11; break;
+            case 0xDC: if((F&CF)!=0) call(); else {PC=(PC+2)&0xFFFF; cycles=10;} break;
             case 0xDE: sbc(fetch()); cycles=7; break;
             case 0xDF: rst(0x18); break;
             case 0xE0: if((F&PF)==0) ret(); else cycles=5; break;
             case 0xE1: setHL(pop()); cycles=10; break;
-            case 0xE2: if((F&PF)==0) jp(); else {PC+=2; cycles=10;} break;
+            case 0xE2: if((F&PF)==0) jp(); else {PC=(PC+2)&0xFFFF; cycles=10;} break;
 
             case 0xE3: { // EX (SP), HL
-                int memlow = mem.read(SP);
-                int memhigh = mem.read((SP + 1) & 0xFFFF);
+                int memlow = bus.read(SP);
+                int memhigh = bus.read((SP + 1) & 0xFFFF);
                 int valueAtStack = (memhigh << 8) | memlow;
 
                 // Intercambiar con el valor actual de HL (considerando IX/IY)
                 int currentHL = getHL_val();
 
-                mem.write(SP, currentHL & 0xFF);
-                mem.write((SP + 1) & 0xFFFF, (currentHL >> 8) & 0xFF);
+                bus.write(SP, currentHL & 0xFF);
+                bus.write((SP + 1) & 0xFFFF, (currentHL >> 8) & 0xFF);
 
                 setHL(valueAtStack);
                 cycles = 19;
                 break;
             }
 
-            case 0xE4: if((F&PF)==0) call(); else {PC+=2; cycles=10;} break;
+            case 0xE4: if((F&PF)==0) call(); else {PC=(PC+2)&0xFFFF; cycles=10;} break;
             case 0xE5: push(getHL_val()); cycles=11; break;
             case 0xE6: and(fetch()); cycles=7; break;
             case 0xE7: rst(0x20); break;
             case 0xE8: if((F&PF)!=0) ret(); else cycles=5; break;
             case 0xE9: PC=getHL_val(); break;
-            case 0xEA: if((F&PF)!=0) jp(); else {PC+=2; cycles=10;} break;
+            case 0xEA: if((F&PF)!=0) jp(); else {PC=(PC+2)&0xFFFF; cycles=10;} break;
             case 0xEB: { int t=D;D=H;H=t; t=E;E=L;L=t; break; }
-            case 0xEC: if((F&PF)!=0) call(); else {PC+=2; cycles=10;} break;
-            case 0xED: decodeED(); break;
+            case 0xEC: if((F&PF)!=0) call(); else {PC=(PC+2)&0xFFFF; cycles=10;} break;
+            case 0xED: indexMode = 0; decodeED(); return;
             case 0xEE: xor(fetch()); cycles=7; break;
             case 0xEF: rst(0x28); break;
             case 0xF0: if((F&SF)==0) ret(); else cycles=5; break;
             case 0xF1: { int v=pop(); F=v&0xFF; A=v>>8; cycles=10; break; }
-            case 0xF2: if((F&SF)==0) jp(); else {PC+=2; cycles=10;} break;
+            case 0xF2: if((F&SF)==0) jp(); else {PC=(PC+2)&0xFFFF; cycles=10;} break;
             case 0xF3: IFF1=IFF2=false; break;
-            case 0xF4: if((F&SF)==0) call(); else {PC+=2; cycles=10;} break;
+            case 0xF4: if((F&SF)==0) call(); else {PC=(PC+2)&0xFFFF; cycles=10;} break;
             case 0xF5: push(A<<8|F); cycles=11; break;
             case 0xF6: or(fetch()); cycles=7; break;
             case 0xF7: rst(0x30); break;
             case 0xF8: if((F&SF)!=0) ret(); else cycles=5; break;
             case 0xF9: SP=getHL_val(); cycles=6; break;
-            case 0xFA: if((F&SF)!=0) jp(); else {PC+=2; cycles=10;} break;
+            case 0xFA: if((F&SF)!=0) jp(); else {PC=(PC+2)&0xFFFF; cycles=10;} break;
             case 0xFB: IFF1=IFF2=true; break;
-            case 0xFC: if((F&SF)!=0) call(); else {PC+=2; cycles=10;} break;
+            case 0xFC: if((F&SF)!=0) call(); else {PC=(PC+2)&0xFFFF; cycles=10;} break;
             case 0xFE: cp(fetch()); cycles=7; break;
             case 0xFF: rst(0x38); break;
         }
         tStates += cycles;
     }
 
-    private void ldir() {
-        // 1. Transferir un byte: (DE) <- (HL)
-        int val = mem.read(getHL());
-        mem.write(getDE(), val);
-
-        // 2. Incrementar HL y DE
-        // Usamos & 0xFFFF para asegurar que si llega a FFFF dé la vuelta a 0000 correctamente
-        setHL((getHL() + 1) & 0xFFFF);
-        setDE((getDE() + 1) & 0xFFFF); // Necesitarás crear setDE() si no lo tienes
-
-        // 3. Decrementar contador BC
-        int bc = getBC() - 1;
-        setBC(bc); // Necesitarás crear setBC()
-
-        // 4. Flags (Específicos de LDIR)
-        // H = 0, N = 0, P/V = 0
-        F &= ~(HF | NF | PF);
-
-        // 5. Bucle
-        if (getBC() != 0) {
-            // Si quedan bytes, retrocedemos el PC para repetir esta instrucción
-            PC = (PC - 2) & 0xFFFF; // -2 porque la instrucción es ED B0 (2 bytes)
-            tStates += 21;
-        } else {
-            tStates += 16;
-        }
-    }
-
-    private void lddr() {
-        // 1. Transferir un byte: (DE) <- (HL)
-        int val = mem.read(getHL());
-        mem.write(getDE(), val);
-
-        // 2. Decrementar HL y DE (Hacia atrás)
-        // Usamos & 0xFFFF para manejar el desbordamiento (0 - 1 = FFFF)
-        setHL((getHL() - 1) & 0xFFFF);
-        setDE((getDE() - 1) & 0xFFFF);
-
-        // 3. Decrementar contador BC
-        int bc = getBC() - 1;
-        setBC(bc);
-
-        // 4. Flags (Específicos de LDDR)
-        // H = 0, N = 0, P/V = 0 (por defecto)
-        F &= ~(HF | NF | PF);
-
-        // 5. Bucle
-        if (getBC() != 0) {
-            F |= PF; // P/V a 1 si quedan bytes
-            // Si quedan bytes, retrocedemos el PC para repetir esta instrucción
-            PC = (PC - 2) & 0xFFFF;
-            tStates += 21;
-        } else {
-            tStates += 16;
-        }
-    }
 
     private void jr() {
         int offset = (byte) fetch(); // El cast a (byte) fuerza el signo en Java
@@ -823,12 +830,9 @@ public class Z80 {
     }
 
     private void daa() {
-        int t = A; int corr = 0;
-        if ((F & HF) != 0 || (A & 0x0F) > 9) corr += 0x06;
-        if ((F & CF) != 0 || A > 0x99) { corr += 0x60; F |= CF; }
-        if ((F & NF) != 0) t -= corr; else t += corr;
-        F = (F & CF) | SZ53P[t & 0xFF] | ((A ^ t) & HF);
-        A = t & 0xFF;
+        int e = DAA_TABLE[A | ((F & CF) << 8) | ((F & HF) << 5) | ((F & NF) << 9)];
+        A = e >> 8;
+        F = e & 0xFF;
     }
 
     private int getHL_val() {
@@ -865,28 +869,36 @@ public class Z80 {
             addr = (H << 8) | L;
         } else {
             // IMPORTANTE: El desplazamiento se lee de la memoria, NO se hace fetch (no avanza PC aún)
-            int d = (byte) mem.read(PC);
+            int d = (byte) bus.read(PC);
             PC = (PC + 1) & 0xFFFF;
             addr = ((indexMode == 1 ? IX : IY) + d) & 0xFFFF;
             tStates += 5; // Las operaciones indexadas son más lentas
         }
-        return mem.read(addr) & 0xFF; // Asegura siempre un valor 0-255
+        return bus.read(addr) & 0xFF; // Asegura siempre un valor 0-255
     }
     private void writeMemHL(int val) {
         int addr;
         if (indexMode == 0) {
             addr = (H << 8) | L;
         } else {
-            int d = (byte) mem.read(PC);
+            int d = (byte) bus.read(PC);
             PC = (PC + 1) & 0xFFFF;
             addr = ((indexMode == 1 ? IX : IY) + d) & 0xFFFF;
             tStates += 5;
         }
-        mem.write(addr, val);
+        bus.write(addr, val);
     }
 
     private void decodeED() {
         int op = fetch();
+        if ((op & 0xE0) == 0xA0) {
+            executeEDBlock(op); // 0xA0-0xBF: transferencias/búsquedas de bloque
+        } else {
+            executeEDMisc(op);
+        }
+    }
+
+    private void executeEDMisc(int op) {
         int cycles = 8; // Coste base aproximado de instrucciones ED
 
         switch (op) {
@@ -904,33 +916,33 @@ public class Z80 {
             // --- BLOQUE 2: Cargas de 16 bits en memoria (Vitales para variables) ---
             case 0x43: // LD (nn), BC
                 int ad = fetch() | (fetch() << 8);
-                mem.write(ad, C); mem.write(ad + 1, B);
+                bus.write(ad, C); bus.write(ad + 1, B);
                 cycles = 20; break;
             case 0x53: // LD (nn), DE
                 ad = fetch() | (fetch() << 8);
-                mem.write(ad, E); mem.write(ad + 1, D);
+                bus.write(ad, E); bus.write(ad + 1, D);
                 cycles = 20; break;
             case 0x73: // LD (nn), SP
                 ad = fetch() | (fetch() << 8);
-                mem.write(ad, SP & 0xFF); mem.write(ad + 1, SP >> 8);
+                bus.write(ad, SP & 0xFF); bus.write(ad + 1, SP >> 8);
                 cycles = 20; break;
             case 0x4B: // LD BC, (nn)
                 int lowBC = fetch(); int highBC = fetch();
                 int addrBC = (highBC << 8) | lowBC;
-                C = mem.read(addrBC); B = mem.read((addrBC + 1) & 0xFFFF);
+                C = bus.read(addrBC); B = bus.read((addrBC + 1) & 0xFFFF);
                 cycles = 20; break;
             case 0x5B: // LD DE, (nn)
                 int lowDE = fetch(); int highDE = fetch();
                 int addrDE = (highDE << 8) | lowDE;
-                E = mem.read(addrDE); D = mem.read((addrDE + 1) & 0xFFFF);
+                E = bus.read(addrDE); D = bus.read((addrDE + 1) & 0xFFFF);
                 cycles = 20; break;
             case 0x7B: // LD SP, (nn)
                 ad = fetch() | (fetch() << 8);
-                SP = mem.read(ad) | (mem.read(ad + 1) << 8);
+                SP = bus.read(ad) | (bus.read(ad + 1) << 8);
                 cycles = 20; break;
 
             // --- BLOQUE 3: Interrupciones y Estado (Vitales para la ROM) ---
-            case 0x44: A = 0 - A; F = (A == 0 ? ZF : SF) | (A < 0 ? NF : 0); break; // NEG
+            case 0x44: { int v = A; A = 0; sub(v); break; } // NEG
             case 0x46: IM = 0; break; // IM 0
             case 0x56: IM = 1; break; // IM 1
             case 0x5E: IM = 2; break; // IM 2
@@ -950,20 +962,12 @@ public class Z80 {
             // --- BLOQUE 4: Entrada/Salida ---
             case 0x78: // IN A, (C)
                 int port = (B << 8) | C;
-                int val = machine.input(port);
+                int val = bus.input(port);
                 A = val;
                 F = (F & CF) | SZ53P[val]; // Actualizar flags
                 cycles = 12;
                 break;
 
-            // --- BLOQUE 5: Transferencia de Bloques (LA NUEVA LÓGICA) ---
-            // Asegúrate de tener los métodos ldir() y lddr() copiados en Z80.java
-            case 0xB0: ldir(); break; // LDIR
-            case 0xB8: lddr(); break; // LDDR
-
-            // Repetir para CPIR, CPDR, INIR, OTIR si los tienes implementados
-            // Si no, al menos LDIR y LDDR son obligatorios para que arranque.
-
             default:
                 // Ignoramos instrucciones no soportadas (se comportan como NOP)
                 System.err.println(String.format("Opcode ED %02X no implementado", op));
@@ -972,6 +976,150 @@ public class Z80 {
         tStates += cycles;
     }
 
+    // --- Transferencia de Bloques ---
+    /**
+     * Instrucciones de bloque ED A0-BF: LDI/LDD/CPI/CPD/INI/IND/OUTI/OUTD y sus versiones
+     * repetitivas. Cada vuelta de LDIR y compañía cuesta 21 T-states (16 la última) y, en lugar
+     * de rebobinar PC y volver a despachar, las vueltas siguientes se encadenan aquí mismo
+     * mientras quepan antes de runLimit (ver repeatBlock).
+     */
+    private void executeEDBlock(int op) {
+        if ((op & 0x04) != 0) {
+            System.err.println(String.format("Opcode ED %02X no implementado", op));
+            tStates += 8;
+            return;
+        }
+        int kind = op & 0x03;                  // 0=LD, 1=CP, 2=IN, 3=OUT
+        int delta = (op & 0x08) == 0 ? 1 : -1; // Incremento o decremento de HL (y DE)
+        boolean again = blockIteration(kind, delta);
+        if ((op & 0x10) == 0 || !again) {
+            tStates += 16;
+            return;
+        }
+        tStates += 21;
+        PC = (PC - 2) & 0xFFFF;
+        // Con traza o trap sobre la instrucción, cada vuelta debe pasar por el bucle de runUntil
+        if (tStates < runLimit && trace == null && !traps[PC] && !instructionChanged(op)) {
+            repeatBlock(op, kind, delta);
+        }
+    }
+
+    // ¿Alguna vuelta ha cambiado los dos bytes de la instrucción (que empieza en PC)? Se mira
+    // el contenido y no la dirección escrita: con bancos paginados un byte puede verse en dos direcciones
+    private boolean instructionChanged(int op) {
+        return bus.read(PC) != 0xED || bus.read((PC + 1) & 0xFFFF) != op;
+    }
+
+    /**
+     * Una vuelta de una instrucción de bloque. Devuelve la condición de repetición.
+     */
+    private boolean blockIteration(int kind, int delta) {
+        int hl = getHL();
+        switch (kind) {
+            case 0: { // LDI / LDD
+                int de = getDE();
+                int val = bus.read(hl);
+                bus.write(de, val);
+                setHL((hl + delta) & 0xFFFF);
+                setDE((de + delta) & 0xFFFF);
+                int bc = (getBC() - 1) & 0xFFFF;
+                setBC(bc);
+                ldFlags(val, bc != 0);
+                return bc != 0;
+            }
+            case 1: { // CPI / CPD
+                int val = bus.read(hl);
+                int res = (A - val) & 0xFF;
+                int hf = (A ^ val ^ res) & HF;
+                setHL((hl + delta) & 0xFFFF);
+                int bc = (getBC() - 1) & 0xFFFF;
+                setBC(bc);
+                int n = res - (hf >> 4);
+                F = (F & CF) | NF | (SZ53[res] & (SF | ZF)) | hf | ((n << 4) & YF) | (n & XF) | (bc != 0 ? PF : 0);
+                return bc != 0 && res != 0;
+            }
+            case 2: { // INI / IND
+                int val = bus.input(getBC());
+                bus.write(hl, val);
+                setHL((hl + delta) & 0xFFFF);
+                B = (B - 1) & 0xFF;
+                ioFlags(val, val + ((C + delta) & 0xFF));
+                return B != 0;
+            }
+            default: { // OUTI / OUTD
+                int val = bus.read(hl);
+                B = (B - 1) & 0xFF;
+                bus.output(getBC(), val);
+                setHL((hl + delta) & 0xFFFF);
+                ioFlags(val, val + L);
+                return B != 0;
+            }
+        }
+    }
+
+    /**
+     * Vueltas adicionales de LDIR/LDDR/CPIR/CPDR/INIR/INDR/OTIR/OTDR sin pasar por el despacho.
+     * Se repite mientras la instrucción siga activa y tStates no alcance runLimit, que es
+     * exactamente lo que haría runUntil ejecutándola vuelta a vuelta (R sube 2 por vuelta).
+     * Si una vuelta escribe sobre la propia instrucción se para y se vuelve a leer de memoria.
+     */
+    private void repeatBlock(int op, int kind, int delta) {
+        if (kind == 0 && bulkCopy(delta)) return;
+        while (true) {
+            R = (R & 0x80) | ((R + 2) & 0x7F);
+            boolean again = blockIteration(kind, delta);
+            if (!again) {
+                tStates += 16;
+                PC = (PC + 2) & 0xFFFF;
+                return;
+            }
+            tStates += 21;
+            if (tStates >= runLimit || instructionChanged(op)) return;
+        }
+    }
+
+    /**
+     * LDIR/LDDR de golpe con Bus.copyBlock (System.arraycopy en RAM) cuando las vueltas que
+     * caben antes de runLimit no tocan la propia instrucción. Devuelve false si no es posible.
+     */
+    private boolean bulkCopy(int delta) {
+        int bc = getBC();
+        long fit = (runLimit - tStates + 20) / 21; // Vueltas que empiezan antes del límite
+        int n = (int) Math.min(bc, fit);
+        if (n < 2) return false;
+
+        int src = getHL(), dst = getDE();
+        int first = (delta > 0) ? dst : (dst - n + 1) & 0xFFFF;
+        if (((PC - first) & 0xFFFF) < n || ((PC + 1 - first) & 0xFFFF) < n) return false;
+        if (!bus.copyBlock(src, dst, n, delta)) return false;
+
+        // Byte de la última vuelta: se lee del origen, el destino puede ser ROM
+        int last = (src + delta * (n - 1)) & 0xFFFF;
+        setHL((src + delta * n) & 0xFFFF);
+        setDE((dst + delta * n) & 0xFFFF);
+        bc -= n;
+        setBC(bc);
+        R = (R & 0x80) | ((R + 2 * n) & 0x7F);
+        ldFlags(bus.read(last), bc != 0);
+        tStates += 21L * n;
+        if (bc == 0) {
+            tStates -= 5; // La última vuelta cuesta 16
+            PC = (PC + 2) & 0xFFFF;
+        }
+        return true;
+    }
+
+    // Flags de LDI/LDD: bits 5 y 3 salen de (valor + A); P/V indica BC != 0
+    private void ldFlags(int val, boolean bcNotZero) {
+        int n = (val + A) & 0xFF;
+        F = (F & (SF | ZF | CF)) | ((n << 4) & YF) | (n & XF) | (bcNotZero ? PF : 0);
+    }
+
+    // Flags de INI/IND/OUTI/OUTD según el valor transferido y k (valor + C±1 o valor + L)
+    private void ioFlags(int val, int k) {
+        F = SZ53[B] | ((val >> 6) & NF) | (k > 0xFF ? (HF | CF) : 0) | (SZ53P[(k & 7) ^ B] & PF);
+    }
+
     // Método auxiliar para SBC HL, rr
     private void sbc16(int val) {
         int hl = getHL_val();
@@ -984,8 +1132,8 @@ public class Z80 {
         tStates += 15;
     }
 
-    public Memory getMem() {
-        return mem; // O 'memory', según como hayas nombrado la variable en Z80
+    public Bus getBus() {
+        return bus;
     }
 
     private void adc16(int val) {
@@ -1045,51 +1193,32 @@ public class Z80 {
     // --- STACK CORREGIDO ---
     public void push(int value) {
         SP = (SP - 1) & 0xFFFF;
-        mem.write(SP, (value >> 8) & 0xFF); // Alto primero
+        bus.write(SP, (value >> 8) & 0xFF); // Alto primero
         SP = (SP - 1) & 0xFFFF;
-        mem.write(SP, value & 0xFF);        // Bajo después
+        bus.write(SP, value & 0xFF);        // Bajo después
     }
 
     public int pop() {
-        int low = mem.read(SP) & 0xFF;      // Bajo primero
+        int low = bus.read(SP) & 0xFF;      // Bajo primero
         SP = (SP + 1) & 0xFFFF;
-        int high = mem.read(SP) & 0xFF;     // Alto después
+        int high = bus.read(SP) & 0xFF;     // Alto después
         SP = (SP + 1) & 0xFFFF;
         return (high << 8) | low;
     }
 
     private int inc(int val) {
-        int original = val & 0xFF;
-        int res = (original + 1) & 0xFF;
-
-        // INC afecta a todos los flags EXCEPTO Carry (CF se mantiene igual)
-        int oldCarry = F & CF;
-        F = (res == 0 ? ZF : 0) | (res & SF); // Z y S
-        F |= oldCarry; // Restaurar Carry
-
-        // Half-Carry: Si pasamos de xxxx1111 a xxxx0000 (0x0F -> 0x10)
-        if ((original & 0x0F) == 0x0F) F |= HF;
-
-        // Overflow (P/V): Solo ocurre si 0x7F -> 0x80
-        if (original == 0x7F) F |= PF;
-
-        return res;
+        F = (F & CF) | (INC_FLAGS[val] & 0xFF); // INC conserva el Carry
+        return (val + 1) & 0xFF;
     }
 
     private int dec(int val) {
-        int original = val & 0xFF;
-        int res = (original - 1) & 0xFF;
-
-        int oldCarry = F & CF;
-        F = (res == 0 ? ZF : 0) | (res & SF) | NF; // N se pone a 1 en DEC
-        F |= oldCarry;
-
-        // Half-Carry: Si pasamos de xxxx0000 a xxxx1111 (borrows from bit 4)
-        if ((original & 0x0F) == 0x00) F |= HF;
+        F = (F & CF) | (DEC_FLAGS[val] & 0xFF);
+        return (val - 1) & 0xFF;
+    }
 
-        // Overflow: 0x80 -> 0x7F
-        if (original == 0x80) F |= PF;
+    /** Flags (sin el Carry) que deja INC r si r valía value. */
+    public static int incFlags(int value) { return INC_FLAGS[value & 0xFF] & 0xFF; }
 
-        return res;
-    }
-}
\ No newline at end of file
+    /** Flags (sin el Carry) que deja DEC r si r valía value. */
+    public static int decFlags(int value) { return DEC_FLAGS[value & 0xFF] & 0xFF; }
+}
@@ -0,0 +1,119 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.impl;
+
+import com.lazyzxsoftware.zxspectrumide.emulator.core.Z80;
+import com.lazyzxsoftware.zxspectrumide.emulator.tape.Tape;
+
+/**
+ * LoaderAccelerator: Acelera los cargadores propios (turbo) sin parchear cada juego.
+ *
+ * Todos esperan un flanco con un bucle corto del estilo de LD-SAMPLE de la ROM:
+ * INC B / RET Z / LD A,7F / IN A,(FE) / RRA / RET NC / XOR C / AND 20 / JR Z. Si la
+ * lectura de EAR llega varias veces seguidas desde el mismo PC, con el mismo periodo, B
+ * contando de uno en uno y el resto de registros sin cambiar, cada vuelta es idéntica a la
+ * anterior salvo por B y R mientras la señal no cambie. F puede cambiar solo si es el que
+ * deja el INC B (o DEC B) de la vuelta. Entonces se saltan de golpe las vueltas que faltan
+ * hasta el próximo flanco: se suman sus T-states y se ajustan B, R y F, con el mismo
+ * resultado que ejecutarlas.
+ *
+ * El salto nunca pasa del próximo evento de la máquina ni deja que B llegue a 0 (el bucle
+ * debe poder salir por tiempo agotado como lo haría).
+ */
+final class LoaderAccelerator {
+    private static final int MIN_PERIOD = 16;
+    private static final int MAX_PERIOD = 512;
+    private static final int CONFIRMATIONS = 3; // Vueltas idénticas seguidas antes de saltar
+
+    private final Z80 cpu;
+    private final Tape tape;
+
+    private int matches;
+    private int period, step, rStep;
+    private boolean flagsFromB; // F es el del INC/DEC B de la vuelta
+    // Estado de la CPU en la lectura anterior
+    private long lastTState = Long.MIN_VALUE;
+    private int lastPc = -1, lastB, lastR;
+    private boolean lastLevel;
+    private int lastA, lastF, lastC, lastDE, lastHL, lastIX, lastIY, lastSP;
+
+    LoaderAccelerator(Z80 cpu, Tape tape) {
+        this.cpu = cpu;
+        this.tape = tape;
+    }
+
+    /**
+     * Llamar en cada lectura de EAR con la cinta sonando.
+     * @param now   T-state actual.
+     * @param limit T-state del próximo evento de la máquina.
+     * @param level Nivel que ve esta lectura; si ha cambiado, el bucle sale en esta vuelta.
+     */
+    void onEarRead(long now, long limit, boolean level) {
+        boolean same = level == lastLevel;
+        long elapsed = now - lastTState;
+        int bDelta = (cpu.B - lastB) & 0xFF;
+        int s = bDelta == 1 ? 1 : bDelta == 0xFF ? -1 : 0;
+        int rDelta = (cpu.R - lastR) & 0x7F;
+        boolean fromB = s != 0 && (cpu.F & ~Z80.CF) == flagsFor(cpu.B, s);
+        boolean flags = fromB ? (cpu.F & Z80.CF) == (lastF & Z80.CF) : cpu.F == lastF;
+        boolean loop = cpu.PC == lastPc && s != 0 && elapsed >= MIN_PERIOD && elapsed <= MAX_PERIOD
+                && cpu.A == lastA && flags && cpu.C == lastC && de() == lastDE && hl() == lastHL
+                && cpu.IX == lastIX && cpu.IY == lastIY && cpu.SP == lastSP;
+
+        if (loop && (matches == 0
+                || (elapsed == period && s == step && rDelta == rStep && fromB == flagsFromB))) {
+            matches++;
+            period = (int) elapsed;
+            step = s;
+            rStep = rDelta;
+            flagsFromB = fromB;
+        } else {
+            matches = 0;
+        }
+        remember(now, level);
+        if (same && matches >= CONFIRMATIONS) skip(now, limit);
+    }
+
+    /** Salta las vueltas completas cuya lectura aún vería el nivel actual. */
+    private void skip(long now, long limit) {
+        long edge = tape.nextEdge(now);
+        // La cinta se acaba de parar: la siguiente lectura ya ve EAR alto, no hay nada que saltar
+        if (edge == Long.MAX_VALUE) return;
+        // La vuelta i lee en now + i*period: saltamos las que leen antes del flanco
+        long turns = (Math.min(edge, limit) - now - 1) / period;
+        if (edge > limit) turns--; // La siguiente lectura real tampoco puede pasar del evento
+        int room = step > 0 ? 255 - cpu.B : cpu.B - 1;
+        turns = Math.min(turns, room);
+        if (turns <= 0) return;
+
+        int n = (int) turns;
+        cpu.tStates += (long) n * period;
+        cpu.B = (cpu.B + n * step) & 0xFF;
+        cpu.R = (cpu.R & 0x80) | ((cpu.R + n * rStep) & 0x7F);
+        if (flagsFromB) cpu.F = (cpu.F & Z80.CF) | flagsFor(cpu.B, step);
+        remember(now + (long) n * period, lastLevel);
+    }
+
+    private void remember(long now, boolean level) {
+        lastTState = now;
+        lastLevel = level;
+        lastPc = cpu.PC;
+        lastB = cpu.B;
+        lastR = cpu.R;
+        lastA = cpu.A;
+        lastF = cpu.F;
+        lastC = cpu.C;
+        lastDE = de();
+        lastHL = hl();
+        lastIX = cpu.IX;
+        lastIY = cpu.IY;
+        lastSP = cpu.SP;
+    }
+
+    // F que deja el INC B (step 1) o DEC B (step -1) que ha llevado B a este valor
+    private static int flagsFor(int b, int step) {
+        return step > 0 ? Z80.incFlags((b - 1) & 0xFF) : Z80.decFlags((b + 1) & 0xFF);
+    }
+
+    private int de() { return (cpu.D << 8) | cpu.E; }
+
+    private int hl() { return (cpu.H << 8) | cpu.L; }
+}
@@ -0,0 +1,287 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.impl;
+
+import com.lazyzxsoftware.zxspectrumide.emulator.core.Memory;
+
+import java.util.Arrays;
+
+/**
+ * ScreenRenderer: Pinta la pantalla de la ULA (320x240 con el borde) de forma incremental.
+ *
+ * Pinta sobre lienzos ({@link Canvas}) que conservan lo que tenían: solo se vuelven a
+ * expandir las celdas de 8x8 cuyos bytes de bitmap o de atributo marca el mapa de sucio de
+ * {@link Memory}, el borde se repinta cuando cambia de color y, al cambiar la fase de FLASH,
+ * solo las celdas con FLASH. Con la pantalla quieta un frame no cuesta casi nada.
+ *
+ * Los lienzos rotan en un triple buffer, así que cada uno lleva su propio estado (celdas
+ * pendientes, borde y lo pintado en cada byte): el que toca pintar se pone al día con lo que
+ * haya cambiado desde la última vez que se pintó él, sin copiar nada de los demás.
+ *
+ * Modo haz (por defecto en Spectrum48k): el papel se pinta línea a línea en el T-state en que
+ * la ULA empieza cada línea (renderLine, desde un evento del scheduler) y el borde al final del
+ * frame a partir de un registro de escrituras al puerto 0xFE con su T-state, en trozos de
+ * 4 T-states (8 píxeles). Así se ven las franjas del borde y los trucos multicolor. Todo usa
+ * arrays fijos: nada reserva memoria por frame.
+ *
+ * La expansión de cada byte va por tablas: dirección de cada fila y tinta/papel ARGB de cada
+ * atributo en las dos fases de FLASH. La selección tinta/papel de cada bit se deja como
+ * condicional: C2 la convierte en cmov y una tabla de máscaras no la mejora (se mide con
+ * ScreenRendererBenchmark, en src/test).
+ */
+final class ScreenRenderer {
+    static final int WIDTH = 320;
+    static final int HEIGHT = 240;
+    private static final int LEFT = 32; // Ancho del borde izquierdo
+    private static final int TOP = 24;  // Alto del borde superior
+    private static final int CELLS = 768;
+    private static final int ATTRIBUTES = 6144; // Offset de los atributos en el archivo de pantalla
+
+    // Temporización del 48K (T-states desde la interrupción)
+    static final int TSTATES_PER_LINE = 224;
+    static final int FIRST_PAPER_TSTATE = 14336; // Primer píxel de papel de la línea 0
+    // T-state del píxel 0 de la línea visible 0 (24 líneas y 32 píxeles = 16 T-states antes del papel)
+    private static final int FIRST_VISIBLE_TSTATE = FIRST_PAPER_TSTATE - TOP * TSTATES_PER_LINE - LEFT / 2;
+    private static final int BORDER_EVENTS = 4096;
+
+    // Offset en el archivo de pantalla del primer byte de cada fila de píxeles
+    private static final int[] ROW_ADDRESS = new int[192];
+
+    static {
+        for (int y = 0; y < 192; y++) {
+            // Fórmula de direcciones de pantalla del Spectrum
+            ROW_ADDRESS[y] = ((y & 0xC0) << 5) | ((y & 0x07) << 8) | ((y & 0x38) << 2);
+        }
+    }
+
+    private final Memory memory;
+    private final int[] palette;
+    // Colores ARGB de tinta y papel de cada atributo; índice = fase de FLASH * 256 + atributo
+    private final int[] inkOf = new int[512];
+    private final int[] paperOf = new int[512];
+    private final long[] dirtyBytes = new long[Memory.SCREEN_DIRTY_WORDS];
+    private final Canvas[] canvases;
+
+    // Modo haz: cambios de borde del frame (T-state relativo al frame y color)
+    private final int[] borderTimes = new int[BORDER_EVENTS];
+    private final byte[] borderColors = new byte[BORDER_EVENTS];
+    private int borderEvents;
+    private int frameBorder = 7; // Color del borde al empezar el frame
+
+    /**
+     * Buffer de 320x240 píxeles ARGB y lo que el renderer sabe de lo que tiene pintado.
+     */
+    static final class Canvas {
+        private final int[] pixels = new int[WIDTH * HEIGHT];
+        private final boolean[] dirtyCells = new boolean[CELLS]; // Celdas a repintar (modo frame)
+        private boolean flash;     // Fase de FLASH pintada (modo frame)
+        private int border = -1;   // Color liso del borde pintado (-1 = franjas o nada)
+        // Modo haz: bitmap y color efectivo pintados en cada byte de papel (-1 = nada)
+        private final short[] shadowPixels = new short[6144];
+        private final short[] shadowColors = new short[192 * 32];
+
+        int[] getPixels() { return pixels; }
+    }
+
+    ScreenRenderer(Memory memory, int[] palette, int canvasCount) {
+        this.memory = memory;
+        this.palette = palette;
+        for (int phase = 0; phase < 2; phase++) {
+            for (int attr = 0; attr < 256; attr++) {
+                int inkIdx = attr & 0x07;
+                int paperIdx = (attr >> 3) & 0x07;
+                if ((attr & 0x40) != 0) { inkIdx += 8; paperIdx += 8; }
+                if ((attr & 0x80) != 0 && phase == 1) {
+                    int temp = inkIdx; inkIdx = paperIdx; paperIdx = temp;
+                }
+                inkOf[(phase << 8) | attr] = palette[inkIdx];
+                paperOf[(phase << 8) | attr] = palette[paperIdx];
+            }
+        }
+        canvases = new Canvas[canvasCount];
+        for (int i = 0; i < canvasCount; i++) canvases[i] = new Canvas();
+        invalidate(7);
+    }
+
+    Canvas canvas(int index) {
+        return canvases[index];
+    }
+
+    /**
+     * Olvida lo pintado en todos los lienzos: cada uno se repinta entero la próxima vez.
+     * @param border Color actual del borde (punto de partida del modo haz).
+     */
+    void invalidate(int border) {
+        frameBorder = border;
+        borderEvents = 0;
+        for (Canvas c : canvases) {
+            Arrays.fill(c.dirtyCells, true);
+            Arrays.fill(c.shadowPixels, (short) -1);
+            c.border = -1;
+        }
+    }
+
+    /**
+     * Pone al día el buffer con la memoria de pantalla actual.
+     * @return true si ha cambiado algún píxel.
+     */
+    boolean render(Canvas canvas, int border, boolean flash) {
+        boolean changed = false;
+        if (border != canvas.border) {
+            paintBorder(canvas.pixels, palette[border]);
+            canvas.border = border;
+            changed = true;
+        }
+
+        if (memory.takeDirtyScreen(dirtyBytes)) markCells();
+
+        int bank = memory.getScreenBank();
+        boolean[] dirtyCells = canvas.dirtyCells;
+        if (flash != canvas.flash) {
+            canvas.flash = flash;
+            for (int cell = 0; cell < CELLS; cell++) {
+                if ((memory.readRam(bank, ATTRIBUTES + cell) & 0x80) != 0) dirtyCells[cell] = true;
+            }
+        }
+
+        for (int cell = 0; cell < CELLS; cell++) {
+            if (dirtyCells[cell]) {
+                dirtyCells[cell] = false;
+                drawCell(canvas.pixels, bank, cell, flash);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // Pasa los bytes sucios a celdas de todos los lienzos: un byte de bitmap es una fila de su
+    // celda y uno de atributo, la celda entera
+    private void markCells() {
+        for (int w = 0; w < dirtyBytes.length; w++) {
+            long bits = dirtyBytes[w];
+            dirtyBytes[w] = 0;
+            while (bits != 0) {
+                int offset = (w << 6) | Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                // Bitmap: offset = y7 y6 | y2 y1 y0 | y5 y4 y3 | x4..x0 -> celda = (y7..y3 << 5) | x
+                int cell = offset < ATTRIBUTES ? ((offset >> 3) & 0x300) | (offset & 0xFF) : offset - ATTRIBUTES;
+                for (Canvas c : canvases) c.dirtyCells[cell] = true;
+            }
+        }
+    }
+
+    private void drawCell(int[] target, int bank, int cell, boolean flashPhase) {
+        int row = cell >> 5;
+        int col = cell & 0x1F;
+        int colors = (flashPhase ? 0x100 : 0) | memory.readRam(bank, ATTRIBUTES + cell);
+        int ink = inkOf[colors];
+        int paper = paperOf[colors];
+
+        for (int line = 0; line < 8; line++) {
+            int y = (row << 3) | line;
+            int pixels = memory.readRam(bank, ROW_ADDRESS[y] | col);
+            int o = (y + TOP) * WIDTH + (col << 3) + LEFT;
+            for (int bit = 0; bit < 8; bit++) {
+                target[o + bit] = ((pixels & (0x80 >> bit)) != 0) ? ink : paper;
+            }
+        }
+    }
+
+    private void paintBorder(int[] target, int color) {
+        Arrays.fill(target, 0, TOP * WIDTH, color);
+        for (int y = TOP; y < TOP + 192; y++) {
+            Arrays.fill(target, y * WIDTH, y * WIDTH + LEFT, color);
+            Arrays.fill(target, y * WIDTH + LEFT + 256, (y + 1) * WIDTH, color);
+        }
+        Arrays.fill(target, (TOP + 192) * WIDTH, HEIGHT * WIDTH, color);
+    }
+
+    // --- MODO HAZ ---
+
+    /**
+     * Anota un cambio de color del borde en el T-state indicado (relativo al inicio del frame).
+     * Si el registro se llena, el último cambio se queda con el color nuevo.
+     */
+    void logBorder(int tState, int color) {
+        if (borderEvents == BORDER_EVENTS) {
+            borderColors[BORDER_EVENTS - 1] = (byte) color;
+            return;
+        }
+        borderTimes[borderEvents] = tState;
+        borderColors[borderEvents++] = (byte) color;
+    }
+
+    /**
+     * Descarta el borde de un frame que no se pinta (saltado por velocidad).
+     * @param border Color actual del borde (el de partida del siguiente frame).
+     */
+    void skipBorder(int border) {
+        borderEvents = 0;
+        frameBorder = border;
+    }
+
+    /**
+     * Pinta el borde del frame que acaba con los cambios anotados y prepara el siguiente.
+     * @param border Color actual del borde (el de partida del siguiente frame).
+     * @return true si ha cambiado algún píxel.
+     */
+    boolean renderBorder(Canvas canvas, int border) {
+        if (borderEvents == 0) {
+            frameBorder = border;
+            if (canvas.border == border) return false;
+            paintBorder(canvas.pixels, palette[border]);
+            canvas.border = border;
+            return true;
+        }
+
+        int[] target = canvas.pixels;
+        int color = frameBorder, next = 0;
+        for (int line = 0; line < HEIGHT; line++) {
+            int t = FIRST_VISIBLE_TSTATE + line * TSTATES_PER_LINE;
+            boolean paperLine = line >= TOP && line < TOP + 192;
+            int o = line * WIDTH;
+            for (int chunk = 0; chunk < WIDTH / 8; chunk++, t += 4, o += 8) {
+                while (next < borderEvents && borderTimes[next] <= t) color = borderColors[next++];
+                if (paperLine && chunk >= LEFT / 8 && chunk < (LEFT + 256) / 8) continue;
+                Arrays.fill(target, o, o + 8, palette[color]);
+            }
+        }
+        frameBorder = border;
+        borderEvents = 0;
+        // Las franjas acaban en la UI aunque este lienzo no vuelva el siguiente: los demás
+        // también se marcan para que el primer frame sin cambios repinte liso y se publique
+        for (Canvas c : canvases) c.border = -1;
+        return true;
+    }
+
+    /**
+     * Pinta la línea de papel y (0-191) con el contenido actual de la memoria de pantalla.
+     * Solo se expanden los bytes cuyo bitmap o color efectivo ha cambiado desde la última vez.
+     * @return true si ha cambiado algún píxel.
+     */
+    boolean renderLine(Canvas canvas, int y, boolean flash) {
+        int[] target = canvas.pixels;
+        short[] shadowPixels = canvas.shadowPixels;
+        short[] shadowColors = canvas.shadowColors;
+        int bank = memory.getScreenBank();
+        int address = ROW_ADDRESS[y];
+        int attrAddress = ATTRIBUTES + ((y >> 3) << 5);
+        int shadow = y << 5;
+        int o = (y + TOP) * WIDTH + LEFT;
+        boolean changed = false;
+        for (int col = 0; col < 32; col++, o += 8) {
+            int pixels = memory.readRam(bank, address + col);
+            int attr = memory.readRam(bank, attrAddress + col);
+            // La fase de FLASH solo cuenta para los atributos con FLASH
+            int colors = (flash && (attr & 0x80) != 0) ? 0x100 | attr : attr;
+            if (shadowPixels[address + col] == pixels && shadowColors[shadow + col] == colors) continue;
+            shadowPixels[address + col] = (short) pixels;
+            shadowColors[shadow + col] = (short) colors;
+            int ink = inkOf[colors];
+            int paper = paperOf[colors];
+            for (int bit = 0; bit < 8; bit++) {
+                target[o + bit] = ((pixels & (0x80 >> bit)) != 0) ? ink : paper;
+            }
+            changed = true;
+        }
+        return changed;
+    }
+}
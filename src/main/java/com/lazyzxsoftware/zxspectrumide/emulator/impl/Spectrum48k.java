@@ -1,33 +1,61 @@
 package com.lazyzxsoftware.zxspectrumide.emulator.impl;
 
+import com.lazyzxsoftware.zxspectrumide.emulator.audio.AudioOutput;
+import com.lazyzxsoftware.zxspectrumide.emulator.audio.AudioSink;
+import com.lazyzxsoftware.zxspectrumide.emulator.audio.AyChip;
+import com.lazyzxsoftware.zxspectrumide.emulator.audio.Beeper;
+import com.lazyzxsoftware.zxspectrumide.emulator.audio.JavaSoundSink;
+import com.lazyzxsoftware.zxspectrumide.emulator.core.Bus;
+import com.lazyzxsoftware.zxspectrumide.emulator.core.EmulationSpeed;
+import com.lazyzxsoftware.zxspectrumide.emulator.core.EventScheduler;
+import com.lazyzxsoftware.zxspectrumide.emulator.core.ExecutionMode;
+import com.lazyzxsoftware.zxspectrumide.emulator.core.FramePacer;
 import com.lazyzxsoftware.zxspectrumide.emulator.core.Memory;
+import com.lazyzxsoftware.zxspectrumide.emulator.core.TraceBuffer;
+import com.lazyzxsoftware.zxspectrumide.emulator.core.TripleBuffer;
+import com.lazyzxsoftware.zxspectrumide.emulator.core.ValidatingBus;
 import com.lazyzxsoftware.zxspectrumide.emulator.core.Z80;
 import com.lazyzxsoftware.zxspectrumide.emulator.interfaces.SpectrumEmulator;
+import com.lazyzxsoftware.zxspectrumide.emulator.snapshot.Snapshot;
+import com.lazyzxsoftware.zxspectrumide.emulator.snapshot.SnapshotFormat;
+import com.lazyzxsoftware.zxspectrumide.emulator.tape.Tape;
+import com.lazyzxsoftware.zxspectrumide.emulator.tape.TapeBlock;
+import com.lazyzxsoftware.zxspectrumide.emulator.tape.TapeSource;
 import javafx.application.Platform;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
-import java.util.ArrayList;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
 
 public class Spectrum48k implements SpectrumEmulator {
 
     private final Memory memory;
     private final Z80 cpu;
 
+    // Solo el hilo del emulador toca la CPU, la memoria y el scheduler. Los demás hilos
+    // encolan órdenes (ver submit) y lo despiertan con unpark; en pausa duerme con park.
+    // Tras stop() las órdenes se descartan: solo start() y reset() vuelven a arrancarlo
     private volatile boolean running = false;
+    private volatile boolean stopped = false;
     private volatile boolean paused = true;
     private Thread emulatorThread;
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private int runTarget = -1; // Parada temporal de runTo/stepOver (-1 = ninguna)
 
-    // --- VIDEO (Double Buffer) ---
-    private final int[] drawingBuffer = new int[320 * 240];
-    private final int[] displayBuffer = new int[320 * 240];
-    private final Object videoLock = new Object();
+    // --- VIDEO (Triple Buffer) ---
+    // El hilo del emulador pinta en frames.back() y publica; la interfaz recoge el último
+    // publicado sin bloquear a nadie ni copiar píxeles
+    private final TripleBuffer<ScreenRenderer.Canvas> frames;
 
     // Paleta estándar Sinclair
     private static final int[] PALETTE = {
@@ -37,136 +65,337 @@ public class Spectrum48k implements SpectrumEmulator {
             0xFF00FF00, 0xFF00FFFF, 0xFFFFFF00, 0xFFFFFFFF
     };
 
+    private final ScreenRenderer screen;
     private int currentBorderColor = 7;
     private int flashCounter = 0;
-    private boolean flashState = false;
+    private boolean flashState = false; // La ULA invierte las celdas con FLASH cada 16 frames
+
+    // Modo haz: papel línea a línea y borde con sus cambios en el frame (ver ScreenRenderer).
+    // Se puede cambiar desde la interfaz; el hilo del emulador lo aplica al empezar un frame
+    private volatile boolean beamRendering = true;
+    private boolean beamActive = true;
+    private int scanline;          // Próxima línea de papel que pinta EVENT_SCANLINE
+    private boolean beamChanged;   // Alguna línea del frame ha cambiado píxeles
+
+    // --- RITMO ---
+    private final FramePacer pacer = new FramePacer();
+    private boolean renderingFrame = true; // Por encima de x1 no se pintan todos los frames
+
+    // --- SONIDO ---
+    // El beeper y el AY convierten cada frame en muestras (que se suman) y AudioOutput las
+    // lleva al sink en su hilo.
+    // A x1 con sonido, el ritmo de frames lo marca la tarjeta (ver runLoop), no el reloj
+    private static final int AUDIO_LATENCY = 2 * AudioOutput.SAMPLE_RATE / 50; // Dos frames en cola
+    private final Beeper beeper;
+    private final AyChip ay;
+    private final float[] audioMix;
+    private volatile AudioSink audioSink;
+    private AudioOutput audio;       // Hilo del emulador; null = sin sonido
+    private boolean audioFailed;
 
     // --- INTERRUPCIONES Y TIMING ---
+    private static final int CPU_CLOCK = 3_500_000;
     private static final int TSTATES_PER_FRAME = 69888; // JSpeccy standard for 48k
     private long frameCount = 0;
 
-    // --- LOADER ---
-    private List<byte[]> tapeBlocks = new ArrayList<>();
-    private int tapeBlockIndex = 0;
-    private boolean tapePlaying = false;
+    // Eventos de la máquina, en T-states absolutos (la CPU ya no pone su contador a cero)
+    private static final int EVENT_FRAME = 0;    // Interrupción de frame y volcado de vídeo
+    private static final int EVENT_AUTOLOAD = 1; // Pulsaciones de LOAD "" (processSmartLoader)
+    private static final int EVENT_SCANLINE = 2; // La ULA empieza una línea de papel (modo haz)
+    private final EventScheduler scheduler = new EventScheduler();
+    private long frameStart = 0;
+
+    // --- CINTA ---
+    // Los bloques que la ROM sabría leer se cargan de golpe con el trap de LD-BYTES; el resto
+    // (turbo, cargadores propios) se reproduce y el programa lee la señal en el bit 6 de 0xFE
+    private final Tape tape = new Tape();
+    private boolean tapeTrapArmed = false;
+    private static final int TAPE_TRAP_ADDRESS = 0x0556; // LD-BYTES de la ROM
+    // Tras una carga rápida, un cargador propio (código en RAM leyendo EAR) arranca la cinta
+    private static final long AUTO_PLAY_TSTATES = 5L * CPU_CLOCK;
+    private long autoPlayUntil = -1;
+    private volatile boolean tapeWarp = false;
+    private final LoaderAccelerator accelerator;
+    private volatile boolean loaderAcceleration = true;
     private int autoLoadStep = 0;
     private int autoLoadDelay = 0;
 
     private final int[] keyboardMatrix = new int[8];
-    private final Set<Integer> breakpoints = new HashSet<>();
+    private final Set<Integer> breakpoints = ConcurrentHashMap.newKeySet(); // Se toca desde el hilo FX
     private Runnable onStopCallback;
-
-    private int debugFrameCounter = 0;
-    private boolean hasDumped = false;
+    private boolean stepPastTrap = false;
 
     public Spectrum48k() {
         this.memory = new Memory();
-        this.cpu = new Z80(this.memory, this);
+        this.screen = new ScreenRenderer(this.memory, PALETTE, 3);
+        this.frames = new TripleBuffer<>(screen.canvas(0), screen.canvas(1), screen.canvas(2));
+        Bus bus = new Spectrum48kBus(this.memory, this);
+        // -Dzxide.validateMemory=true: comprobar cada acceso a memoria (lento, solo para depurar)
+        if (Boolean.getBoolean("zxide.validateMemory")) {
+            bus = new ValidatingBus(bus);
+            System.out.println("⚠️ Validación de memoria activada");
+        }
+        this.cpu = new Z80(bus);
+        this.beeper = new Beeper(CPU_CLOCK, AudioOutput.SAMPLE_RATE);
+        this.ay = new AyChip(CPU_CLOCK, AudioOutput.SAMPLE_RATE);
+        this.accelerator = new LoaderAccelerator(cpu, tape);
+        this.audioMix = new float[beeper.maxSamples(TSTATES_PER_FRAME)];
+        // -Dzxide.audio=false: sin sonido (el ritmo lo vuelve a marcar el reloj)
+        if (!"false".equals(System.getProperty("zxide.audio"))) audioSink = new JavaSoundSink();
         Arrays.fill(keyboardMatrix, 0xFF);
-        loadRom("/com/lazyzxsoftware/zxspectrumide/roms/48k.rom");
+        // Aún no hay hilo del emulador: la ROM inicial se carga aquí mismo
+        memory.loadRom("/com/lazyzxsoftware/zxspectrumide/roms/48k.rom");
+        scheduleFrame(0);
     }
 
     @Override
     public void start() {
-        if (running && !paused) return;
-        paused = false;
-        if (running) return;
+        restart();
+        submit(this::resume);
+    }
+
+    /**
+     * Encola una orden para el hilo del emulador (arrancándolo si aún no existe) y lo despierta.
+     * Las órdenes se atienden en orden entre frames, o en cuanto llegan si está en pausa.
+     * @return false si el emulador está parado con stop() y la orden se ha descartado.
+     */
+    private boolean submit(Runnable command) {
+        if (stopped) return false;
+        commands.add(command);
+        LockSupport.unpark(ensureThread());
+        return true;
+    }
+
+    private synchronized Thread ensureThread() {
+        if (emulatorThread == null) {
+            running = true;
+            emulatorThread = new Thread(this::runLoop, "SpectrumThread");
+            emulatorThread.setPriority(Thread.MAX_PRIORITY);
+            emulatorThread.start();
+        }
+        return emulatorThread;
+    }
 
-        running = true;
-        emulatorThread = new Thread(this::runLoop, "SpectrumThread");
-        emulatorThread.setPriority(Thread.MAX_PRIORITY);
-        emulatorThread.start();
+    /**
+     * Tras un stop, espera a que el hilo anterior acabe su frame y deja que submit arranque
+     * otro. Las órdenes que quedaran pendientes se descartan.
+     */
+    private synchronized void restart() {
+        if (!stopped) return;
+        if (Thread.currentThread() == emulatorThread) {
+            // Esperarse a sí mismo sería un interbloqueo
+            throw new IllegalStateException("El hilo del emulador no puede rearrancarse");
+        }
+        if (emulatorThread != null) {
+            try {
+                emulatorThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        commands.clear();
+        emulatorThread = null;
+        stopped = false;
     }
 
     private void runLoop() {
-        long nextFrameTime = System.nanoTime();
-        final long nsPerFrame = 20_000_000; // 50 Hz
+        pacer.reset();
 
         while (running) {
+            processCommands();
             if (paused) {
-                try { Thread.sleep(20); } catch (InterruptedException e) {}
-                nextFrameTime = System.nanoTime();
+                // Sin permiso pendiente duerme hasta el próximo submit o stop
+                LockSupport.park(this);
                 continue;
             }
+            if (audio == null && audioSink != null && !audioFailed) openAudio();
 
-            executeFrame();
+            if (!executeFrame()) continue;
             frameCount++;
-
-            nextFrameTime += nsPerFrame;
-            long sleepTime = (nextFrameTime - System.nanoTime()) / 1_000_000;
-
-            if (sleepTime > 0) {
-                try { Thread.sleep(sleepTime); } catch (InterruptedException e) {}
-            } else if (sleepTime < -100) {
-                // Si vamos muy lentos, reseteamos el tiempo para evitar saltos
-                nextFrameTime = System.nanoTime();
+            // Una orden nueva (pausa, paso...) corta la espera: se atiende sin esperar al frame
+            BooleanSupplier wakeUp = () -> !commands.isEmpty() || !running;
+            if (audio != null && pacer.isRealTime()) {
+                audio.awaitRoom(AUDIO_LATENCY, wakeUp);
+            } else {
+                pacer.frameDone(wakeUp);
             }
         }
+        closeAudio();
     }
 
-    private void executeFrame() {
-        cpu.resetTStates();
+    private void openAudio() {
+        AudioOutput output = new AudioOutput(audioSink);
+        try {
+            output.start();
+            audio = output;
+        } catch (Exception e) {
+            // Sin tarjeta de sonido (o línea ocupada): seguimos en silencio, con el reloj
+            audioFailed = true;
+            System.err.println("⚠️ Sin sonido: " + e.getMessage());
+        }
+    }
 
-        while (cpu.getTStates() < 69888) {
-            if (tapePlaying && cpu.getPC() == 0x0556) {
-                performFastLoad();
-            }
+    private void closeAudio() {
+        if (audio == null) return;
+        audio.stop();
+        audio = null;
+    }
+
+    /**
+     * Cambia el destino del sonido (p.ej. MemoryAudioSink para ejecutar sin tarjeta);
+     * null lo desactiva. Se aplica en el hilo del emulador.
+     */
+    public void setAudioSink(AudioSink sink) {
+        submit(() -> {
+            closeAudio();
+            audioSink = sink;
+            audioFailed = false;
+        });
+    }
+
+    /**
+     * Ejecuta hasta el siguiente fin de frame (o lo que quede si se paró en un breakpoint).
+     * La CPU corre de evento en evento: cada runUntil llega justo al próximo evento programado.
+     * @return false si la ejecución se ha detenido en un breakpoint.
+     */
+    private boolean executeFrame() {
+        if (stepPastTrap) {
+            // Reanudando desde un breakpoint: ejecutamos su instrucción sin volver a parar
+            stepPastTrap = false;
             cpu.step();
         }
 
-        cpu.interrupt();
-
-        // LÓGICA DE DUMP AUTOMÁTICO
-        debugFrameCounter++;
-        // 250 frames son aprox 5 segundos de ejecución real
-        if (debugFrameCounter > 250 && !hasDumped) {
-            cpu.forceLogDump("TIMEOUT - PANTALLA NEGRA");
-            hasDumped = true;
+        while (true) {
+            if (cpu.runUntil(scheduler.nextTime())) {
+                if (!handleTrap(cpu.getPC())) return false;
+                continue;
+            }
+            long time = scheduler.nextTime();
+            if (dispatchEvent(scheduler.pop(), time)) return true;
         }
+    }
+
+    /**
+     * Programa los eventos del frame que empieza en el T-state indicado: su fin y, en modo
+     * haz, la primera línea de papel. El frame cuenta desde el instante exacto, no desde
+     * donde acabó la CPU.
+     */
+    private void scheduleFrame(long start) {
+        frameStart = start;
+        scheduler.schedule(start + TSTATES_PER_FRAME, EVENT_FRAME);
+        renderingFrame = pacer.shouldRender();
+        scanline = 0;
+        scheduler.cancel(EVENT_SCANLINE);
+        if (beamActive && renderingFrame) scheduler.schedule(start + ScreenRenderer.FIRST_PAPER_TSTATE, EVENT_SCANLINE);
+    }
 
-        // Resto de la lógica de renderizado...
-        renderFullFrame();
-    }
-
-    private void renderFullFrame() {
-        synchronized (videoLock) {
-            // 1. Pintar el borde (Simplificado: todo el fondo del color del borde)
-            int borderColor = PALETTE[currentBorderColor];
-            Arrays.fill(drawingBuffer, borderColor);
-
-            // 2. Pintar la zona de píxeles (256x192 centrada en 320x240)
-            // Offset X = 32, Offset Y = 24
-            for (int y = 0; y < 192; y++) {
-                int screenY = y;
-                // Fórmula de direcciones de pantalla del Spectrum
-                int vramAddr = 0x4000 | ((screenY & 0xC0) << 5) | ((screenY & 0x07) << 8) | ((screenY & 0x38) << 2);
-                int attrAddr = 0x5800 | ((screenY >> 3) << 5);
-
-                for (int x = 0; x < 32; x++) {
-                    int pixels = memory.read(vramAddr + x);
-                    int attr = memory.read(attrAddr + x);
-
-                    int inkIdx = attr & 0x07;
-                    int paperIdx = (attr >> 3) & 0x07;
-                    boolean bright = (attr & 0x40) != 0;
-                    boolean flash = (attr & 0x80) != 0;
-
-                    if (bright) { inkIdx += 8; paperIdx += 8; }
-                    if (flash && flashState) {
-                        int temp = inkIdx; inkIdx = paperIdx; paperIdx = temp;
-                    }
-
-                    int ink = PALETTE[inkIdx];
-                    int paper = PALETTE[paperIdx];
-
-                    int bufferOffset = (y + 24) * 320 + (x * 8 + 32);
-                    for (int bit = 0; bit < 8; bit++) {
-                        drawingBuffer[bufferOffset + bit] = ((pixels & (0x80 >> bit)) != 0) ? ink : paper;
-                    }
+    /**
+     * Atiende un evento del scheduler.
+     * @param time T-state para el que estaba programado (la CPU puede haberse pasado unos pocos).
+     * @return true si el evento cierra el frame.
+     */
+    private boolean dispatchEvent(int event, long time) {
+        switch (event) {
+            case EVENT_FRAME:
+                if (beamActive) finishBeamFrame();
+                finishAudioFrame();
+                if (tape.isPlaying()) tape.getLevel(time); // La cinta avanza aunque nadie la lea
+                pacer.setWarp(tapeWarp && tape.isPlaying());
+                cpu.interrupt();
+                if (++flashCounter == 16) {
+                    flashCounter = 0;
+                    flashState = !flashState;
                 }
-            }
-            System.arraycopy(drawingBuffer, 0, displayBuffer, 0, drawingBuffer.length);
+                if (beamActive != beamRendering) {
+                    beamActive = beamRendering;
+                    screen.invalidate(currentBorderColor);
+                }
+                scheduleFrame(time);
+                if (!beamActive && renderingFrame) renderFrame();
+                return true;
+            case EVENT_SCANLINE:
+                beamChanged |= screen.renderLine(frames.back(), scanline, flashState);
+                if (++scanline < 192) scheduler.schedule(time + ScreenRenderer.TSTATES_PER_LINE, EVENT_SCANLINE);
+                return false;
+            case EVENT_AUTOLOAD:
+                processSmartLoader();
+                if (autoLoadStep != 0) scheduler.schedule(time + TSTATES_PER_FRAME, EVENT_AUTOLOAD);
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Atiende una parada de runUntil.
+     * @return true si se puede seguir ejecutando el frame.
+     */
+    private boolean handleTrap(int pc) {
+        if (breakpoints.contains(pc) || pc == runTarget) {
+            // Un breakpoint también cancela el stepOver/runTo en curso
+            setRunTarget(-1);
+            stepPastTrap = true;
+            stopped();
+            return false;
+        }
+        if (tapeTrapArmed && pc == TAPE_TRAP_ADDRESS) {
+            loadFromTrap();
+            return true;
+        }
+        // Trap obsoleto (p.ej. la cinta acabó): lo quitamos y seguimos
+        updateTrap(pc);
+        cpu.step();
+        return true;
+    }
+
+    private void updateTrap(int address) {
+        boolean tapeTrap = tapeTrapArmed && address == TAPE_TRAP_ADDRESS;
+        cpu.setTrap(address, tapeTrap || address == runTarget || breakpoints.contains(address));
+    }
+
+    private void setRunTarget(int address) {
+        int previous = runTarget;
+        runTarget = address;
+        if (previous >= 0) updateTrap(previous);
+        if (address >= 0) updateTrap(address);
+    }
+
+    private void setTapeTrap(boolean armed) {
+        tapeTrapArmed = armed;
+        updateTrap(TAPE_TRAP_ADDRESS);
+    }
+
+    /**
+     * Pone al día el lienzo trasero (solo lo que ha cambiado, ver ScreenRenderer) y, si algo
+     * ha cambiado, lo publica para la interfaz.
+     */
+    private void renderFrame() {
+        if (screen.render(frames.back(), currentBorderColor, flashState)) frames.publish();
+    }
+
+    /**
+     * Cierra el frame en modo haz: pinta el borde con los cambios del frame y publica el
+     * buffer si algo ha cambiado.
+     */
+    private void finishBeamFrame() {
+        if (!renderingFrame) {
+            screen.skipBorder(currentBorderColor);
+            return;
         }
+        boolean changed = screen.renderBorder(frames.back(), currentBorderColor) | beamChanged;
+        beamChanged = false;
+        if (changed) frames.publish();
+    }
+
+    /**
+     * Pasa el sonido del frame a la cola de audio. Fuera de x1 se descarta: la cola no se
+     * vaciaría a tiempo y sonaría a trozos.
+     */
+    private void finishAudioFrame() {
+        int samples = beeper.endFrame(TSTATES_PER_FRAME, audioMix);
+        ay.endFrame(TSTATES_PER_FRAME, audioMix); // Mismos instantes: suma sobre las mismas muestras
+        if (audio != null && pacer.isRealTime()) audio.offer(audioMix, samples);
     }
 
     // En el método de inicialización o constructor
@@ -188,8 +417,16 @@ public class Spectrum48k implements SpectrumEmulator {
     // --- I/O PORTS ---
     public void output(int port, int value) {
         if ((port & 0x01) == 0) { // Puerto 0xFE
-            currentBorderColor = value & 0x07;
-            // Aquí iría el sonido (beeper)
+            int color = value & 0x07;
+            if (beamActive && renderingFrame && color != currentBorderColor) {
+                screen.logBorder((int) (cpu.getTStates() - frameStart), color);
+            }
+            currentBorderColor = color;
+            beeper.setLevel((int) (cpu.getTStates() - frameStart), (value & 0x10) != 0);
+        } else if ((port & 0xC002) == 0xC000) { // 0xFFFD: registro del AY
+            ay.select(value);
+        } else if ((port & 0xC002) == 0x8000) { // 0xBFFD: dato del AY
+            ay.write((int) (cpu.getTStates() - frameStart), value);
         }
     }
 
@@ -199,28 +436,135 @@ public class Spectrum48k implements SpectrumEmulator {
             for (int i = 0; i < 8; i++) {
                 if ((port & (1 << (i + 8))) == 0) result &= keyboardMatrix[i];
             }
-            return result;
+            return result & tapeEar();
         }
+        if ((port & 0xC002) == 0xC000) return ay.read();
         return 0xFF;
     }
 
     // --- TAPE MANAGEMENT ---
-    private void performFastLoad() {
-        if (tapeBlockIndex >= tapeBlocks.size()) {
-            tapePlaying = false;
+
+    /**
+     * Bit 6 de 0xFE con la señal de la cinta (máscara para el resto de bits). Un cargador
+     * propio que lee EAR desde la RAM poco después de una carga rápida pone la cinta en marcha.
+     */
+    private int tapeEar() {
+        long now = cpu.getTStates();
+        if (!tape.isPlaying()) {
+            if (!tape.hasData() || now > autoPlayUntil || cpu.getPC() < 0x4000) return 0xFF;
+            tape.play(now);
+        }
+        boolean level = tape.getLevel(now);
+        if (loaderAcceleration) accelerator.onEarRead(now, scheduler.nextTime(), level);
+        return level ? 0xFF : ~0x40;
+    }
+
+    /** Pone en marcha la cinta (p.ej. tras un bloque de parada en un juego multicarga). */
+    public void playTape() { submit(() -> tape.play(cpu.getTStates())); }
+
+    public void stopTape() { submit(() -> tape.stop(cpu.getTStates())); }
+
+    public void ejectTape() {
+        submit(() -> {
+            tape.eject();
+            setTapeTrap(false);
+        });
+    }
+
+    /** Con la cinta sonando (no en carga rápida), ir sin límite de velocidad hasta que pare. */
+    public void setTapeWarp(boolean enabled) { tapeWarp = enabled; }
+
+    public boolean isTapeWarp() { return tapeWarp; }
+
+    /** Saltar las esperas de flanco de los cargadores propios (ver LoaderAccelerator). */
+    public void setLoaderAcceleration(boolean enabled) { loaderAcceleration = enabled; }
+
+    public boolean isLoaderAcceleration() { return loaderAcceleration; }
+
+    // --- DEBUG: TRAZA DE CPU ---
+
+    /**
+     * Activa (o desactiva con null) la caja negra de la CPU. Se aplica en el hilo del emulador.
+     */
+    public void setTraceBuffer(TraceBuffer buffer) { submit(() -> cpu.setTraceBuffer(buffer)); }
+
+    public void dumpTrace(String reason) { cpu.forceLogDump(reason); }
+
+    // --- MODO DE EJECUCIÓN DE LA CPU ---
+
+    /**
+     * Intérprete puro o caché de bloques decodificados. Se aplica en el hilo del emulador.
+     */
+    public void setExecutionMode(ExecutionMode mode) { submit(() -> cpu.setExecutionMode(mode)); }
+
+    public ExecutionMode getExecutionMode() { return cpu.getExecutionMode(); }
+
+    /**
+     * Modo haz (por defecto): borde y papel al ritmo del haz. Desactivado, la pantalla se
+     * pinta una vez por frame con el estado final de la memoria.
+     */
+    public void setBeamRendering(boolean enabled) { beamRendering = enabled; }
+
+    public boolean isBeamRendering() { return beamRendering; }
+
+    @Override public void setSpeed(EmulationSpeed speed) { pacer.setSpeed(speed); }
+
+    @Override public EmulationSpeed getSpeed() { return pacer.getSpeed(); }
+
+    /**
+     * La CPU ha llegado a LD-BYTES con cinta puesta. Si lo siguiente es un bloque que la ROM
+     * sabría leer se carga de golpe; si no (bloque turbo, o la cinta va a mitad de un bloque),
+     * se pone la cinta en marcha y la ROM lo lee de la señal como en la máquina real.
+     */
+    private void loadFromTrap() {
+        long now = cpu.getTStates();
+        TapeBlock block = tape.takeRomBlock(now);
+        if (block != null) {
+            performFastLoad(block);
             return;
         }
-        byte[] block = tapeBlocks.get(tapeBlockIndex++);
-        int start = cpu.IX;
-        int length = (cpu.D << 8) | cpu.E;
+        if (tape.hasData()) {
+            tape.play(now);
+        } else {
+            setTapeTrap(false); // Cinta acabada: la ROM esperará como con la máquina real
+        }
+        cpu.step(); // Ejecutar 0x0556 sin volver a parar aquí
+    }
 
-        // Copiar bloque omitiendo el flag byte y el checksum
-        for (int i = 0; i < length && (i + 1) < block.length; i++) {
-            memory.write(start + i, block[i + 1] & 0xFF);
+    /**
+     * Hace lo mismo que LD-BYTES con un bloque completo: A es el flag esperado, el acarreo
+     * indica LOAD (o VERIFY), IX el destino y DE la longitud. Los datos se copian en bloque.
+     * Vuelve como el RET de la rutina, con el acarreo a 1 si todo ha ido bien.
+     */
+    private void performFastLoad(TapeBlock block) {
+        byte[] data = block.getData();
+        boolean load = (cpu.F & 0x01) != 0;
+        int dest = cpu.IX;
+        int length = (cpu.D << 8) | cpu.E;
+        boolean ok = false;
+
+        // Con otro flag la ROM descarta el bloque y vuelve con error (LOAD busca el siguiente)
+        if ((data[0] & 0xFF) == cpu.A) {
+            int n = Math.min(length, data.length - 1);
+            int parity = data[0];
+            boolean same = true;
+            for (int i = 1; i <= n; i++) parity ^= data[i];
+            if (load) {
+                memory.writeBlock(dest, data, 1, n);
+            } else {
+                for (int i = 0; i < n && same; i++) same = memory.read(dest + i) == (data[i + 1] & 0xFF);
+            }
+            ok = same && n == length && data.length > length + 1 && ((parity ^ data[length + 1]) & 0xFF) == 0;
+            dest += n;
+            length -= n;
         }
 
-        cpu.F |= 0x01; // Carry flag = Success
+        cpu.IX = dest & 0xFFFF;
+        cpu.D = (length >> 8) & 0xFF;
+        cpu.E = length & 0xFF;
+        cpu.F = ok ? cpu.F | 0x01 : cpu.F & ~0x01;
         cpu.PC = pop(); // Simular RET
+        autoPlayUntil = cpu.getTStates() + AUTO_PLAY_TSTATES;
     }
 
     private int pop() {
@@ -257,33 +601,248 @@ public class Spectrum48k implements SpectrumEmulator {
     private void setKey(int row, int bit) { keyboardMatrix[row] &= ~(1 << bit); }
     private void nextStep(int delay) { autoLoadDelay = delay; autoLoadStep++; }
 
-    // --- OVERRIDES INTERFACE ---
-    @Override public void reset() {
+    // --- ÓRDENES (hilo del emulador) ---
+
+    private void processCommands() {
+        Runnable command;
+        while ((command = commands.poll()) != null) command.run();
+    }
+
+    private void resume() {
+        if (!paused) return;
+        paused = false;
+        pacer.reset();
+    }
+
+    /** Deja la máquina en pausa y avisa a la interfaz para que refresque el depurador. */
+    private void stopped() {
+        paused = true;
+        if (onStopCallback != null) Platform.runLater(onStopCallback);
+    }
+
+    /**
+     * Ejecuta una instrucción (o la carga rápida si está en LD-BYTES) y atiende los eventos
+     * que hayan vencido, igual que si la máquina corriera.
+     */
+    private void stepInstruction() {
+        setRunTarget(-1);
+        stepPastTrap = false;
+        if (tapeTrapArmed && cpu.getPC() == TAPE_TRAP_ADDRESS) loadFromTrap();
+        else cpu.step();
+        while (scheduler.nextTime() <= cpu.getTStates()) {
+            long time = scheduler.nextTime();
+            dispatchEvent(scheduler.pop(), time);
+        }
+        stopped();
+    }
+
+    /**
+     * Step over: las llamadas (CALL, RST), DJNZ y las instrucciones de bloque que repiten se
+     * ejecutan enteras corriendo hasta la instrucción siguiente; el resto es un paso normal.
+     */
+    private void stepOverInstruction() {
+        int pc = cpu.getPC();
+        int length = calledLength(memory.read(pc), memory.read((pc + 1) & 0xFFFF));
+        if (length == 0) {
+            stepInstruction();
+        } else {
+            runToAddress((pc + length) & 0xFFFF);
+        }
+    }
+
+    /** Longitud de la instrucción si step over debe saltarla entera; 0 si no. */
+    private static int calledLength(int op, int next) {
+        if (op == 0xCD || (op & 0xC7) == 0xC4) return 3; // CALL nn / CALL cc,nn
+        if ((op & 0xC7) == 0xC7) return 1;                // RST p
+        if (op == 0x10) return 2;                         // DJNZ
+        if (op == 0xED && (next & 0xF4) == 0xB0) return 2; // LDIR, CPIR, INIR, OTIR y sus D
+        return 0;
+    }
+
+    private void runToAddress(int address) {
+        setRunTarget(address & 0xFFFF);
+        resume();
+    }
+
+    private void insertTape(TapeSource source) {
+        resetMachine();
+        tape.insert(source);
+        setTapeTrap(true);
+        autoLoadStep = 1;
+        scheduler.schedule(cpu.getTStates(), EVENT_AUTOLOAD);
+    }
+
+    private void resetMachine() {
+        clearMachine();
+        if (paused) stopped();
+    }
+
+    /** Deja la máquina como recién encendida, sin avisar a la interfaz. */
+    private void clearMachine() {
+        tape.stop(cpu.getTStates());
+        autoPlayUntil = -1;
         cpu.reset();
         memory.reset();
+        scheduler.clear();
+        scheduleFrame(0);
+        beamChanged = false;
         currentBorderColor = 7;
         autoLoadStep = 0;
-        synchronized (videoLock) {
-            Arrays.fill(drawingBuffer, 0xFFFFFFFF);
-            Arrays.fill(displayBuffer, 0xFFFFFFFF);
+        beeper.reset();
+        ay.reset();
+        setRunTarget(-1);
+        stepPastTrap = false;
+        screen.invalidate(currentBorderColor);
+    }
+
+    // --- SNAPSHOTS (hilo del emulador) ---
+
+    /**
+     * Copia atómica del estado: al ejecutarse como orden, la CPU está entre dos instrucciones
+     * y nada más toca la máquina. La RAM se copia banco a banco.
+     */
+    private Snapshot captureSnapshot() {
+        Snapshot s = new Snapshot();
+        s.A = cpu.A; s.F = cpu.F; s.B = cpu.B; s.C = cpu.C;
+        s.D = cpu.D; s.E = cpu.E; s.H = cpu.H; s.L = cpu.L;
+        s.A_ = cpu.A_; s.F_ = cpu.F_; s.B_ = cpu.B_; s.C_ = cpu.C_;
+        s.D_ = cpu.D_; s.E_ = cpu.E_; s.H_ = cpu.H_; s.L_ = cpu.L_;
+        s.IX = cpu.IX; s.IY = cpu.IY; s.SP = cpu.SP; s.PC = cpu.PC;
+        s.I = cpu.I; s.R = cpu.R; s.IM = cpu.IM;
+        s.IFF1 = cpu.IFF1; s.IFF2 = cpu.IFF2; s.halted = cpu.Halted;
+        s.MEMPTR = cpu.MEMPTR;
+        s.frameTStates = (int) (cpu.getTStates() - frameStart);
+        s.border = currentBorderColor;
+        for (int r = 0; r < 16; r++) s.ayRegs[r] = ay.getRegister(r);
+        s.aySelected = ay.getSelected();
+        for (int bank = 0; bank < Memory.RAM_BANKS; bank++) {
+            if (bank == 5 || bank == 2 || bank == 0) s.ram[bank] = memory.copyRamBank(bank);
+        }
+        return s;
+    }
+
+    private void restoreSnapshot(Snapshot s) {
+        clearMachine(); // Mapa de encendido y paginación desbloqueada
+        for (int bank = 0; bank < Memory.RAM_BANKS; bank++) {
+            if (s.ram[bank] != null) memory.writeRamBank(bank, s.ram[bank]);
+        }
+
+        cpu.A = s.A; cpu.F = s.F; cpu.B = s.B; cpu.C = s.C;
+        cpu.D = s.D; cpu.E = s.E; cpu.H = s.H; cpu.L = s.L;
+        cpu.A_ = s.A_; cpu.F_ = s.F_; cpu.B_ = s.B_; cpu.C_ = s.C_;
+        cpu.D_ = s.D_; cpu.E_ = s.E_; cpu.H_ = s.H_; cpu.L_ = s.L_;
+        cpu.IX = s.IX; cpu.IY = s.IY; cpu.SP = s.SP; cpu.PC = s.PC;
+        cpu.I = s.I; cpu.R = s.R; cpu.IM = s.IM;
+        cpu.IFF1 = s.IFF1; cpu.IFF2 = s.IFF2; cpu.Halted = s.halted;
+        cpu.MEMPTR = s.MEMPTR;
+        cpu.tStates = s.frameTStates; // El frame empieza en 0 (clearMachine)
+
+        for (int r = 0; r < 16; r++) {
+            ay.select(r);
+            ay.write(s.frameTStates, s.ayRegs[r]);
         }
+        ay.select(s.aySelected);
+        currentBorderColor = s.border;
+        screen.invalidate(currentBorderColor);
+        if (paused) stopped();
     }
 
-    @Override public void pause() { paused = true; }
-    @Override public void stop() { running = false; cpu.closeLogger(); System.out.println("✅ Emulador detenido y log cerrado.");}
+    // --- OVERRIDES INTERFACE ---
+    @Override public void reset() {
+        restart();
+        submit(this::resetMachine);
+    }
+
+    @Override public void pause() { submit(() -> { if (!paused) stopped(); }); }
+    @Override public synchronized void stop() {
+        stopped = true;
+        running = false;
+        if (emulatorThread != null) LockSupport.unpark(emulatorThread);
+        System.out.println("✅ Emulador detenido.");
+    }
     @Override public boolean isPaused() { return paused; }
-    @Override public long getTStates() { return cpu.getTStates(); }
+    @Override public long getTStates() { return cpu.getTStates() - frameStart; } // Relativo al frame actual
     @Override public Memory getMemory() { return memory; }
     @Override public int getBorderColor() { return currentBorderColor; }
-    @Override public int[] getScreenBuffer() { synchronized (videoLock) { return displayBuffer; } }
-    @Override public void step() { cpu.step(); }
-    @Override public void stepOver() { step(); }
-    @Override public void toggleBreakpoint(int address) { if(breakpoints.contains(address)) breakpoints.remove(address); else breakpoints.add(address); }
-    @Override public void loadRom(String path) { memory.loadRom(path); }
-    @Override public void loadSnapshot(String path) {}
+    @Override public int[] getScreenBuffer() { return frames.acquire().getPixels(); }
+    @Override public long getScreenSequence() { return frames.frontSequence(); }
+    @Override public void step() { submit(this::stepInstruction); }
+    @Override public void stepOver() { submit(this::stepOverInstruction); }
+    @Override public void runTo(int address) { submit(() -> runToAddress(address)); }
+    @Override public void toggleBreakpoint(int address) {
+        if (breakpoints.contains(address)) breakpoints.remove(address); else breakpoints.add(address);
+        submit(() -> updateTrap(address));
+    }
+    @Override public void loadRom(String path) { submit(() -> memory.loadRom(path)); }
+    @Override public void loadSnapshot(String path) {
+        try {
+            // El fichero se lee y decodifica aquí; el hilo del emulador solo copia el estado
+            Snapshot snapshot = SnapshotFormat.load(Path.of(path));
+            // Sin la ROM del 128K ni el puerto 0x7FFD, su paginación no se puede reproducir
+            if (snapshot.is128k) throw new IOException("Snapshot de 128K: la máquina emulada es un 48K");
+            submit(() -> restoreSnapshot(snapshot));
+        } catch (IOException e) {
+            System.err.println("❌ Error cargando snapshot: " + e.getMessage());
+        }
+    }
+
+    @Override public CompletableFuture<Void> saveSnapshot(String path) {
+        CompletableFuture<Snapshot> captured = new CompletableFuture<>();
+        if (!submit(() -> captured.complete(captureSnapshot()))) {
+            captured.completeExceptionally(new IllegalStateException("El emulador está parado"));
+        }
+        return captured.thenAcceptAsync(snapshot -> {
+            try {
+                SnapshotFormat.save(snapshot, Path.of(path));
+            } catch (IOException e) {
+                System.err.println("❌ Error guardando snapshot: " + e.getMessage());
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
     @Override public void setOnCpuStop(Runnable callback) { this.onStopCallback = callback; }
     @Override public int peek(int address) { return memory.read(address); }
-    @Override public void poke(int address, int value) { memory.write(address, value); }
-    @Override public int getRegister(String name) { return 0; }
-    @Override public void loadProgram(File file) { /* Implementado igual que antes */ }
+    @Override public void poke(int address, int value) { submit(() -> memory.write(address, value)); }
+
+    /**
+     * Lee un registro (A, F, ..., AF, BC, DE, HL, IX, IY, SP, PC, I, R, IM y los alternativos
+     * con apóstrofo: AF', BC'...). Con la máquina en marcha el valor puede estar ya pasado.
+     */
+    @Override public int getRegister(String name) {
+        switch (name.toUpperCase()) {
+            case "A": return cpu.A;
+            case "F": return cpu.F;
+            case "B": return cpu.B;
+            case "C": return cpu.C;
+            case "D": return cpu.D;
+            case "E": return cpu.E;
+            case "H": return cpu.H;
+            case "L": return cpu.L;
+            case "AF": return (cpu.A << 8) | cpu.F;
+            case "BC": return (cpu.B << 8) | cpu.C;
+            case "DE": return (cpu.D << 8) | cpu.E;
+            case "HL": return (cpu.H << 8) | cpu.L;
+            case "AF'": return (cpu.A_ << 8) | cpu.F_;
+            case "BC'": return (cpu.B_ << 8) | cpu.C_;
+            case "DE'": return (cpu.D_ << 8) | cpu.E_;
+            case "HL'": return (cpu.H_ << 8) | cpu.L_;
+            case "IX": return cpu.IX;
+            case "IY": return cpu.IY;
+            case "SP": return cpu.SP;
+            case "PC": return cpu.PC;
+            case "I": return cpu.I;
+            case "R": return cpu.R;
+            case "IM": return cpu.IM;
+            default: throw new IllegalArgumentException("Registro desconocido: " + name);
+        }
+    }
+    @Override public void loadProgram(File file) {
+        try {
+            // TAP o TZX; los bloques se leen del fichero a medida que la cinta avanza
+            TapeSource source = TapeSource.open(file);
+            submit(() -> insertTape(source));
+        } catch (IOException e) {
+            System.err.println("❌ Error cargando cinta: " + e.getMessage());
+        }
+    }
 }
\ No newline at end of file
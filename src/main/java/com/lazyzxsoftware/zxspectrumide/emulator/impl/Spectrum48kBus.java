@@ -0,0 +1,49 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.impl;
+
+import com.lazyzxsoftware.zxspectrumide.emulator.core.BlockCache;
+import com.lazyzxsoftware.zxspectrumide.emulator.core.Bus;
+import com.lazyzxsoftware.zxspectrumide.emulator.core.Memory;
+
+/**
+ * Spectrum48kBus: Conecta la CPU con la memoria y la ULA del 48K.
+ * Clase final: las llamadas desde Z80 se resuelven sin despacho virtual.
+ */
+final class Spectrum48kBus implements Bus {
+    private final Memory memory;
+    private final Spectrum48k machine;
+
+    Spectrum48kBus(Memory memory, Spectrum48k machine) {
+        this.memory = memory;
+        this.machine = machine;
+    }
+
+    @Override
+    public int read(int address) {
+        return memory.read(address);
+    }
+
+    @Override
+    public void write(int address, int value) {
+        memory.write(address, value);
+    }
+
+    @Override
+    public void setBlockCache(BlockCache cache) {
+        memory.setBlockCache(cache);
+    }
+
+    @Override
+    public boolean copyBlock(int src, int dst, int count, int step) {
+        return memory.copyBlock(src, dst, count, step);
+    }
+
+    @Override
+    public int input(int port) {
+        return machine.input(port);
+    }
+
+    @Override
+    public void output(int port, int value) {
+        machine.output(port, value);
+    }
+}
@@ -1,8 +1,15 @@
 package com.lazyzxsoftware.zxspectrumide.emulator.interfaces;
 
+import com.lazyzxsoftware.zxspectrumide.emulator.core.EmulationSpeed;
 import com.lazyzxsoftware.zxspectrumide.emulator.core.Memory;
 import java.io.File;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Las órdenes (start, pause, step, stepOver, runTo, reset, poke...) se encolan y las ejecuta
+ * el hilo del emulador; al quedar en pausa avisa con el callback de setOnCpuStop. Tras stop
+ * las órdenes se descartan hasta que start o reset vuelvan a arrancarlo.
+ */
 public interface SpectrumEmulator {
     void start();
     void pause();
@@ -10,22 +17,33 @@ public interface SpectrumEmulator {
     void reset();
     void step();
     void stepOver();
+    void runTo(int address);
     void toggleBreakpoint(int address);
     boolean isPaused();
     long getTStates();
 
+    // Velocidad (x1, x2, x10 o sin límite); se puede cambiar en marcha
+    void setSpeed(EmulationSpeed speed);
+    EmulationSpeed getSpeed();
+
     int peek(int address);
     void poke(int address, int value);
     int getRegister(String name);
 
-    // VIDEO (Double Buffer)
+    // VIDEO (Triple Buffer): getScreenBuffer devuelve el último frame publicado, que no cambia
+    // hasta la siguiente llamada; getScreenSequence su número (solo desde el mismo hilo)
     int[] getScreenBuffer();
+    long getScreenSequence();
     int getBorderColor();
 
     Memory getMemory();
 
     void loadRom(String path);
+    // Snapshots SNA, Z80 o SZX (por la extensión); los de 128K no se cargan en el 48K. El
+    // guardado copia el estado en el hilo del emulador, entre dos instrucciones, y escribe el
+    // fichero fuera de él
     void loadSnapshot(String path);
+    CompletableFuture<Void> saveSnapshot(String path);
 
     // CAMBIO: Inyectamos el archivo real para imitar a JSpeccy
     void loadProgram(File tapFile);
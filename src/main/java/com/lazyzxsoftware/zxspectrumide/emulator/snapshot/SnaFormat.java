@@ -0,0 +1,139 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.snapshot;
+
+import com.lazyzxsoftware.zxspectrumide.emulator.core.Memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * SnaFormat: Formato SNA. Cabecera de 27 bytes y la RAM tal cual, sin comprimir.
+ *
+ * En el de 48K el PC va en la pila (se hace un RETN al cargar); el de 128K lo guarda detrás
+ * de los 48K visibles junto con 0x7FFD y añade el resto de bancos en orden.
+ */
+final class SnaFormat implements SnapshotFormat {
+    private static final int HEADER = 27;
+    private static final int SIZE_48K = HEADER + 3 * Memory.BANK_SIZE;
+    private static final int SIZE_128K = SIZE_48K + 4 + 5 * Memory.BANK_SIZE;
+    private static final int SIZE_128K_REPEATED = SIZE_128K + Memory.BANK_SIZE; // Banco 2 o 5 en 0xC000
+
+    @Override
+    public Snapshot read(ByteBuffer in) throws IOException {
+        int size = in.remaining();
+        if (size != SIZE_48K && size != SIZE_128K && size != SIZE_128K_REPEATED) {
+            throw new IOException("Tamaño de SNA no válido: " + size);
+        }
+        Snapshot s = new Snapshot();
+        s.is128k = size != SIZE_48K;
+        s.I = in.get() & 0xFF;
+        int hl_ = word(in), de_ = word(in), bc_ = word(in), af_ = word(in);
+        s.H_ = hl_ >> 8; s.L_ = hl_ & 0xFF;
+        s.D_ = de_ >> 8; s.E_ = de_ & 0xFF;
+        s.B_ = bc_ >> 8; s.C_ = bc_ & 0xFF;
+        s.A_ = af_ >> 8; s.F_ = af_ & 0xFF;
+        int hl = word(in), de = word(in), bc = word(in);
+        s.H = hl >> 8; s.L = hl & 0xFF;
+        s.D = de >> 8; s.E = de & 0xFF;
+        s.B = bc >> 8; s.C = bc & 0xFF;
+        s.IY = word(in);
+        s.IX = word(in);
+        s.IFF2 = s.IFF1 = (in.get() & 0x04) != 0;
+        s.R = in.get() & 0xFF;
+        int af = word(in);
+        s.A = af >> 8; s.F = af & 0xFF;
+        s.SP = word(in);
+        s.IM = in.get() & 0x03;
+        s.border = in.get() & 0x07;
+
+        // Los 48K visibles: 0x4000, 0x8000 y 0xC000 (el banco paginado se sabe después en 128K)
+        byte[][] visible = new byte[3][Memory.BANK_SIZE];
+        for (byte[] bank : visible) in.get(bank);
+
+        if (!s.is128k) {
+            s.ram[5] = visible[0];
+            s.ram[2] = visible[1];
+            s.ram[0] = visible[2];
+            s.PC = read(s, s.SP) | (read(s, s.SP + 1) << 8);
+            s.SP = (s.SP + 2) & 0xFFFF;
+            return s;
+        }
+
+        s.PC = word(in);
+        s.port7FFD = in.get() & 0xFF;
+        in.get(); // TR-DOS paginado
+        s.ram[5] = visible[0];
+        s.ram[2] = visible[1];
+        s.ram[s.pagedBank()] = visible[2];
+        for (int bank = 0; bank < Memory.RAM_BANKS; bank++) {
+            if (bank == 5 || bank == 2 || bank == s.pagedBank()) continue;
+            in.get(s.bank(bank));
+        }
+        return s;
+    }
+
+    @Override
+    public ByteBuffer write(Snapshot s) {
+        int pc = s.PC, sp = s.SP;
+        byte[] image = new byte[3 * Memory.BANK_SIZE];
+        for (int i = 0; i < 3; i++) s.copyBank(s.bankAt((i + 1) << 14), image, i * Memory.BANK_SIZE);
+        if (!s.is128k) {
+            // El PC a la pila de la copia, como si hubiera llegado una interrupción
+            sp = (sp - 2) & 0xFFFF;
+            int high = (sp + 1) & 0xFFFF;
+            if (sp >= 0x4000) image[sp - 0x4000] = (byte) pc;
+            if (high >= 0x4000) image[high - 0x4000] = (byte) (pc >> 8);
+        }
+
+        int paged = s.pagedBank();
+        int extra = paged == 5 || paged == 2 ? 6 : 5; // Bancos detrás de los 48K en 128K
+        ByteBuffer out = ByteBuffer.allocate(HEADER + image.length + (s.is128k ? 4 + extra * Memory.BANK_SIZE : 0))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        out.put((byte) s.I);
+        putWord(out, (s.H_ << 8) | s.L_);
+        putWord(out, (s.D_ << 8) | s.E_);
+        putWord(out, (s.B_ << 8) | s.C_);
+        putWord(out, (s.A_ << 8) | s.F_);
+        putWord(out, (s.H << 8) | s.L);
+        putWord(out, (s.D << 8) | s.E);
+        putWord(out, (s.B << 8) | s.C);
+        putWord(out, s.IY);
+        putWord(out, s.IX);
+        out.put((byte) (s.IFF2 ? 0x04 : 0));
+        out.put((byte) s.R);
+        putWord(out, (s.A << 8) | s.F);
+        putWord(out, sp);
+        out.put((byte) s.IM);
+        out.put((byte) s.border);
+        out.put(image);
+
+        if (s.is128k) {
+            putWord(out, pc);
+            out.put((byte) s.port7FFD);
+            out.put((byte) 0);
+            byte[] bank = new byte[Memory.BANK_SIZE];
+            for (int b = 0; b < Memory.RAM_BANKS; b++) {
+                if (b == 5 || b == 2 || b == paged) continue;
+                s.copyBank(b, bank, 0);
+                out.put(bank);
+            }
+        }
+        return out.flip();
+    }
+
+    /** Byte de RAM del snapshot (la ROM se lee como 0). */
+    private static int read(Snapshot s, int address) {
+        address &= 0xFFFF;
+        if (address < 0x4000) return 0;
+        byte[] bank = s.ram[s.bankAt(address)];
+        return bank == null ? 0 : bank[address & 0x3FFF] & 0xFF;
+    }
+
+    private static int word(ByteBuffer in) {
+        return in.getShort() & 0xFFFF;
+    }
+
+    private static void putWord(ByteBuffer out, int value) {
+        out.putShort((short) value);
+    }
+}
@@ -0,0 +1,58 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.snapshot;
+
+import com.lazyzxsoftware.zxspectrumide.emulator.core.Memory;
+
+import java.util.Arrays;
+
+/**
+ * Snapshot: Estado completo de la máquina entre dos instrucciones, independiente del formato
+ * del fichero. Los registros siguen los nombres de Z80; la RAM va por bancos de 16K.
+ *
+ * En un 48K solo se usan los bancos 5, 2 y 0 (0x4000, 0x8000 y 0xC000), con 0x7FFD a cero.
+ */
+public final class Snapshot {
+    public boolean is128k;
+
+    public int A, F, B, C, D, E, H, L;
+    public int A_, F_, B_, C_, D_, E_, H_, L_;
+    public int IX, IY, SP, PC;
+    public int I, R;
+    public int IM;
+    public boolean IFF1, IFF2, halted;
+    public int MEMPTR;
+
+    public int frameTStates; // T-state dentro del frame
+    public int border;
+    public int port7FFD;
+
+    public final int[] ayRegs = new int[16];
+    public int aySelected;
+
+    public final byte[][] ram = new byte[Memory.RAM_BANKS][]; // null = banco que el fichero no trae
+
+    /** Banco de RAM paginado en 0xC000. */
+    public int pagedBank() {
+        return is128k ? port7FFD & 0x07 : 0;
+    }
+
+    /** Banco que se ve en una dirección de RAM (0x4000-0xFFFF). */
+    int bankAt(int address) {
+        switch (address >> 14) {
+            case 1: return 5;
+            case 2: return 2;
+            default: return pagedBank();
+        }
+    }
+
+    /** Banco de RAM, creándolo vacío si aún no estaba. */
+    byte[] bank(int index) {
+        if (ram[index] == null) ram[index] = new byte[Memory.BANK_SIZE];
+        return ram[index];
+    }
+
+    /** Copia un banco en dst (ceros si el snapshot no lo trae). */
+    void copyBank(int index, byte[] dst, int offset) {
+        if (ram[index] != null) System.arraycopy(ram[index], 0, dst, offset, Memory.BANK_SIZE);
+        else Arrays.fill(dst, offset, offset + Memory.BANK_SIZE, (byte) 0);
+    }
+}
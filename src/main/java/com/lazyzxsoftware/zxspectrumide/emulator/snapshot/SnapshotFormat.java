@@ -0,0 +1,72 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.snapshot;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * SnapshotFormat: Lectura y escritura de un formato de snapshot (SNA, Z80 o SZX).
+ *
+ * Los ficheros se leen enteros con un FileChannel en un ByteBuffer little endian y se
+ * escriben en un temporal que luego sustituye al destino, así nunca queda uno a medias.
+ */
+public interface SnapshotFormat {
+    int MAX_FILE_SIZE = 1 << 20; // Ningún snapshot de 128K se acerca a esto
+
+    /** Decodifica el fichero (buffer little endian, posición al inicio). */
+    Snapshot read(ByteBuffer in) throws IOException;
+
+    /** Codifica el snapshot; el buffer devuelto está listo para escribir (flip hecho). */
+    ByteBuffer write(Snapshot snapshot) throws IOException;
+
+    /** Formato según la extensión: .sna, .z80 o .szx. */
+    static SnapshotFormat forPath(Path path) throws IOException {
+        String name = path.getFileName().toString().toLowerCase();
+        if (name.endsWith(".sna")) return new SnaFormat();
+        if (name.endsWith(".z80")) return new Z80Format();
+        if (name.endsWith(".szx")) return new SzxFormat();
+        throw new IOException("Formato de snapshot no soportado: " + path.getFileName());
+    }
+
+    static Snapshot load(Path path) throws IOException {
+        SnapshotFormat format = forPath(path);
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAX_FILE_SIZE) throw new IOException("Snapshot demasiado grande: " + path.getFileName());
+            in = ByteBuffer.allocate((int) size);
+            while (in.hasRemaining() && channel.read(in) >= 0) { }
+        }
+        in.flip().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            return format.read(in);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Snapshot cortado o dañado: " + path.getFileName());
+        }
+    }
+
+    static void save(Snapshot snapshot, Path path) throws IOException {
+        ByteBuffer out = forPath(path).write(snapshot);
+        Path target = path.toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), "snap", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (out.hasRemaining()) channel.write(out);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
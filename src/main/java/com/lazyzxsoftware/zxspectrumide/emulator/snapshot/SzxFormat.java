@@ -0,0 +1,210 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.snapshot;
+
+import com.lazyzxsoftware.zxspectrumide.emulator.core.Memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * SzxFormat: Formato SZX (ZX-State 1.x). Una cabecera ZXST con el modelo y una lista de
+ * bloques con identificador y tamaño. Se leen Z80R (registros), SPCR (borde y 0x7FFD),
+ * AY y RAMP (bancos de RAM, normalmente con zlib); los demás se saltan.
+ */
+final class SzxFormat implements SnapshotFormat {
+    private static final int MAGIC = tag("ZXST");
+    private static final int Z80R = tag("Z80R");
+    private static final int SPCR = tag("SPCR");
+    private static final int AY = tag("AY\0\0");
+    private static final int RAMP = tag("RAMP");
+
+    private static final int MACHINE_48K = 1;
+    private static final int MACHINE_128K = 2;
+    private static final int HALTED = 0x02;     // chFlags de Z80R
+    private static final int COMPRESSED = 0x01; // wFlags de RAMP
+
+    @Override
+    public Snapshot read(ByteBuffer in) throws IOException {
+        if (in.remaining() < 8 || in.getInt() != MAGIC) throw new IOException("No es un fichero SZX");
+        in.get(); // Versión
+        in.get();
+        int machine = in.get() & 0xFF;
+        in.get(); // Flags
+        if (machine == 0) throw new IOException("SZX de 16K no soportado");
+        Snapshot s = new Snapshot();
+        // 48K, TC2048 y 48K NTSC no tienen paginación
+        s.is128k = machine >= 2 && machine != 8 && machine != 15;
+
+        while (in.remaining() >= 8) {
+            int id = in.getInt();
+            int size = in.getInt();
+            int end = in.position() + size;
+            if (id == Z80R) readRegisters(in, s);
+            else if (id == SPCR) {
+                s.border = in.get() & 0x07;
+                if (s.is128k) s.port7FFD = in.get() & 0xFF;
+            } else if (id == AY) {
+                in.get(); // Flags
+                s.aySelected = in.get() & 0x0F;
+                for (int i = 0; i < 16; i++) s.ayRegs[i] = in.get() & 0xFF;
+            } else if (id == RAMP) {
+                int flags = in.getShort() & 0xFFFF;
+                int page = in.get() & 0xFF;
+                if (page < Memory.RAM_BANKS) readPage(in, end, (flags & COMPRESSED) != 0, s.bank(page));
+            }
+            in.position(end);
+        }
+        return s;
+    }
+
+    private static void readRegisters(ByteBuffer in, Snapshot s) {
+        int af = word(in), bc = word(in), de = word(in), hl = word(in);
+        int af_ = word(in), bc_ = word(in), de_ = word(in), hl_ = word(in);
+        s.A = af >> 8; s.F = af & 0xFF;
+        s.B = bc >> 8; s.C = bc & 0xFF;
+        s.D = de >> 8; s.E = de & 0xFF;
+        s.H = hl >> 8; s.L = hl & 0xFF;
+        s.A_ = af_ >> 8; s.F_ = af_ & 0xFF;
+        s.B_ = bc_ >> 8; s.C_ = bc_ & 0xFF;
+        s.D_ = de_ >> 8; s.E_ = de_ & 0xFF;
+        s.H_ = hl_ >> 8; s.L_ = hl_ & 0xFF;
+        s.IX = word(in);
+        s.IY = word(in);
+        s.SP = word(in);
+        s.PC = word(in);
+        s.I = in.get() & 0xFF;
+        s.R = in.get() & 0xFF;
+        s.IFF1 = in.get() != 0;
+        s.IFF2 = in.get() != 0;
+        s.IM = in.get() & 0x03;
+        long cycles = in.getInt() & 0xFFFFFFFFL;
+        s.frameTStates = cycles < 69888 ? (int) cycles : 0;
+        in.get(); // Ciclos con la interrupción pendiente
+        s.halted = (in.get() & HALTED) != 0;
+        s.MEMPTR = word(in);
+    }
+
+    private static void readPage(ByteBuffer in, int end, boolean compressed, byte[] dst) throws IOException {
+        if (!compressed) {
+            in.get(dst);
+            return;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(in.slice().limit(end - in.position()));
+            int n = 0;
+            while (n < dst.length && !inflater.finished()) {
+                int read = inflater.inflate(dst, n, dst.length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += read;
+            }
+            if (n != dst.length) throw new IOException("Página de RAM de SZX incompleta");
+        } catch (DataFormatException e) {
+            throw new IOException("Página de RAM de SZX dañada: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public ByteBuffer write(Snapshot s) {
+        // Primero se comprimen los bancos para saber el tamaño total
+        byte[][] pages = new byte[Memory.RAM_BANKS][];
+        int[] lengths = new int[Memory.RAM_BANKS];
+        int[] banks = s.is128k ? new int[]{0, 1, 2, 3, 4, 5, 6, 7} : new int[]{5, 2, 0};
+        byte[] data = new byte[Memory.BANK_SIZE];
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            for (int bank : banks) {
+                s.copyBank(bank, data, 0);
+                deflater.reset();
+                deflater.setInput(data);
+                deflater.finish();
+                byte[] packed = new byte[Memory.BANK_SIZE + 64];
+                int n = 0;
+                while (!deflater.finished()) {
+                    if (n == packed.length) packed = Arrays.copyOf(packed, packed.length * 2);
+                    n += deflater.deflate(packed, n, packed.length - n);
+                }
+                pages[bank] = packed;
+                lengths[bank] = n;
+            }
+        } finally {
+            deflater.end();
+        }
+
+        int size = 8 + (8 + 37) + (8 + 8) + (s.is128k ? 8 + 18 : 0);
+        for (int bank : banks) size += 8 + 3 + lengths[bank];
+        ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC);
+        out.put((byte) 1); // Versión 1.4
+        out.put((byte) 4);
+        out.put((byte) (s.is128k ? MACHINE_128K : MACHINE_48K));
+        out.put((byte) 0);
+
+        block(out, Z80R, 37);
+        putWord(out, (s.A << 8) | s.F);
+        putWord(out, (s.B << 8) | s.C);
+        putWord(out, (s.D << 8) | s.E);
+        putWord(out, (s.H << 8) | s.L);
+        putWord(out, (s.A_ << 8) | s.F_);
+        putWord(out, (s.B_ << 8) | s.C_);
+        putWord(out, (s.D_ << 8) | s.E_);
+        putWord(out, (s.H_ << 8) | s.L_);
+        putWord(out, s.IX);
+        putWord(out, s.IY);
+        putWord(out, s.SP);
+        putWord(out, s.PC);
+        out.put((byte) s.I);
+        out.put((byte) s.R);
+        out.put((byte) (s.IFF1 ? 1 : 0));
+        out.put((byte) (s.IFF2 ? 1 : 0));
+        out.put((byte) s.IM);
+        out.putInt(s.frameTStates);
+        out.put((byte) 0);
+        out.put((byte) (s.halted ? HALTED : 0));
+        putWord(out, s.MEMPTR);
+
+        block(out, SPCR, 8);
+        out.put((byte) s.border);
+        out.put((byte) s.port7FFD);
+        out.put(new byte[6]); // 0x1FFD, último 0xFE y reservados
+
+        if (s.is128k) {
+            block(out, AY, 18);
+            out.put((byte) 0);
+            out.put((byte) s.aySelected);
+            for (int i = 0; i < 16; i++) out.put((byte) s.ayRegs[i]);
+        }
+
+        for (int bank : banks) {
+            block(out, RAMP, 3 + lengths[bank]);
+            putWord(out, COMPRESSED);
+            out.put((byte) bank);
+            out.put(pages[bank], 0, lengths[bank]);
+        }
+        return out.flip();
+    }
+
+    private static void block(ByteBuffer out, int id, int size) {
+        out.putInt(id);
+        out.putInt(size);
+    }
+
+    /** Identificador de 4 caracteres leído como int little endian. */
+    private static int tag(String id) {
+        return id.charAt(0) | (id.charAt(1) << 8) | (id.charAt(2) << 16) | (id.charAt(3) << 24);
+    }
+
+    private static int word(ByteBuffer in) {
+        return in.getShort() & 0xFFFF;
+    }
+
+    private static void putWord(ByteBuffer out, int value) {
+        out.putShort((short) value);
+    }
+}
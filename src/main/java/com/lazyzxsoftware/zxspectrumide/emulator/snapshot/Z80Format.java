@@ -0,0 +1,231 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.snapshot;
+
+import com.lazyzxsoftware.zxspectrumide.emulator.core.Memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Z80Format: Formato .z80 de las versiones 1 a 3.
+ *
+ * La v1 (PC distinto de 0 en la cabecera) es un 48K con la RAM seguida, comprimida o no. La
+ * v2/v3 añade una cabecera extendida (modelo, 0x7FFD, AY y, en la v3, el T-state) y bloques
+ * de 16K con su número de página. La compresión es un RLE: ED ED n b repite n veces b.
+ *
+ * Se guarda siempre como v3 con los bloques comprimidos.
+ */
+final class Z80Format implements SnapshotFormat {
+    private static final int HEADER_V1 = 30;
+    private static final int EXTRA_V2 = 23;
+    private static final int EXTRA_V3 = 54;
+    private static final int QUARTER_48K = 69888 / 4; // El contador de T-states va por cuartos de frame
+    private static final int RAW_BLOCK = 0xFFFF;      // Longitud de un bloque sin comprimir
+
+    @Override
+    public Snapshot read(ByteBuffer in) throws IOException {
+        Snapshot s = new Snapshot();
+        s.A = in.get() & 0xFF;
+        s.F = in.get() & 0xFF;
+        int bc = word(in), hl = word(in);
+        s.B = bc >> 8; s.C = bc & 0xFF;
+        s.H = hl >> 8; s.L = hl & 0xFF;
+        s.PC = word(in);
+        s.SP = word(in);
+        s.I = in.get() & 0xFF;
+        int r = in.get() & 0x7F;
+        int flags = in.get() & 0xFF;
+        if (flags == 0xFF) flags = 1; // Compatibilidad con versiones antiguas
+        s.R = r | ((flags & 0x01) << 7);
+        s.border = (flags >> 1) & 0x07;
+        int de = word(in), bc_ = word(in), de_ = word(in), hl_ = word(in);
+        s.D = de >> 8; s.E = de & 0xFF;
+        s.B_ = bc_ >> 8; s.C_ = bc_ & 0xFF;
+        s.D_ = de_ >> 8; s.E_ = de_ & 0xFF;
+        s.H_ = hl_ >> 8; s.L_ = hl_ & 0xFF;
+        s.A_ = in.get() & 0xFF;
+        s.F_ = in.get() & 0xFF;
+        s.IY = word(in);
+        s.IX = word(in);
+        s.IFF1 = in.get() != 0;
+        s.IFF2 = in.get() != 0;
+        s.IM = in.get() & 0x03;
+
+        if (s.PC != 0) {
+            // v1: 48K seguidos desde 0x4000
+            byte[] image = new byte[3 * Memory.BANK_SIZE];
+            if ((flags & 0x20) != 0) decompress(in, in.limit(), image);
+            else in.get(image);
+            s.ram[5] = Arrays.copyOfRange(image, 0, Memory.BANK_SIZE);
+            s.ram[2] = Arrays.copyOfRange(image, Memory.BANK_SIZE, 2 * Memory.BANK_SIZE);
+            s.ram[0] = Arrays.copyOfRange(image, 2 * Memory.BANK_SIZE, 3 * Memory.BANK_SIZE);
+            return s;
+        }
+
+        int extra = word(in);
+        if (extra != EXTRA_V2 && extra != EXTRA_V3 && extra != EXTRA_V3 + 1) {
+            throw new IOException("Cabecera de Z80 desconocida (" + extra + " bytes)");
+        }
+        int start = in.position();
+        s.PC = word(in);
+        int mode = in.get() & 0xFF;
+        s.is128k = extra == EXTRA_V2 ? mode >= 3 : mode >= 4;
+        int port = in.get() & 0xFF;
+        if (s.is128k) s.port7FFD = port;
+        in.get(); // Interface 1
+        in.get(); // Flags (AY en 48K, modelo modificado)
+        s.aySelected = in.get() & 0x0F;
+        for (int i = 0; i < 16; i++) s.ayRegs[i] = in.get() & 0xFF;
+        if (extra != EXTRA_V2) {
+            int low = word(in);
+            int high = in.get() & 0xFF;
+            s.frameTStates = frameTStates(low, high);
+        }
+        in.position(start + extra);
+
+        while (in.remaining() >= 3) {
+            int length = word(in);
+            int page = in.get() & 0xFF;
+            int bank = bankOf(page, s.is128k);
+            int end = in.position() + (length == RAW_BLOCK ? Memory.BANK_SIZE : length);
+            if (bank < 0) {
+                in.position(end); // ROM, Interface 1...
+                continue;
+            }
+            byte[] data = s.bank(bank);
+            if (length == RAW_BLOCK) in.get(data);
+            else decompress(in, end, data);
+            in.position(end);
+        }
+        return s;
+    }
+
+    @Override
+    public ByteBuffer write(Snapshot s) {
+        int[] pages = s.is128k ? new int[]{3, 4, 5, 6, 7, 8, 9, 10} : new int[]{8, 4, 5};
+        ByteBuffer out = ByteBuffer.allocate(HEADER_V1 + 2 + EXTRA_V3 + pages.length * (3 + Memory.BANK_SIZE))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        out.put((byte) s.A);
+        out.put((byte) s.F);
+        putWord(out, (s.B << 8) | s.C);
+        putWord(out, (s.H << 8) | s.L);
+        putWord(out, 0); // PC a 0: cabecera extendida
+        putWord(out, s.SP);
+        out.put((byte) s.I);
+        out.put((byte) (s.R & 0x7F));
+        out.put((byte) (((s.R >> 7) & 0x01) | ((s.border & 0x07) << 1)));
+        putWord(out, (s.D << 8) | s.E);
+        putWord(out, (s.B_ << 8) | s.C_);
+        putWord(out, (s.D_ << 8) | s.E_);
+        putWord(out, (s.H_ << 8) | s.L_);
+        out.put((byte) s.A_);
+        out.put((byte) s.F_);
+        putWord(out, s.IY);
+        putWord(out, s.IX);
+        out.put((byte) (s.IFF1 ? 1 : 0));
+        out.put((byte) (s.IFF2 ? 1 : 0));
+        out.put((byte) (s.IM & 0x03));
+
+        putWord(out, EXTRA_V3);
+        int start = out.position();
+        putWord(out, s.PC);
+        out.put((byte) (s.is128k ? 4 : 0));
+        out.put((byte) (s.is128k ? s.port7FFD : 0));
+        out.put((byte) 0);
+        out.put((byte) 0);
+        out.put((byte) s.aySelected);
+        for (int i = 0; i < 16; i++) out.put((byte) s.ayRegs[i]);
+        int t = Math.floorMod(s.frameTStates, 4 * QUARTER_48K);
+        putWord(out, QUARTER_48K - (t % QUARTER_48K) - 1);
+        out.put((byte) ((t / QUARTER_48K + 3) % 4));
+        out.position(start + EXTRA_V3); // El resto (periféricos) a cero
+
+        byte[] data = new byte[Memory.BANK_SIZE];
+        byte[] packed = new byte[2 * Memory.BANK_SIZE]; // ED ED suelto ocupa el doble
+        for (int page : pages) {
+            s.copyBank(bankOf(page, s.is128k), data, 0);
+            int length = compress(data, packed);
+            if (length >= Memory.BANK_SIZE) {
+                putWord(out, RAW_BLOCK);
+                out.put((byte) page);
+                out.put(data);
+            } else {
+                putWord(out, length);
+                out.put((byte) page);
+                out.put(packed, 0, length);
+            }
+        }
+        return out.flip();
+    }
+
+    /** Banco de RAM de una página del fichero, o -1 si no es RAM. */
+    private static int bankOf(int page, boolean is128k) {
+        if (is128k) return page >= 3 && page <= 10 ? page - 3 : -1;
+        switch (page) {
+            case 4: return 2;
+            case 5: return 0;
+            case 8: return 5;
+            default: return -1;
+        }
+    }
+
+    /** T-state dentro del frame a partir del contador de la v3 (cuenta hacia atrás por cuartos). */
+    private static int frameTStates(int low, int high) {
+        int t = ((high + 1) % 4 + 1) * QUARTER_48K - (low + 1);
+        return t >= 0 && t < 4 * QUARTER_48K ? t : 0;
+    }
+
+    /** Descomprime hasta llenar dst o llegar a end. */
+    private static void decompress(ByteBuffer in, int end, byte[] dst) throws IOException {
+        int out = 0;
+        while (out < dst.length && in.position() < end) {
+            byte b = in.get();
+            if (b == (byte) 0xED && in.position() < end && in.get(in.position()) == (byte) 0xED) {
+                in.get();
+                int count = in.get() & 0xFF;
+                byte value = in.get();
+                if (out + count > dst.length) throw new IOException("Bloque de Z80 dañado");
+                Arrays.fill(dst, out, out + count, value);
+                out += count;
+            } else {
+                dst[out++] = b;
+            }
+        }
+    }
+
+    /**
+     * Comprime src en dst. Repeticiones de 5 o más (o de 2 o más ED) van como ED ED n b; el
+     * byte que sigue a un ED suelto va siempre tal cual para que no se lea como bloque.
+     * @return Bytes escritos.
+     */
+    private static int compress(byte[] src, byte[] dst) {
+        int out = 0;
+        int i = 0;
+        while (i < src.length) {
+            byte b = src[i];
+            int run = 1;
+            while (i + run < src.length && run < 255 && src[i + run] == b) run++;
+            if (run >= 5 || (b == (byte) 0xED && run >= 2)) {
+                dst[out++] = (byte) 0xED;
+                dst[out++] = (byte) 0xED;
+                dst[out++] = (byte) run;
+                dst[out++] = b;
+                i += run;
+            } else {
+                dst[out++] = b;
+                i++;
+                if (b == (byte) 0xED && i < src.length) dst[out++] = src[i++];
+            }
+        }
+        return out;
+    }
+
+    private static int word(ByteBuffer in) {
+        return in.getShort() & 0xFFFF;
+    }
+
+    private static void putWord(ByteBuffer out, int value) {
+        out.putShort((short) value);
+    }
+}
@@ -0,0 +1,41 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.tape;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * TapReader: Formato TAP. Cada bloque va precedido de su longitud (2 bytes, little endian)
+ * y se reproduce con los tiempos de la ROM y una pausa de un segundo.
+ */
+final class TapReader implements TapeSource {
+    private static final int PAUSE_MILLIS = 1000;
+
+    private final DataInputStream in;
+
+    TapReader(File file) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    @Override
+    public TapeBlock next() throws IOException {
+        int low = in.read();
+        if (low < 0) return null;
+        int length = low | (in.readUnsignedByte() << 8);
+        byte[] data = new byte[length];
+        try {
+            in.readFully(data);
+        } catch (EOFException e) {
+            return null; // Bloque cortado al final del fichero
+        }
+        return TapeBlock.standard(data, PAUSE_MILLIS);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,229 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.tape;
+
+import java.io.IOException;
+
+/**
+ * Tape: El casete. Convierte los bloques de un TapeSource en flancos de la señal EAR.
+ *
+ * No hay eventos por pulso: la señal se calcula cuando alguien la lee (getLevel con el
+ * T-state actual), recorriendo de golpe los pulsos pendientes. Cada pulso empieza con un
+ * cambio de nivel. El trap de LD-BYTES puede además llevarse el siguiente bloque entero
+ * (takeRomBlock) si la ROM sabría leerlo, sin reproducirlo.
+ *
+ * Solo debe usarse desde el hilo del emulador.
+ */
+public final class Tape {
+    private static final int TSTATES_PER_MILLI = 3500;
+
+    private enum State { NEXT, PILOT, SYNC1, SYNC2, DATA, TONE, PULSES, PAUSE, STOP }
+
+    private TapeSource source;
+    private TapeBlock block;
+    private State state = State.NEXT;
+    private boolean atEnd = true;
+
+    private boolean playing;
+    private boolean level;
+    private long nextEdge; // T-state absoluto del próximo cambio
+
+    private boolean started; // Ya ha sonado algo del bloque actual
+    private int count;    // Pulsos que quedan (guía, tono) o índice (secuencia)
+    private int bit;      // Bit actual de DATA (0 = primero del bloque)
+    private int totalBits;
+    private boolean secondHalf; // Cada bit son dos pulsos iguales
+
+    /** Mete una cinta (parada y al principio). Cierra la anterior. */
+    public void insert(TapeSource source) {
+        eject();
+        this.source = source;
+        atEnd = false;
+    }
+
+    public void eject() {
+        playing = false;
+        block = null;
+        state = State.NEXT;
+        atEnd = true;
+        level = false;
+        if (source != null) {
+            try { source.close(); } catch (IOException e) { /* Da igual: ya no se lee */ }
+            source = null;
+        }
+    }
+
+    /** Hay cinta y quedan bloques por leer. */
+    public boolean hasData() {
+        return !atEnd;
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    /** Empieza a sonar en el T-state indicado. */
+    public void play(long tState) {
+        if (playing || atEnd) return;
+        playing = true;
+        nextEdge = tState;
+    }
+
+    /** Para la cinta en el T-state indicado (la señal se queda como esté). */
+    public void stop(long tState) {
+        if (!playing) return;
+        advance(tState);
+        playing = false;
+    }
+
+    /** Nivel de EAR en un T-state (no anterior a la última lectura). */
+    public boolean getLevel(long tState) {
+        if (playing) advance(tState);
+        return level;
+    }
+
+    /**
+     * T-state del próximo cambio de nivel después de tState (Long.MAX_VALUE si la cinta está
+     * parada). Puede ser un límite de pulso sin cambio real (p.ej. el inicio de una pausa),
+     * así que es una cota segura: hasta ese instante el nivel no cambia.
+     */
+    public long nextEdge(long tState) {
+        if (playing) advance(tState);
+        return playing ? nextEdge : Long.MAX_VALUE;
+    }
+
+    /**
+     * Si la cinta está entre bloques (o al principio de uno) y lo siguiente es un bloque que
+     * la ROM sabría leer, lo saca entero para el trap de carga rápida. Si no, devuelve null
+     * y el bloque queda preparado para reproducirse desde el principio.
+     * @param tState T-state actual (para poner al día la reproducción).
+     */
+    public TapeBlock takeRomBlock(long tState) {
+        if (playing) advance(tState);
+        if (state == State.PAUSE || state == State.STOP) state = State.NEXT; // Se puede saltar
+        if (state == State.NEXT) {
+            if (!loadNext()) return null;
+        } else if (started) {
+            return null; // A mitad de un bloque: que lo lea la ROM
+        }
+        if (!block.isRomLoadable()) return null;
+        TapeBlock loaded = block;
+        block = null;
+        state = State.NEXT;
+        nextEdge = tState;
+        return loaded;
+    }
+
+    // --- GENERADOR DE PULSOS ---
+
+    private void advance(long tState) {
+        while (playing && nextEdge <= tState) {
+            int pulse = nextPulse();
+            if (pulse < 0) {
+                playing = false; // Fin de cinta o bloque de parada
+                break;
+            }
+            nextEdge += pulse;
+        }
+    }
+
+    /**
+     * Calcula el siguiente pulso (cambiando el nivel al empezar) y devuelve su duración,
+     * o -1 si la cinta se para.
+     */
+    private int nextPulse() {
+        started = true;
+        while (true) {
+            switch (state) {
+                case NEXT:
+                    if (!loadNext()) return -1;
+                    started = true;
+                    continue;
+                case STOP:
+                    state = State.NEXT;
+                    return -1;
+                case PILOT:
+                    if (count > 0) { count--; level = !level; return block.pilotPulse; }
+                    state = State.SYNC1;
+                    continue;
+                case SYNC1:
+                    state = State.SYNC2;
+                    if (block.sync1 > 0) { level = !level; return block.sync1; }
+                    continue;
+                case SYNC2:
+                    state = State.DATA;
+                    if (block.sync2 > 0) { level = !level; return block.sync2; }
+                    continue;
+                case DATA:
+                    if (bit < totalBits) {
+                        boolean one = (block.data[bit >> 3] & (0x80 >> (bit & 7))) != 0;
+                        if (secondHalf) bit++;
+                        secondHalf = !secondHalf;
+                        level = !level;
+                        return one ? block.one : block.zero;
+                    }
+                    state = State.PAUSE;
+                    continue;
+                case TONE:
+                    if (count > 0) { count--; level = !level; return block.pilotPulse; }
+                    state = State.NEXT;
+                    continue;
+                case PULSES:
+                    if (count < block.pulses.length) {
+                        int pulse = block.pulses[count++];
+                        if (pulse == 0) continue;
+                        level = !level;
+                        return pulse;
+                    }
+                    state = State.PAUSE;
+                    continue;
+                case PAUSE:
+                    state = State.NEXT;
+                    if (block.pauseMillis > 0) {
+                        // La pausa empieza con la señal a nivel bajo
+                        level = false;
+                        return block.pauseMillis * TSTATES_PER_MILLI;
+                    }
+                    continue;
+            }
+        }
+    }
+
+    /** Pasa al siguiente bloque del fichero y prepara su estado inicial. */
+    private boolean loadNext() {
+        try {
+            block = source == null ? null : source.next();
+        } catch (IOException e) {
+            System.err.println("❌ Error leyendo la cinta: " + e.getMessage());
+            block = null;
+        }
+        started = false;
+        if (block == null) {
+            atEnd = true;
+            state = State.NEXT;
+            return false;
+        }
+        switch (block.kind) {
+            case DATA:
+                count = block.pilotPulses;
+                bit = 0;
+                secondHalf = false;
+                totalBits = block.data.length == 0 ? 0 : (block.data.length - 1) * 8 + block.lastBits;
+                state = block.pilotPulses > 0 ? State.PILOT : State.SYNC1;
+                break;
+            case TONE:
+                count = block.pilotPulses;
+                state = State.TONE;
+                break;
+            case PULSES:
+                count = 0;
+                state = State.PULSES;
+                break;
+            case PAUSE:
+                state = State.PAUSE;
+                break;
+            default:
+                state = State.STOP;
+                break;
+        }
+        return true;
+    }
+}
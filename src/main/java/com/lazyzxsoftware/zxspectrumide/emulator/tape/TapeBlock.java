@@ -0,0 +1,95 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.tape;
+
+/**
+ * TapeBlock: Un bloque reproducible de cinta, ya descrito como pulsos (en T-states a 3,5 MHz).
+ *
+ * DATA cubre los bloques de datos con tono guía, sincronismo y bits (TAP, TZX 0x10, 0x11 y,
+ * sin guía, 0x14); TONE y PULSES los tonos y secuencias sueltos (0x12, 0x13, 0x15); PAUSE un
+ * silencio, y STOP para la cinta hasta que se vuelva a dar al play.
+ */
+public final class TapeBlock {
+    public enum Kind { DATA, TONE, PULSES, PAUSE, STOP }
+
+    // Tiempos de la ROM (SA-BYTES / LD-BYTES)
+    static final int PILOT = 2168;
+    static final int PILOT_HEADER = 8063;
+    static final int PILOT_DATA = 3223;
+    static final int SYNC1 = 667;
+    static final int SYNC2 = 735;
+    static final int ZERO = 855;
+    static final int ONE = 1710;
+
+    final Kind kind;
+    final int pilotPulse, pilotPulses, sync1, sync2, zero, one, lastBits;
+    final int pauseMillis;
+    final byte[] data;
+    final int[] pulses;
+
+    private TapeBlock(Kind kind, int pilotPulse, int pilotPulses, int sync1, int sync2, int zero, int one,
+                      int lastBits, int pauseMillis, byte[] data, int[] pulses) {
+        this.kind = kind;
+        this.pilotPulse = pilotPulse;
+        this.pilotPulses = pilotPulses;
+        this.sync1 = sync1;
+        this.sync2 = sync2;
+        this.zero = zero;
+        this.one = one;
+        this.lastBits = lastBits;
+        this.pauseMillis = pauseMillis;
+        this.data = data;
+        this.pulses = pulses;
+    }
+
+    /** Bloque con los tiempos de la ROM; la guía depende del flag (cabecera o datos). */
+    public static TapeBlock standard(byte[] data, int pauseMillis) {
+        int pilots = data.length > 0 && (data[0] & 0x80) == 0 ? PILOT_HEADER : PILOT_DATA;
+        return turbo(data, PILOT, pilots, SYNC1, SYNC2, ZERO, ONE, 8, pauseMillis);
+    }
+
+    public static TapeBlock turbo(byte[] data, int pilotPulse, int pilotPulses, int sync1, int sync2,
+                                  int zero, int one, int lastBits, int pauseMillis) {
+        return new TapeBlock(Kind.DATA, pilotPulse, pilotPulses, sync1, sync2, zero, one,
+                lastBits, pauseMillis, data, null);
+    }
+
+    public static TapeBlock pureData(byte[] data, int zero, int one, int lastBits, int pauseMillis) {
+        return turbo(data, 0, 0, 0, 0, zero, one, lastBits, pauseMillis);
+    }
+
+    public static TapeBlock tone(int pulse, int count) {
+        return new TapeBlock(Kind.TONE, pulse, count, 0, 0, 0, 0, 0, 0, null, null);
+    }
+
+    /** Secuencia de pulsos; un 0 no cambia el nivel (sirve para muestreos directos). */
+    public static TapeBlock pulses(int[] pulses, int pauseMillis) {
+        return new TapeBlock(Kind.PULSES, 0, 0, 0, 0, 0, 0, 0, pauseMillis, null, pulses);
+    }
+
+    public static TapeBlock pause(int millis) {
+        return millis == 0 ? stop() : new TapeBlock(Kind.PAUSE, 0, 0, 0, 0, 0, 0, 0, millis, null, null);
+    }
+
+    public static TapeBlock stop() {
+        return new TapeBlock(Kind.STOP, 0, 0, 0, 0, 0, 0, 0, 0, null, null);
+    }
+
+    public Kind getKind() { return kind; }
+
+    /** Flag, datos y checksum, tal y como los lee LD-BYTES (null si no es un bloque de datos). */
+    public byte[] getData() { return data; }
+
+    /**
+     * Indica si LD-BYTES leería este bloque: datos completos con los tiempos de la ROM.
+     * Solo estos se pueden cargar de golpe con el trap; el resto se reproduce.
+     */
+    public boolean isRomLoadable() {
+        return kind == Kind.DATA && data.length > 0 && pilotPulses > 0 && lastBits == 8
+                && near(pilotPulse, PILOT) && near(sync1, SYNC1) && near(sync2, SYNC2)
+                && near(zero, ZERO) && near(one, ONE);
+    }
+
+    // La ROM admite desviaciones pequeñas; algunos TZX guardan los tiempos medidos
+    private static boolean near(int value, int nominal) {
+        return Math.abs(value - nominal) * 20 <= nominal;
+    }
+}
@@ -0,0 +1,20 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.tape;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * TapeSource: Bloques de una cinta leídos del fichero a medida que se piden, sin cargarlo
+ * entero en memoria.
+ */
+public interface TapeSource extends Closeable {
+
+    /** Siguiente bloque reproducible, o null al final de la cinta. */
+    TapeBlock next() throws IOException;
+
+    /** Abre un .tzx o un .tap (por la extensión). */
+    static TapeSource open(File file) throws IOException {
+        return file.getName().toLowerCase().endsWith(".tzx") ? new TzxReader(file) : new TapReader(file);
+    }
+}
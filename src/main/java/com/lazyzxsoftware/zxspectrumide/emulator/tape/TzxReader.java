@@ -0,0 +1,168 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.tape;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TzxReader: Formato TZX (hasta la versión 1.20). Lee un bloque cada vez y salta los de
+ * información (textos, archivo, grupos...). Los bucles (0x24/0x25) se repiten guardando en
+ * memoria solo los bloques del bucle; saltos, llamadas y selecciones (0x23, 0x26-0x28) se
+ * ignoran y la cinta sigue en orden. Los bloques generalizados y CSW (0x18, 0x19) se saltan.
+ */
+final class TzxReader implements TapeSource {
+    private static final byte[] SIGNATURE = {'Z', 'X', 'T', 'a', 'p', 'e', '!', 0x1A};
+
+    private final DataInputStream in;
+    private final ArrayDeque<TapeBlock> pending = new ArrayDeque<>();
+
+    TzxReader(File file) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        byte[] header = new byte[10];
+        in.readFully(header);
+        for (int i = 0; i < SIGNATURE.length; i++) {
+            if (header[i] != SIGNATURE[i]) {
+                in.close();
+                throw new IOException("No es un fichero TZX: " + file.getName());
+            }
+        }
+    }
+
+    @Override
+    public TapeBlock next() throws IOException {
+        if (!pending.isEmpty()) return pending.poll();
+        try {
+            while (true) {
+                int id = in.read();
+                if (id < 0) return null;
+                if (id == 0x24) {
+                    readLoop();
+                    if (!pending.isEmpty()) return pending.poll();
+                    continue;
+                }
+                TapeBlock block = readBlock(id);
+                if (block != null) return block;
+            }
+        } catch (EOFException e) {
+            return null; // Bloque cortado al final del fichero
+        }
+    }
+
+    /** Lee un bloque; null si no produce señal (información, control...). */
+    private TapeBlock readBlock(int id) throws IOException {
+        switch (id) {
+            case 0x10: { // Velocidad estándar
+                int pause = word();
+                return TapeBlock.standard(bytes(word()), pause);
+            }
+            case 0x11: { // Turbo
+                int pilot = word(), sync1 = word(), sync2 = word(), zero = word(), one = word();
+                int pilots = word(), lastBits = in.readUnsignedByte(), pause = word();
+                return TapeBlock.turbo(bytes(triple()), pilot, pilots, sync1, sync2, zero, one, lastBits, pause);
+            }
+            case 0x12: { // Tono puro
+                int pulse = word();
+                return TapeBlock.tone(pulse, word());
+            }
+            case 0x13: { // Secuencia de pulsos
+                int[] pulses = new int[in.readUnsignedByte()];
+                for (int i = 0; i < pulses.length; i++) pulses[i] = word();
+                return TapeBlock.pulses(pulses, 0);
+            }
+            case 0x14: { // Datos sin guía ni sincronismo
+                int zero = word(), one = word(), lastBits = in.readUnsignedByte(), pause = word();
+                return TapeBlock.pureData(bytes(triple()), zero, one, lastBits, pause);
+            }
+            case 0x15: { // Grabación directa: un bit por muestra
+                int perSample = word(), pause = word(), lastBits = in.readUnsignedByte();
+                return TapeBlock.pulses(directPulses(bytes(triple()), perSample, lastBits), pause);
+            }
+            case 0x20: // Pausa (0 = parar la cinta)
+                return TapeBlock.pause(word());
+            case 0x2A: // Parar la cinta en modo 48K
+                skip(dword());
+                return TapeBlock.stop();
+            case 0x21: case 0x30: skip(in.readUnsignedByte()); return null; // Grupo, texto
+            case 0x22: case 0x25: case 0x27: return null;                    // Fin de grupo/bucle, retorno
+            case 0x23: skip(2); return null;                                 // Salto
+            case 0x26: skip(word() * 2); return null;                        // Llamada a secuencia
+            case 0x28: case 0x32: skip(word()); return null;                 // Selección, archivo
+            case 0x31: skip(1); skip(in.readUnsignedByte()); return null;    // Mensaje
+            case 0x33: skip(in.readUnsignedByte() * 3); return null;         // Tipo de hardware
+            case 0x35: skip(10); skip(dword()); return null;                 // Información a medida
+            case 0x5A: skip(9); return null;                                 // Unión de ficheros
+            default: skip(dword()); return null;                             // 0x18, 0x19, 0x2B y desconocidos
+        }
+    }
+
+    private void readLoop() throws IOException {
+        int count = word();
+        List<TapeBlock> body = new ArrayList<>();
+        int id;
+        while ((id = in.read()) >= 0 && id != 0x25) {
+            TapeBlock block = readBlock(id);
+            if (block != null) body.add(block);
+        }
+        for (int i = 0; i < count; i++) pending.addAll(body);
+    }
+
+    /** Pasa las muestras de un bloque 0x15 a pulsos: cada cambio de nivel cierra un pulso. */
+    private static int[] directPulses(byte[] samples, int perSample, int lastBits) {
+        int total = samples.length == 0 ? 0 : (samples.length - 1) * 8 + lastBits;
+        int[] pulses = new int[total + 1];
+        int count = 0;
+        int run = 0;
+        boolean level = false;
+        for (int i = 0; i < total; i++) {
+            boolean bit = (samples[i >> 3] & (0x80 >> (i & 7))) != 0;
+            if (bit != level && run > 0) {
+                pulses[count++] = run;
+                run = 0;
+            }
+            level = bit;
+            run += perSample;
+        }
+        if (run > 0) pulses[count++] = run;
+        int[] result = new int[count];
+        System.arraycopy(pulses, 0, result, 0, count);
+        return result;
+    }
+
+    private byte[] bytes(int length) throws IOException {
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+
+    private int word() throws IOException {
+        return in.readUnsignedByte() | (in.readUnsignedByte() << 8);
+    }
+
+    private int triple() throws IOException {
+        return word() | (in.readUnsignedByte() << 16);
+    }
+
+    private int dword() throws IOException {
+        return triple() | (in.readUnsignedByte() << 24);
+    }
+
+    private void skip(int count) throws IOException {
+        int left = count;
+        while (left > 0) {
+            int skipped = in.skipBytes(left);
+            if (skipped <= 0) throw new EOFException();
+            left -= skipped;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
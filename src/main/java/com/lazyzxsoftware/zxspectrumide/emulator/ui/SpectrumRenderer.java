@@ -1,34 +1,63 @@
 package com.lazyzxsoftware.zxspectrumide.emulator.ui;
 
-import javafx.scene.image.PixelWriter;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 
+import java.nio.IntBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * SpectrumRenderer: Presenta en JavaFX los frames que publica el emulador.
+ *
+ * Cada buffer de píxeles del emulador (uno por lienzo del triple buffer) se envuelve una sola
+ * vez en un PixelBuffer y su WritableImage: presentar un frame es marcar esa imagen como
+ * cambiada (updateBuffer) y mostrarla, sin copiar píxeles. Los colores son opacos, así que
+ * ARGB y ARGB premultiplicado coinciden.
+ */
 public class SpectrumRenderer {
 
     private static final int WIDTH = 320;
     private static final int HEIGHT = 240;
 
-    private final WritableImage image;
-    private final PixelWriter pixelWriter;
+    private final Map<int[], Frame> frames = new IdentityHashMap<>();
+    private WritableImage image;
+
+    private static final class Frame {
+        final PixelBuffer<IntBuffer> buffer;
+        final WritableImage image;
+
+        Frame(PixelBuffer<IntBuffer> buffer) {
+            this.buffer = buffer;
+            this.image = new WritableImage(buffer);
+        }
+    }
 
     public SpectrumRenderer() {
         this.image = new WritableImage(WIDTH, HEIGHT);
-        this.pixelWriter = image.getPixelWriter();
     }
 
     public WritableImage getImage() {
         return image;
     }
 
-    // Ya no necesita lógica de renderizado, solo pintar lo que le da la ULA
-    public void paintBuffer(int[] pixelData) {
-        if (pixelData == null) return;
-
-        pixelWriter.setPixels(0, 0, WIDTH, HEIGHT,
-                javafx.scene.image.PixelFormat.getIntArgbInstance(),
-                pixelData, 0, WIDTH);
+    /**
+     * Presenta un frame del emulador (solo desde el hilo FX) y devuelve la imagen que lo muestra.
+     * El emulador no debe volver a escribir en pixelData hasta que se presente otro buffer.
+     */
+    public WritableImage present(int[] pixelData) {
+        if (pixelData == null) return image;
+        Frame frame = frames.computeIfAbsent(pixelData, data -> {
+            PixelBuffer<IntBuffer> buffer = new PixelBuffer<>(WIDTH, HEIGHT, IntBuffer.wrap(data),
+                    PixelFormat.getIntArgbPreInstance());
+            return new Frame(buffer);
+        });
+        frame.buffer.updateBuffer(b -> null); // null = todo el buffer ha cambiado
+        image = frame.image;
+        return image;
     }
 
     // El método tickFlash ya no se usa aquí, lo gestiona Spectrum48k internamente
     public void tickFlash() {}
-}
\ No newline at end of file
+}
@@ -1,5 +1,6 @@
 package com.lazyzxsoftware.zxspectrumide.ui.windows;
 
+import com.lazyzxsoftware.zxspectrumide.emulator.core.EmulationSpeed;
 import com.lazyzxsoftware.zxspectrumide.emulator.impl.Spectrum48k;
 import com.lazyzxsoftware.zxspectrumide.emulator.interfaces.SpectrumEmulator;
 import com.lazyzxsoftware.zxspectrumide.emulator.ui.SpectrumRenderer;
@@ -7,6 +8,7 @@ import com.lazyzxsoftware.zxspectrumide.managers.WindowManager;
 import javafx.animation.AnimationTimer;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Separator;
 import javafx.scene.control.ToolBar;
 import javafx.scene.control.Tooltip;
@@ -22,9 +24,10 @@ public class EmulatorStage extends Stage {
     private final SpectrumRenderer renderer;
     private ImageView screenView;
     private AnimationTimer displayLoop;
+    private long paintedSequence = -1; // Frame del emulador que muestra la imagen
 
     public EmulatorStage() {
-        this.setTitle("ZX Spectrum Emulator (Nativo - Double Buffered)");
+        this.setTitle("ZX Spectrum Emulator (Nativo - Triple Buffered)");
         this.emulator = new Spectrum48k();
         this.renderer = new SpectrumRenderer();
 
@@ -60,15 +63,22 @@ public class EmulatorStage extends Stage {
         Button btnPlay = createButton("mdi2p-play", "Ejecutar / Continuar");
         btnPlay.setOnAction(e -> emulator.start());
         Button btnPause = createButton("mdi2p-pause", "Pausar");
-        btnPause.setOnAction(e -> { emulator.pause(); updateDebugWindows(); });
+        btnPause.setOnAction(e -> emulator.pause());
         Button btnReset = createButton("mdi2r-restart", "Reiniciar");
-        btnReset.setOnAction(e -> { emulator.reset(); updateDebugWindows(); });
+        btnReset.setOnAction(e -> emulator.reset());
         Button btnStepInto = createButton("mdi2d-debug-step-into", "Paso a paso");
-        btnStepInto.setOnAction(e -> { emulator.step(); updateDebugWindows(); });
+        btnStepInto.setOnAction(e -> emulator.step());
         Button btnStepOver = createButton("mdi2d-debug-step-over", "Saltar instrucción");
-        btnStepOver.setOnAction(e -> { emulator.stepOver(); updateDebugWindows(); });
+        btnStepOver.setOnAction(e -> emulator.stepOver());
 
-        toolbar.getItems().addAll(btnPlay, btnPause, btnReset, new Separator(), btnStepInto, btnStepOver);
+        ChoiceBox<EmulationSpeed> speedBox = new ChoiceBox<>();
+        speedBox.getItems().addAll(EmulationSpeed.values());
+        speedBox.setValue(emulator.getSpeed());
+        speedBox.setTooltip(new Tooltip("Velocidad de emulación"));
+        speedBox.setOnAction(e -> emulator.setSpeed(speedBox.getValue()));
+
+        toolbar.getItems().addAll(btnPlay, btnPause, btnReset, new Separator(), btnStepInto, btnStepOver,
+                new Separator(), speedBox);
         root.setTop(toolbar);
 
         Scene scene = new Scene(root, 660, 550);
@@ -86,10 +96,12 @@ public class EmulatorStage extends Stage {
         displayLoop = new AnimationTimer() {
             @Override
             public void handle(long now) {
-                // Obtenemos el buffer seguro (displayBuffer)
+                // Último frame publicado; si es el mismo que ya pintamos no hay nada que hacer
                 int[] pixels = emulator.getScreenBuffer();
-                if (pixels != null) {
-                    renderer.paintBuffer(pixels);
+                long sequence = emulator.getScreenSequence();
+                if (pixels != null && sequence != paintedSequence) {
+                    screenView.setImage(renderer.present(pixels));
+                    paintedSequence = sequence;
                 }
             }
         };
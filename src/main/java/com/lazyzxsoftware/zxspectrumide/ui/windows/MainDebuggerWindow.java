@@ -43,20 +43,14 @@ public class MainDebuggerWindow extends BorderPane {
         btnPause.setStyle("-fx-base: #C62828; -fx-text-fill: white;");
         btnPause.setOnAction(e -> {
             SpectrumEmulator emu = WindowManager.getInstance().getEmulator();
-            if (emu != null) {
-                emu.pause();
-                refreshAll();
-            }
+            if (emu != null) emu.pause(); // Al quedar en pausa el emulador refresca las ventanas
         });
 
         Button btnStep = new Button("⏯ Paso");
         btnStep.setStyle("-fx-base: #1565C0; -fx-text-fill: white;");
         btnStep.setOnAction(e -> {
             SpectrumEmulator emu = WindowManager.getInstance().getEmulator();
-            if (emu != null) {
-                emu.step();
-                refreshAll();
-            }
+            if (emu != null) emu.step();
         });
 
         chkFollowPC = new CheckBox("Seguir PC");
@@ -89,8 +89,10 @@ public class RegistersWindow extends BorderPane { // <--- DEBE EXTENDER BORDERPA
         int sp = emu.getRegister("SP");
         int pc = emu.getRegister("PC");
 
-        // Valores Dummy para Shadow (hasta que los expongamos en la interfaz)
-        int af_ = 0, bc_ = 0, de_ = 0, hl_ = 0;
+        int af_ = emu.getRegister("AF'");
+        int bc_ = emu.getRegister("BC'");
+        int de_ = emu.getRegister("DE'");
+        int hl_ = emu.getRegister("HL'");
 
         Platform.runLater(() -> {
             lblAF.setText(String.format("AF: %04X", af));
@@ -0,0 +1,99 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.audio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * AudioRingTest: vuelta del array, cola llena y vacía, y un productor y un consumidor en
+ * hilos distintos sin perder ni desordenar muestras.
+ */
+class AudioRingTest {
+
+    @Test
+    void wrapsAroundTheEnd() {
+        AudioRing ring = new AudioRing(16);
+        short[] out = new short[16];
+        // Deja la cabeza en 10 para que la siguiente escritura dé la vuelta
+        assertEquals(10, ring.write(sequence(100, 10), 0, 10));
+        assertEquals(10, ring.read(out, 0, 10));
+
+        assertEquals(12, ring.write(sequence(200, 12), 0, 12));
+        assertEquals(12, ring.size());
+        // La segunda lectura también da la vuelta (posiciones 14-15 y 0-5)
+        assertEquals(4, ring.read(out, 0, 4));
+        assertEquals(8, ring.read(out, 4, 12));
+        assertArrayEquals(sequence(200, 12), Arrays.copyOf(out, 12));
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    void fullRingDropsTheRest() {
+        AudioRing ring = new AudioRing(16);
+        short[] src = sequence(1, 20);
+        // Con offset: las muestras salen de src[2..17]
+        assertEquals(16, ring.write(src, 2, 18));
+        assertEquals(16, ring.size());
+        assertEquals(0, ring.write(src, 0, 1));
+
+        short[] out = new short[20];
+        assertEquals(16, ring.read(out, 4, 20));
+        for (int i = 0; i < 16; i++) assertEquals(src[2 + i], out[4 + i]);
+        assertEquals(0, out[3]);
+    }
+
+    @Test
+    void emptyRingReadsNothing() {
+        AudioRing ring = new AudioRing(8);
+        short[] out = {7, 7, 7};
+        assertEquals(0, ring.read(out, 0, 3));
+        assertArrayEquals(new short[]{7, 7, 7}, out);
+        ring.write(sequence(1, 3), 0, 3);
+        assertEquals(3, ring.read(out, 0, 3));
+        assertEquals(0, ring.read(out, 0, 3));
+    }
+
+    @Test
+    void capacityMustBePowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new AudioRing(1000));
+    }
+
+    @Test
+    void producerAndConsumerThreadsKeepOrder() throws InterruptedException {
+        AudioRing ring = new AudioRing(64);
+        int total = 50_000;
+        Thread producer = new Thread(() -> {
+            short[] chunk = new short[37]; // No divide la capacidad: las escrituras dan la vuelta en cualquier punto
+            int next = 0;
+            while (next < total) {
+                int n = Math.min(chunk.length, total - next);
+                for (int i = 0; i < n; i++) chunk[i] = (short) (next + i);
+                int written = ring.write(chunk, 0, n);
+                next += written;
+                if (written == 0) Thread.yield();
+            }
+        });
+        producer.start();
+
+        short[] chunk = new short[23];
+        int expected = 0;
+        while (expected < total) {
+            int n = ring.read(chunk, 0, chunk.length);
+            for (int i = 0; i < n; i++) assertEquals((short) (expected + i), chunk[i], "muestra " + (expected + i));
+            expected += n;
+            if (n == 0) Thread.yield();
+        }
+        producer.join();
+        assertEquals(0, ring.size());
+    }
+
+    private static short[] sequence(int first, int length) {
+        short[] s = new short[length];
+        for (int i = 0; i < length; i++) s[i] = (short) (first + i);
+        return s;
+    }
+}
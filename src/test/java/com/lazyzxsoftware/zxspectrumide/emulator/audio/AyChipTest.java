@@ -0,0 +1,175 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.audio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * AyChipTest: con un reloj de 16 T-states por muestra cada muestra es exactamente un ciclo del
+ * chip, así que la salida se puede comprobar ciclo a ciclo: periodo del tono, formas de la
+ * envolvente (R13), mezclador (R7) y bits válidos de cada registro.
+ */
+class AyChipTest {
+    private static final int RATE = AudioOutput.SAMPLE_RATE;
+    private static final int CLOCK = AyChip.TICK_TSTATES * RATE;
+    private static final float FULL = 0.25f; // Un canal a volumen 15
+
+    @Test
+    void toneTogglesEveryPeriodTicks() {
+        for (int period : new int[]{1, 5, 0x123}) {
+            AyChip ay = new AyChip(CLOCK, RATE);
+            set(ay, 0, period & 0xFF);
+            set(ay, 1, period >> 8);
+            set(ay, 7, 0x3E); // Solo el tono de A
+            set(ay, 8, 15);
+            float[] out = run(ay, 4 * period + 10);
+            for (int tick = 0; tick < out.length; tick++) {
+                float expected = ((tick + 1) / period) % 2 == 1 ? FULL : 0f;
+                assertEquals(expected, out[tick], 1e-6, "periodo " + period + ", ciclo " + tick);
+            }
+        }
+    }
+
+    @Test
+    void envelopeShapes() {
+        // Nivel (0 o 15) tras los pasos 0, 15, 16, 31 y 32 de cada forma, según el datasheet
+        int[][] shapes = {
+                {0x00, 15, 0, 0, 0, 0},   // \___
+                {0x04, 0, 15, 0, 0, 0},   // /___
+                {0x08, 15, 0, 15, 0, 15}, // \\\\
+                {0x09, 15, 0, 0, 0, 0},   // \___
+                {0x0A, 15, 0, 0, 15, 15}, // \/\/
+                {0x0B, 15, 0, 15, 15, 15}, // \¯¯¯
+                {0x0C, 0, 15, 0, 15, 0},  // ////
+                {0x0D, 0, 15, 15, 15, 15}, // /¯¯¯
+                {0x0E, 0, 15, 15, 0, 0},  // /\/\
+                {0x0F, 0, 15, 0, 0, 0},   // /___
+        };
+        int[] steps = {0, 15, 16, 31, 32};
+        for (int[] shape : shapes) {
+            AyChip ay = new AyChip(CLOCK, RATE);
+            set(ay, 7, 0x3F);  // Sin tono ni ruido: el canal sigue a la envolvente
+            set(ay, 8, 0x10);  // A con envolvente
+            set(ay, 11, 1);    // Un paso cada 2 ciclos
+            set(ay, 13, shape[0]);
+            float[] out = run(ay, 2 * 40);
+            for (int i = 0; i < steps.length; i++) {
+                float expected = shape[i + 1] == 15 ? FULL : 0f;
+                assertEquals(expected, envelopeAt(out, steps[i]), 1e-6,
+                        String.format("forma %X, paso %d", shape[0], steps[i]));
+            }
+            // La primera rampa pasa por los 16 niveles en orden
+            boolean attack = (shape[0] & 0x04) != 0;
+            for (int k = 1; k < 16; k++) {
+                float previous = envelopeAt(out, k - 1), current = envelopeAt(out, k);
+                assertTrue(attack ? current > previous : current < previous,
+                        String.format("forma %X, paso %d", shape[0], k));
+            }
+        }
+    }
+
+    @Test
+    void envelopeRestartsWhenShapeIsWritten() {
+        AyChip ay = new AyChip(CLOCK, RATE);
+        set(ay, 7, 0x3F);
+        set(ay, 8, 0x10);
+        set(ay, 11, 1);
+        set(ay, 13, 0x0D); // /¯¯¯: acaba arriba y se queda
+        run(ay, 100);
+        set(ay, 13, 0x0D); // Misma forma: vuelve a empezar desde 0
+        assertEquals(0f, run(ay, 1)[0], 1e-6);
+    }
+
+    @Test
+    void mixerSelectsToneNoiseAndChannels() {
+        // Tono y ruido desactivados: el canal queda fijo a su volumen
+        AyChip ay = chipWithTones();
+        set(ay, 7, 0x3F);
+        set(ay, 8, 15);
+        for (float sample : run(ay, 50)) assertEquals(FULL, sample, 1e-6);
+
+        // Solo el tono de B: onda cuadrada de periodo 3 en B, A callado aunque tenga volumen
+        ay = chipWithTones();
+        set(ay, 7, 0x3D);
+        set(ay, 8, 0);
+        set(ay, 9, 15);
+        float[] out = run(ay, 30);
+        for (int tick = 0; tick < out.length; tick++) {
+            assertEquals(((tick + 1) / 3) % 2 == 1 ? FULL : 0f, out[tick], 1e-6, "ciclo " + tick);
+        }
+
+        // Solo el ruido de C: salen los dos niveles, pero no con el patrón del tono
+        ay = chipWithTones();
+        set(ay, 6, 1);
+        set(ay, 7, 0x1F); // Tonos fuera, ruido solo en C
+        set(ay, 10, 15);
+        out = run(ay, 400);
+        int high = 0;
+        for (float sample : out) {
+            assertTrue(sample == 0f || Math.abs(sample - FULL) < 1e-6, "nivel " + sample);
+            if (sample != 0f) high++;
+        }
+        assertTrue(high > 50 && high < 350, "unos del ruido: " + high);
+
+        // Dos canales fijos se suman
+        ay = chipWithTones();
+        set(ay, 7, 0x3F);
+        set(ay, 8, 15);
+        set(ay, 10, 15);
+        assertEquals(2 * FULL, run(ay, 1)[0], 1e-6);
+    }
+
+    @Test
+    void registersKeepOnlyTheirValidBits() {
+        int[] masks = {0xFF, 0x0F, 0xFF, 0x0F, 0xFF, 0x0F, 0x1F, 0xFF, 0x1F, 0x1F, 0x1F, 0xFF, 0xFF, 0x0F, 0xFF, 0xFF};
+        AyChip ay = new AyChip(CLOCK, RATE);
+        for (int r = 0; r < 16; r++) {
+            set(ay, r, 0xFF);
+            assertEquals(masks[r], ay.read(), "R" + r);
+            assertEquals(masks[r], ay.getRegister(r), "R" + r);
+        }
+        // La selección usa los 4 bits bajos
+        ay.select(0x13);
+        assertEquals(3, ay.getSelected());
+        assertEquals(0x0F, ay.read());
+
+        // Los bits altos de R1 no cuentan para el periodo
+        ay = new AyChip(CLOCK, RATE);
+        set(ay, 0, 5);
+        set(ay, 1, 0xF0);
+        set(ay, 7, 0x3E);
+        set(ay, 8, 15);
+        float[] out = run(ay, 20);
+        for (int tick = 0; tick < out.length; tick++) {
+            assertEquals(((tick + 1) / 5) % 2 == 1 ? FULL : 0f, out[tick], 1e-6, "ciclo " + tick);
+        }
+    }
+
+    // Tonos con periodos 2, 3 y 4 en A, B y C
+    private static AyChip chipWithTones() {
+        AyChip ay = new AyChip(CLOCK, RATE);
+        for (int c = 0; c < 3; c++) set(ay, 2 * c, c + 2);
+        return ay;
+    }
+
+    private static void set(AyChip ay, int register, int value) {
+        ay.select(register);
+        ay.write(0, value);
+    }
+
+    // Un frame de ticks ciclos: una muestra por ciclo
+    private static float[] run(AyChip ay, int ticks) {
+        int frame = ticks * AyChip.TICK_TSTATES;
+        float[] out = new float[ticks + 1];
+        assertEquals(ticks, ay.endFrame(frame, out));
+        return Arrays.copyOf(out, ticks);
+    }
+
+    // Con un paso cada 2 ciclos, el paso k se da en el ciclo 2k - 1
+    private static float envelopeAt(float[] out, int step) {
+        return out[step == 0 ? 0 : 2 * step - 1];
+    }
+}
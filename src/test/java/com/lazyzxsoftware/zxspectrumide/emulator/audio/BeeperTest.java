@@ -0,0 +1,74 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.audio;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * BeeperTest: muestras de un patrón de flancos conocido. El reloj es 80 veces la frecuencia de
+ * muestreo para que cada muestra cubra exactamente 80 T-states y los valores esperados sean
+ * exactos: 0.5 con EAR alto, 0 con EAR bajo y la parte proporcional en una muestra partida.
+ */
+class BeeperTest {
+    private static final int RATE = AudioOutput.SAMPLE_RATE;
+    private static final int CLOCK = 80 * RATE;
+    private static final int FRAME = 8000; // 100 muestras
+
+    @Test
+    void edgesBecomeAreaAveragedSamples() {
+        Beeper beeper = new Beeper(CLOCK, RATE);
+        beeper.setLevel(0, true);
+        beeper.setLevel(800, false);  // Muestra 10
+        beeper.setLevel(1640, true);  // Mitad de la muestra 20
+        beeper.setLevel(2400, false); // Muestra 30
+        beeper.setLevel(8040, true);  // Después del fin del frame: mitad de la primera del siguiente
+
+        float[] out = new float[beeper.maxSamples(FRAME)];
+        assertEquals(100, beeper.endFrame(FRAME, out));
+        for (int i = 0; i < 100; i++) assertEquals(expectedFirstFrame(i), out[i], 1e-6, "muestra " + i);
+
+        assertEquals(100, beeper.endFrame(FRAME, out));
+        assertEquals(0.25f, out[0], 1e-6);
+        for (int i = 1; i < 100; i++) assertEquals(0.5f, out[i], 1e-6, "muestra " + i);
+    }
+
+    @Test
+    void squareWaveReachesTheSink() throws Exception {
+        // Onda cuadrada de 20 muestras de periodo (2205 Hz) durante 10 frames
+        Beeper beeper = new Beeper(CLOCK, RATE);
+        MemoryAudioSink sink = new MemoryAudioSink();
+        AudioOutput output = new AudioOutput(sink);
+        output.start();
+        float[] frame = new float[beeper.maxSamples(FRAME)];
+        int frames = 10;
+        try {
+            for (int f = 0; f < frames; f++) {
+                for (int t = 0; t < FRAME; t += 800) beeper.setLevel(t, (t / 800) % 2 == 0);
+                output.offer(frame, beeper.endFrame(FRAME, frame));
+            }
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (sink.getSamples().length < frames * 100 && System.nanoTime() < deadline) Thread.sleep(1);
+        } finally {
+            output.stop();
+        }
+
+        assertEquals(RATE, sink.getSampleRate());
+        short[] pcm = sink.getSamples();
+        assertEquals(frames * 100, pcm.length);
+        // Sin la continua (filtro paso alto), la mitad alta queda por encima de cero y la baja por debajo
+        for (int i = 0; i < pcm.length; i++) {
+            boolean high = (i / 10) % 2 == 0;
+            assertTrue(high ? pcm[i] > 0 : pcm[i] < 0, "muestra " + i + ": " + pcm[i]);
+        }
+        assertTrue(pcm[0] > Short.MAX_VALUE * 0.45, "primer flanco: " + pcm[0]);
+    }
+
+    private static float expectedFirstFrame(int sample) {
+        if (sample < 10) return 0.5f;
+        if (sample < 20) return 0f;
+        if (sample == 20) return 0.25f;
+        if (sample < 30) return 0.5f;
+        return 0f;
+    }
+}
@@ -0,0 +1,77 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.audio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * StepSignalTest: con el reloj real del 48K una muestra no es un número entero de T-states,
+ * así que la muestra partida entre dos frames debe salir igual que si no hubiera corte y el
+ * área bajo la señal debe conservarse.
+ */
+class StepSignalTest {
+    private static final int CLOCK = 3_500_000;
+    private static final int RATE = AudioOutput.SAMPLE_RATE;
+    private static final int FRAME = 69888;
+
+    @Test
+    void constantLevelSurvivesFrameBoundaries() {
+        StepSignal signal = new StepSignal(CLOCK, RATE);
+        signal.change(0, 1f);
+        float[] out = new float[signal.maxSamples(FRAME)];
+        long samples = 0;
+        for (int f = 0; f < 50; f++) {
+            int n = signal.endFrame(FRAME, out, false);
+            assertTrue(n == 880 || n == 881, "muestras: " + n);
+            for (int i = 0; i < n; i++) assertEquals(1f, out[i], 1e-5, "frame " + f + ", muestra " + i);
+            samples += n;
+        }
+        // Ninguna muestra se pierde ni se duplica en los cortes
+        assertEquals((long) (50.0 * FRAME * RATE / CLOCK), samples);
+    }
+
+    @Test
+    void areaIsConserved() {
+        StepSignal signal = new StepSignal(CLOCK, RATE);
+        double tStatesPerSample = (double) CLOCK / RATE;
+        float[] out = new float[signal.maxSamples(FRAME)];
+        double area = 0, high = 0;
+        // Pulsos de 100 T-states cada 1000, con cambios que caen también al final del frame
+        for (int f = 0; f < 20; f++) {
+            for (int t = 37; t < FRAME; t += 1000) {
+                signal.change(t, 1f);
+                signal.change(t + 100, 0f);
+                high += 100;
+            }
+            int n = signal.endFrame(FRAME, out, false);
+            for (int i = 0; i < n; i++) area += out[i] * tStatesPerSample;
+        }
+        // Solo puede faltar lo de la muestra que queda a medias al final
+        assertEquals(high, area, tStatesPerSample);
+    }
+
+    @Test
+    void mixAddsToTheSamplesAlreadyThere() {
+        StepSignal signal = new StepSignal(CLOCK, RATE);
+        signal.change(0, 0.5f);
+        float[] out = new float[signal.maxSamples(FRAME)];
+        Arrays.fill(out, 0.25f);
+        int n = signal.endFrame(FRAME, out, true);
+        for (int i = 0; i < n; i++) assertEquals(0.75f, out[i], 1e-5);
+    }
+
+    @Test
+    void changesPastTheEndBelongToTheNextFrame() {
+        StepSignal signal = new StepSignal(CLOCK, RATE);
+        signal.change(FRAME + 10, 1f);
+        float[] out = new float[signal.maxSamples(FRAME)];
+        int n = signal.endFrame(FRAME, out, false);
+        for (int i = 0; i < n; i++) assertEquals(0f, out[i]);
+        n = signal.endFrame(FRAME, out, false);
+        assertTrue(out[0] > 0f && out[0] < 1f, "primera muestra partida: " + out[0]);
+        for (int i = 1; i < n; i++) assertEquals(1f, out[i], 1e-5);
+    }
+}
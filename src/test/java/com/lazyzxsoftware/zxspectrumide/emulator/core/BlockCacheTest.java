@@ -0,0 +1,79 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+import org.junit.jupiter.api.Test;
+
+import static com.lazyzxsoftware.zxspectrumide.emulator.core.ExecutionModeTest.DATA;
+import static com.lazyzxsoftware.zxspectrumide.emulator.core.ExecutionModeTest.FRAME;
+import static com.lazyzxsoftware.zxspectrumide.emulator.core.ExecutionModeTest.HOT;
+import static com.lazyzxsoftware.zxspectrumide.emulator.core.ExecutionModeTest.INNER;
+import static com.lazyzxsoftware.zxspectrumide.emulator.core.ExecutionModeTest.pagingProgram;
+import static com.lazyzxsoftware.zxspectrumide.emulator.core.ExecutionModeTest.program;
+import static com.lazyzxsoftware.zxspectrumide.emulator.core.ExecutionModeTest.run;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * BlockCacheTest: reutilización de bloques entre frames y las tres vías por las que se
+ * descartan (escritura sobre un bloque grabado, escritura por delante mientras se graba y
+ * cambio de paginación). Usa los programas de ExecutionModeTest.
+ */
+class BlockCacheTest {
+
+    @Test
+    void blocksAreReusedUntilWritten() {
+        TestBus bus = new FlatTestBus();
+        Z80 cpu = run(program(DATA), bus, ExecutionMode.BLOCK_CACHE, 1);
+        BlockCache cache = cpu.getBlockCache();
+        BlockCache.Block inner = cache.get(INNER);
+        assertNotNull(inner);
+        cpu.runUntil(2L * FRAME);
+        assertSame(inner, cache.get(INNER), "el bloque se reutiliza entre frames");
+
+        bus.write(0x8011, 0x05); // ADD A,5: dentro del bloque
+        assertFalse(inner.valid);
+        assertNull(cache.get(INNER));
+        bus.write(0x7FFF, 0x00); // Justo antes de otro bloque: no le afecta
+        cpu.runUntil(3L * FRAME);
+        BlockCache.Block again = cache.get(INNER);
+        assertNotNull(again);
+        assertTrue(again.valid);
+        assertSame(again, cache.get(INNER));
+    }
+
+    @Test
+    void writeAheadWhileRecordingDiscardsBlock() {
+        // LD A,3C; LD (8005),A; NOP -> el NOP pasa a ser INC A antes de ejecutarse
+        int[] code = {0x3E, 0x3C, 0x32, 0x05, 0x80, 0x00, 0x76};
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            TestBus bus = new FlatTestBus();
+            for (int i = 0; i < code.length; i++) bus.write(0x8000 + i, code[i]);
+            Z80 cpu = new Z80(bus);
+            cpu.setExecutionMode(mode, HOT);
+            cpu.PC = 0x8000;
+            cpu.runUntil(100);
+            assertEquals(0x3D, cpu.A, mode.toString());
+            assertTrue(cpu.Halted, mode.toString());
+            if (mode != ExecutionMode.INTERPRETER) {
+                assertNull(cpu.getBlockCache().get(0x8000), "bloque escrito mientras se grababa");
+            }
+        }
+    }
+
+    @Test
+    void pagingInvalidatesBlocksOfTheSlot() {
+        MemoryTestBus bus = new MemoryTestBus(true);
+        Z80 cpu = run(pagingProgram(), bus, ExecutionMode.BLOCK_CACHE, 1);
+        BlockCache cache = cpu.getBlockCache();
+        bus.memory().writePort7FFD(0);
+        cpu.runUntil(cpu.tStates + 100);
+        int bank = bus.memory().getPort7FFD() & 0x07;
+        assertNotNull(cache.get(0xC000));
+        bus.memory().writePort7FFD(bank ^ 1);
+        assertNull(cache.get(0xC000), "otra RAM en 0xC000: sus bloques ya no valen");
+        assertNotNull(cache.get(0x8000 + 5), "los bloques de otras ranuras siguen");
+    }
+}
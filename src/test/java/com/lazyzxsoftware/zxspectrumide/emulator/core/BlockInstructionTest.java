@@ -0,0 +1,129 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * BlockInstructionTest: Las instrucciones de bloque ejecutadas de golpe dentro de runUntil
+ * (vueltas encadenadas y copias con Bus.copyBlock) deben dejar la máquina igual que
+ * ejecutarlas con step(), que da una sola vuelta por llamada.
+ *
+ * Cada caso se prueba sobre Memory (ROM de solo lectura en 0x0000) y sobre FlatBus, en los
+ * tres modos de ejecución y con varios límites, incluidos algunos que cortan el bloque.
+ */
+class BlockInstructionTest {
+    private static final int CODE = 0x6000;
+    private static final int LDIR = 0xB0, CPIR = 0xB1, INIR = 0xB2, OTIR = 0xB3;
+    private static final int LDDR = 0xB8, CPDR = 0xB9, INDR = 0xBA, OTDR = 0xBB;
+    private static final long[] LIMITS = {10, 21 * 37 + 5, 21 * 100, 21 * 1000 + 13, 200_000};
+
+    @Test
+    void ldirWithoutOverlap() {
+        check(LDIR, cpu -> { cpu.setHL(0x8000); cpu.setDE(0x9000); cpu.setBC(0x1000); });
+    }
+
+    @Test
+    void ldirOverlappingForward() {
+        // Destino un byte por delante: la copia byte a byte replica el primer valor
+        check(LDIR, cpu -> { cpu.setHL(0x8000); cpu.setDE(0x8001); cpu.setBC(0x0800); });
+    }
+
+    @Test
+    void lddrOverlappingBackward() {
+        check(LDDR, cpu -> { cpu.setHL(0x9000); cpu.setDE(0x8FFF); cpu.setBC(0x0800); });
+    }
+
+    @Test
+    void ldirOverlapThatArraycopyCanDo() {
+        check(LDIR, cpu -> { cpu.setHL(0x8100); cpu.setDE(0x8000); cpu.setBC(0x0400); });
+        check(LDDR, cpu -> { cpu.setHL(0x8000); cpu.setDE(0x8100); cpu.setBC(0x0400); });
+    }
+
+    @Test
+    void copiesWrappingFFFF() {
+        check(LDIR, cpu -> { cpu.setHL(0xFFC0); cpu.setDE(0x8000); cpu.setBC(0x0100); }); // Origen
+        check(LDIR, cpu -> { cpu.setHL(0x8000); cpu.setDE(0xFFC0); cpu.setBC(0x0100); }); // Destino
+        check(LDDR, cpu -> { cpu.setHL(0x0040); cpu.setDE(0x9000); cpu.setBC(0x0100); });
+        check(LDDR, cpu -> { cpu.setHL(0x9000); cpu.setDE(0x0040); cpu.setBC(0x0100); });
+    }
+
+    @Test
+    void copiesIntoRom() {
+        check(LDIR, cpu -> { cpu.setHL(0x8000); cpu.setDE(0x0100); cpu.setBC(0x0200); });
+        check(LDIR, cpu -> { cpu.setHL(0x8000); cpu.setDE(0x3F00); cpu.setBC(0x0400); }); // Cruza a RAM
+        check(LDDR, cpu -> { cpu.setHL(0x9000); cpu.setDE(0x40FF); cpu.setBC(0x0400); }); // Cruza a ROM
+    }
+
+    @Test
+    void copyOverwritingItsOwnInstruction() {
+        check(LDIR, cpu -> { cpu.setHL(0x8000); cpu.setDE(CODE - 0x40); cpu.setBC(0x0100); });
+        check(LDDR, cpu -> { cpu.setHL(0x9000); cpu.setDE(CODE + 0x40); cpu.setBC(0x0100); });
+    }
+
+    @Test
+    void searches() {
+        check(CPIR, cpu -> { cpu.setHL(0x8000); cpu.setBC(0x2000); cpu.A = 0x5A; });
+        check(CPDR, cpu -> { cpu.setHL(0x9FFF); cpu.setBC(0x2000); cpu.A = 0x5A; });
+        check(CPIR, cpu -> { cpu.setHL(0xFFF0); cpu.setBC(0x0300); cpu.A = 0xEE; }); // Da la vuelta
+    }
+
+    @Test
+    void portTransfers() {
+        for (int op : new int[]{INIR, INDR, OTIR, OTDR}) {
+            check(op, cpu -> { cpu.setHL(0x8000); cpu.B = 0xC0; cpu.C = 0xFE; });
+            check(op, cpu -> { cpu.setHL(0xFFF0); cpu.B = 0x40; cpu.C = 0x1F; }); // Da la vuelta
+        }
+    }
+
+    // --- COMPARACIÓN ---
+
+    private void check(int op, Consumer<Z80> setup) {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            for (long limit : LIMITS) {
+                compare(op, setup, mode, limit, MemoryTestBus::new);
+                compare(op, setup, mode, limit, FlatTestBus::new);
+            }
+        }
+    }
+
+    private void compare(int op, Consumer<Z80> setup, ExecutionMode mode, long limit, Supplier<TestBus> buses) {
+        TestBus bulkBus = buses.get();
+        Z80 bulk = prepare(bulkBus, op, setup);
+        bulk.setExecutionMode(mode);
+        while (bulk.runUntil(limit)) bulk.step();
+
+        TestBus stepBus = buses.get();
+        Z80 single = prepare(stepBus, op, setup);
+        while (single.tStates < limit) single.step();
+
+        String where = String.format("ED %02X, %s, %s, límite %d", op, mode, bulkBus.getClass().getSimpleName(), limit);
+        assertEquals(state(single), state(bulk), where);
+        assertArrayEquals(stepBus.dump(), bulkBus.dump(), where + ": memoria");
+        assertEquals(stepBus.outputs(), bulkBus.outputs(), where + ": puertos");
+    }
+
+    private static Z80 prepare(TestBus bus, int op, Consumer<Z80> setup) {
+        byte[] pattern = new byte[0x10000];
+        for (int i = 0; i < pattern.length; i++) pattern[i] = (byte) (i * 7 + (i >> 8));
+        bus.fill(pattern);
+        bus.write(CODE, 0xED);
+        bus.write(CODE + 1, op);
+        bus.write(CODE + 2, 0x76); // HALT
+        Z80 cpu = new Z80(bus);
+        cpu.PC = CODE;
+        cpu.SP = 0xFF00;
+        cpu.A = 0x12;
+        setup.accept(cpu);
+        return cpu;
+    }
+
+    private static String state(Z80 cpu) {
+        return String.format("A=%02X F=%02X BC=%04X DE=%04X HL=%04X PC=%04X R=%02X T=%d halted=%b",
+                cpu.A, cpu.F, cpu.getBC(), cpu.getDE(), cpu.getHL(), cpu.PC, cpu.R, cpu.tStates, cpu.Halted);
+    }
+}
@@ -0,0 +1,219 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ExecutionModeTest: BLOCK_CACHE y DYNAREC deben dejar la máquina exactamente igual que el
+ * intérprete (registros, T-states, R, memoria y puertos) en bucles calientes, con código
+ * automodificable y con cambios de paginación. El umbral del dynarec se baja para que el
+ * código generado se ejecute desde las primeras vueltas.
+ */
+class ExecutionModeTest {
+    static final int FRAME = 69888;
+    static final int FRAMES = 40;
+    static final int HOT = 4;
+    static final int INNER = 0x800D; // Bucle interno de LOOP
+    static final int DATA = 0x9100;       // Byte que se conmuta en la versión sin automodificación
+    private static final int OWN_OPCODE = 0x8021;   // INC E/DEC E tras el store, en su mismo bloque
+    private static final int INNER_OPCODE = 0x8015; // XOR (HL)/XOR A del bucle interno
+
+    // Bucle con LDIR, ALU e IX. Al final de cada vuelta se conmuta el bit 0 de un byte: un dato
+    // o, en las versiones automodificables, un opcode del propio código (INC E <-> DEC E o
+    // XOR (HL) <-> XOR A). La caché solo guarda opcodes, así que es lo que debe detectar
+    private static final int[] LOOP = {
+            0x21, 0x00, 0xA0,       // 8000 LD HL,A000
+            0x11, 0x00, 0xB0,       // 8003 LD DE,B000
+            0x01, 0x40, 0x00,       // 8006 LD BC,0040
+            0xED, 0xB0,             // 8009 LDIR
+            0x06, 0x20,             // 800B LD B,32
+            0xDD, 0x7E, 0x00,       // 800D LD A,(IX+0)
+            0xC6, 0x03,             // 8010 ADD A,3
+            0xDD, 0x77, 0x01,       // 8012 LD (IX+1),A
+            0xAE,                   // 8015 XOR (HL)
+            0x23,                   // 8016 INC HL
+            0x10, 0xF4,             // 8017 DJNZ 800D
+            0x3A, 0x00, 0x00,       // 8019 LD A,(nn)
+            0xEE, 0x01,             // 801C XOR 1
+            0x32, 0x00, 0x00,       // 801E LD (nn),A
+            0x1C,                   // 8021 INC E
+            0xC3, 0x00, 0x80,       // 8022 JP 8000
+    };
+
+    @Test
+    void hotLoopMatchesInterpreter() {
+        compareModes(() -> program(DATA), FlatTestBus::new);
+        compareModes(() -> program(DATA), MemoryTestBus::new);
+    }
+
+    @Test
+    void selfModifyingLoopMatchesInterpreter() {
+        // El store cambia una instrucción del bloque que lo está ejecutando (mientras se graba)
+        compareModes(() -> program(OWN_OPCODE), FlatTestBus::new);
+        compareModes(() -> program(OWN_OPCODE), MemoryTestBus::new);
+        // Y aquí, una del bucle interno (ya compilado) en cada vuelta del externo
+        compareModes(() -> program(INNER_OPCODE), FlatTestBus::new);
+        compareModes(() -> program(INNER_OPCODE), MemoryTestBus::new);
+    }
+
+    @Test
+    void blockRewrittenAheadWhileReplayingMatchesInterpreter() {
+        // Aquí el bloque sí llega a grabarse y la escritura llega durante su reejecución
+        compareModes(ExecutionModeTest::alternatingProgram, FlatTestBus::new);
+        compareModes(ExecutionModeTest::alternatingProgram, MemoryTestBus::new);
+    }
+
+    @Test
+    void pagedCodeMatchesInterpreter() {
+        compareModes(ExecutionModeTest::pagingProgram, () -> new MemoryTestBus(true));
+    }
+
+    @Test
+    void dynarecCompilesHotBlocks() {
+        Z80 cpu = run(program(DATA), new FlatTestBus(), ExecutionMode.DYNAREC, FRAMES);
+        BlockCache.Block inner = cpu.getBlockCache().get(INNER);
+        assertNotNull(inner);
+        assertNotNull(inner.compiled, "el bucle interno debe estar compilado");
+    }
+
+    @Test
+    void dynarecBacksOffBlocksThatKeepBeingRewritten() {
+        // Un opcode del bucle interno cambia en cada vuelta del externo (decenas por frame, miles en
+        // total): sin límite cada vuelta generaría una clase nueva. Con él solo se compilan los
+        // bloques estables y unas pocas versiones de los reescritos
+        Z80 cpu = run(program(INNER_OPCODE), new FlatTestBus(), ExecutionMode.DYNAREC, 2 * FRAMES);
+        int compiled = cpu.getCompiler().getCompiledBlocks();
+        assertTrue(compiled > 0 && compiled <= 16, "bloques compilados: " + compiled);
+        assertTrue(cpu.getBlockCache().hotThreshold(INNER, HOT) > HOT, "el umbral del bucle reescrito sube");
+    }
+
+    // --- PROGRAMAS ---
+
+    /** Memoria inicial y PC de un programa de prueba. */
+    static final class Program {
+        final byte[] memory = new byte[0x10000];
+        final byte[][] banks = new byte[Memory.RAM_BANKS][];
+        int sp = 0xFF00;
+    }
+
+    static Program program(int toggled) {
+        Program p = new Program();
+        for (int i = 0; i < p.memory.length; i++) p.memory[i] = (byte) (i * 7 + (i >> 8));
+        for (int i = 0; i < LOOP.length; i++) p.memory[0x8000 + i] = (byte) LOOP[i];
+        for (int operand : new int[]{0x801A, 0x801F}) {
+            p.memory[operand] = (byte) toggled;
+            p.memory[operand + 1] = (byte) (toggled >> 8);
+        }
+        return p;
+    }
+
+    // Un solo bloque que conmuta un dato o, una vuelta de cada 8, su propio INC E/DEC E justo
+    // después del store: entre medias llega a compilarse y luego se invalida a medio ejecutar.
+    // D acumula E para que un opcode viejo no se compense en las vueltas siguientes
+    private static Program alternatingProgram() {
+        Program p = program(DATA);
+        int[] main = {
+                0x2A, 0x00, 0x91,       // 8000 LD HL,(9100)
+                0x7E,                   // 8003 LD A,(HL)
+                0xEE, 0x01,             // 8004 XOR 1
+                0x77,                   // 8006 LD (HL),A
+                0x1C,                   // 8007 INC E
+                0x7A,                   // 8008 LD A,D
+                0x83,                   // 8009 ADD A,E
+                0x57,                   // 800A LD D,A
+                0x21, 0x04, 0x91,       // 800B LD HL,9104
+                0x3A, 0x06, 0x91,       // 800E LD A,(9106)
+                0x3C,                   // 8011 INC A
+                0x32, 0x06, 0x91,       // 8012 LD (9106),A
+                0xE6, 0x07,             // 8015 AND 7
+                0x20, 0x03,             // 8017 JR NZ,801C
+                0x21, 0x07, 0x80,       // 8019 LD HL,8007
+                0x22, 0x00, 0x91,       // 801C LD (9100),HL
+                0xC3, 0x00, 0x80,       // 801F JP 8000
+        };
+        for (int i = 0; i < main.length; i++) p.memory[0x8000 + i] = (byte) main[i];
+        int[] pointer = {0x04, 0x91, 0x00, 0x00, 0x00, 0x00, 0x00}; // 9104 (dato) y contador a 0
+        for (int i = 0; i < pointer.length; i++) p.memory[0x9100 + i] = (byte) pointer[i];
+        return p;
+    }
+
+    // Llama a 0xC000 y cambia de banco (0/1) con OUT a 0x7FFD en cada vuelta: cada banco
+    // tiene una rutina distinta en la misma dirección. La pila queda fuera de la ranura 3
+    static Program pagingProgram() {
+        Program p = program(DATA);
+        int[] main = {
+                0x01, 0xFD, 0x7F,       // 8000 LD BC,7FFD
+                0x3E, 0x00,             // 8003 LD A,0
+                0xED, 0x79,             // 8005 OUT (C),A
+                0xCD, 0x00, 0xC0,       // 8007 CALL C000
+                0xEE, 0x01,             // 800A XOR 1
+                0xC3, 0x05, 0x80,       // 800C JP 8005
+        };
+        for (int i = 0; i < main.length; i++) p.memory[0x8000 + i] = (byte) main[i];
+        p.banks[0] = new byte[Memory.BANK_SIZE];
+        p.banks[1] = new byte[Memory.BANK_SIZE];
+        int[] three = {0x23, 0x23, 0x23, 0xC9}; // INC HL x3; RET
+        int[] one = {0x2B, 0xC9};               // DEC HL; RET
+        for (int i = 0; i < three.length; i++) p.banks[0][i] = (byte) three[i];
+        for (int i = 0; i < one.length; i++) p.banks[1][i] = (byte) one[i];
+        p.sp = 0x9000;
+        return p;
+    }
+
+    // --- COMPARACIÓN ---
+
+    // Cada modo avanza frame a frame junto a un intérprete y se compara al final de cada frame
+    private static void compareModes(Supplier<Program> programs, Supplier<TestBus> buses) {
+        for (ExecutionMode mode : new ExecutionMode[]{ExecutionMode.BLOCK_CACHE, ExecutionMode.DYNAREC}) {
+            TestBus reference = buses.get();
+            Z80 expected = run(programs.get(), reference, ExecutionMode.INTERPRETER, 0);
+            TestBus bus = buses.get();
+            Z80 actual = run(programs.get(), bus, mode, 0);
+            for (int frames = 1; frames <= FRAMES; frames++) {
+                run(expected, reference, frames);
+                run(actual, bus, frames);
+                String where = mode + ", " + bus.getClass().getSimpleName() + ", frame " + frames;
+                assertEquals(state(expected), state(actual), where);
+                assertArrayEquals(reference.dump(), bus.dump(), where + ": memoria");
+                assertEquals(reference.outputs(), bus.outputs(), where + ": puertos");
+            }
+        }
+    }
+
+    static Z80 run(Program p, TestBus bus, ExecutionMode mode, int frames) {
+        bus.fill(p.memory);
+        if (bus instanceof MemoryTestBus) {
+            Memory memory = ((MemoryTestBus) bus).memory();
+            for (int b = 0; b < Memory.RAM_BANKS; b++) {
+                if (p.banks[b] != null) memory.writeRamBank(b, p.banks[b]);
+            }
+        }
+        Z80 cpu = new Z80(bus);
+        cpu.setExecutionMode(mode, HOT);
+        cpu.PC = 0x8000;
+        cpu.SP = p.sp;
+        cpu.IX = 0x9000;
+        run(cpu, bus, frames);
+        return cpu;
+    }
+
+    // Hasta el final del frame indicado, en llamadas de un frame como Spectrum48k
+    static void run(Z80 cpu, TestBus bus, int frames) {
+        long end = (long) frames * FRAME;
+        while (cpu.tStates < end) {
+            long limit = Math.min(end, (cpu.tStates / FRAME + 1) * FRAME);
+            while (cpu.runUntil(limit)) cpu.step();
+        }
+    }
+
+    private static String state(Z80 cpu) {
+        return String.format("A=%02X F=%02X BC=%04X DE=%04X HL=%04X IX=%04X SP=%04X PC=%04X R=%02X T=%d",
+                cpu.A, cpu.F, cpu.getBC(), cpu.getDE(), cpu.getHL(), cpu.IX, cpu.SP, cpu.PC, cpu.R, cpu.tStates);
+    }
+}
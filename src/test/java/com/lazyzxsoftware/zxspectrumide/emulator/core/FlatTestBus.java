@@ -0,0 +1,30 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FlatTestBus: {@link TestBus} sobre FlatBus (64K de RAM sin ROM), con los mismos puertos
+ * que MemoryTestBus.
+ */
+final class FlatTestBus implements TestBus {
+    private final FlatBus flat = new FlatBus();
+    private final List<Integer> outputs = new ArrayList<>();
+    private int inputs;
+
+    @Override public int read(int address) { return flat.read(address); }
+    @Override public void write(int address, int value) { flat.write(address, value); }
+    @Override public void setBlockCache(BlockCache cache) { flat.setBlockCache(cache); }
+    @Override public boolean copyBlock(int src, int dst, int count, int step) {
+        return flat.copyBlock(src, dst, count, step);
+    }
+    @Override public int input(int port) { return (port + inputs++) & 0xFF; }
+    @Override public void output(int port, int value) { outputs.add((port << 8) | value); }
+    @Override public void fill(byte[] pattern) { flat.loadData(0, pattern); }
+    @Override public int[] dump() {
+        int[] dump = new int[0x10000];
+        for (int i = 0; i < dump.length; i++) dump[i] = flat.read(i);
+        return dump;
+    }
+    @Override public List<Integer> outputs() { return outputs; }
+}
@@ -0,0 +1,41 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MemoryTestBus: {@link TestBus} sobre la Memory del Spectrum. La ROM (0x0000-0x3FFF)
+ * descarta las escrituras. Con paginación, las salidas a 0x7FFD llegan a la memoria como
+ * en un 128K.
+ */
+final class MemoryTestBus implements TestBus {
+    private final Memory memory = new Memory();
+    private final List<Integer> outputs = new ArrayList<>();
+    private final boolean paging;
+    private int inputs;
+
+    MemoryTestBus() {
+        this(false);
+    }
+
+    MemoryTestBus(boolean paging) {
+        this.paging = paging;
+    }
+
+    Memory memory() { return memory; }
+
+    @Override public int read(int address) { return memory.read(address); }
+    @Override public void write(int address, int value) { memory.write(address, value); }
+    @Override public void setBlockCache(BlockCache cache) { memory.setBlockCache(cache); }
+    @Override public boolean copyBlock(int src, int dst, int count, int step) {
+        return memory.copyBlock(src, dst, count, step);
+    }
+    @Override public int input(int port) { return (port + inputs++) & 0xFF; }
+    @Override public void output(int port, int value) {
+        outputs.add((port << 8) | value);
+        if (paging && (port & 0x8002) == 0) memory.writePort7FFD(value);
+    }
+    @Override public void fill(byte[] pattern) { memory.writeBlock(0x4000, pattern, 0x4000, 0xC000); }
+    @Override public int[] dump() { return memory.getDump(0, 0x10000); }
+    @Override public List<Integer> outputs() { return outputs; }
+}
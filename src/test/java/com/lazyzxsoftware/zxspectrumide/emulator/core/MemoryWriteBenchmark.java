@@ -0,0 +1,53 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MemoryWriteBenchmark: ns por escritura a través de Bus con el store único de Memory y con
+ * ValidatingBus encima, que relee cada byte como hacía Memory.write antes de separarlo.
+ * Cada camino va en su propia JVM (un fork por valor de path), así el sitio de llamada de
+ * Bus.write no mezcla los dos perfiles.
+ *
+ * mvn test-compile exec:exec -Pbenchmark -Djmh.args=MemoryWriteBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryWriteBenchmark {
+    private static final int WRITES = 4096;
+
+    @Param({"memory", "validating"})
+    public String path;
+
+    private Bus bus;
+
+    @Setup
+    public void setUp() {
+        Bus memory = new MemoryTestBus();
+        bus = path.equals("validating") ? new ValidatingBus(memory) : memory;
+    }
+
+    // Recorre toda la memoria, ROM incluida (que descarta la escritura), como haría un programa
+    @Benchmark
+    @OperationsPerInvocation(WRITES)
+    public void write() {
+        Bus b = bus;
+        for (int i = 0; i < WRITES; i++) b.write((i * 7) & 0xFFFF, i & 0xFF);
+    }
+}
@@ -0,0 +1,18 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+import java.util.List;
+
+/**
+ * TestBus: Bus de los tests de la CPU, con puertos deterministas (la entrada depende del
+ * número de lectura y las salidas se anotan) y acceso a toda la memoria para compararla.
+ */
+interface TestBus extends Bus {
+    /** Carga 64K de contenido; lo que cae en ROM se ignora si el bus la tiene. */
+    void fill(byte[] pattern);
+
+    /** Los 64K tal como los ve la CPU. */
+    int[] dump();
+
+    /** Salidas a puertos: (puerto << 8) | valor, en orden. */
+    List<Integer> outputs();
+}
@@ -0,0 +1,149 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Z80AluTest: Compara las flags de las tablas de la ALU de 8 bits con una implementación de
+ * referencia calculada flag a flag (comportamiento documentado, bits 5 y 3 incluidos), para
+ * todas las combinaciones de A, operando y carry.
+ */
+class Z80AluTest {
+    private static final String[] ALU_NAMES = {"ADD", "ADC", "SUB", "SBC", "AND", "XOR", "OR", "CP"};
+
+    private FlatBus bus;
+    private Z80 cpu;
+
+    @BeforeEach
+    void setUp() {
+        bus = new FlatBus();
+        cpu = new Z80(bus);
+    }
+
+    @Test
+    void aluOperationsMatchReference() {
+        for (int op = 0; op < 8; op++) {
+            bus.write(0, 0x80 | (op << 3)); // <op> A,B
+            for (int cy = 0; cy < 2; cy++) {
+                for (int a = 0; a < 256; a++) {
+                    for (int v = 0; v < 256; v++) {
+                        cpu.B = v;
+                        run(a, cy);
+                        check(ALU_NAMES[op], a, v, cy, alu(op, a, v, cy));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void incDecMatchReference() {
+        bus.write(0, 0x3C); // INC A
+        bus.write(1, 0x3D); // DEC A
+        for (int cy = 0; cy < 2; cy++) {
+            for (int a = 0; a < 256; a++) {
+                run(a, cy);
+                int[] add = alu(0, a, 1, 0);
+                check("INC", a, 1, cy, new int[]{add[0], (add[1] & ~Z80.CF) | cy});
+
+                cpu.PC = 1;
+                cpu.A = a;
+                cpu.F = cy;
+                cpu.step();
+                int[] sub = alu(2, a, 1, 0);
+                check("DEC", a, 1, cy, new int[]{sub[0], (sub[1] & ~Z80.CF) | cy});
+            }
+        }
+    }
+
+    @Test
+    void negMatchesReference() {
+        bus.write(0, 0xED);
+        bus.write(1, 0x44);
+        for (int a = 0; a < 256; a++) {
+            run(a, 0);
+            check("NEG", a, a, 0, alu(2, 0, a, 0));
+        }
+    }
+
+    @Test
+    void daaMatchesReference() {
+        bus.write(0, 0x27);
+        for (int flags = 0; flags < 8; flags++) {
+            int f = ((flags & 1) != 0 ? Z80.CF : 0) | ((flags & 2) != 0 ? Z80.HF : 0) | ((flags & 4) != 0 ? Z80.NF : 0);
+            for (int a = 0; a < 256; a++) {
+                run(a, f);
+                check("DAA", a, f, 0, daa(a, f));
+            }
+        }
+    }
+
+    /** Ejecuta la instrucción en 0 con A y F dados. */
+    private void run(int a, int f) {
+        cpu.PC = 0;
+        cpu.A = a;
+        cpu.F = f;
+        cpu.step();
+    }
+
+    private void check(String name, int a, int v, int cy, int[] expected) {
+        if (cpu.A != expected[0] || cpu.F != expected[1]) {
+            fail(String.format("%s A=%02X v=%02X c=%d: esperado A=%02X F=%02X, obtenido A=%02X F=%02X",
+                    name, a, v, cy, expected[0], expected[1], cpu.A, cpu.F));
+        }
+    }
+
+    // --- REFERENCIA ---
+
+    /** Resultado {A, F} de la operación op (orden de los opcodes 0x80-0xBF). */
+    private static int[] alu(int op, int a, int v, int cy) {
+        int r;
+        int f;
+        switch (op) {
+            case 0: case 1: { // ADD, ADC
+                int c = op == 1 ? cy : 0;
+                r = a + v + c;
+                int signed = (byte) a + (byte) v + c;
+                f = sz53(r & 0xFF) | (r > 0xFF ? Z80.CF : 0) | ((a ^ v ^ r) & Z80.HF)
+                        | (signed < -128 || signed > 127 ? Z80.PF : 0);
+                return new int[]{r & 0xFF, f};
+            }
+            case 2: case 3: case 7: { // SUB, SBC, CP
+                int c = op == 3 ? cy : 0;
+                r = a - v - c;
+                int signed = (byte) a - (byte) v - c;
+                f = sz53(r & 0xFF) | Z80.NF | (r < 0 ? Z80.CF : 0) | ((a ^ v ^ r) & Z80.HF)
+                        | (signed < -128 || signed > 127 ? Z80.PF : 0);
+                if (op == 7) return new int[]{a, (f & ~(Z80.YF | Z80.XF)) | (v & (Z80.YF | Z80.XF))};
+                return new int[]{r & 0xFF, f};
+            }
+            case 4: r = a & v; return new int[]{r, sz53(r) | parity(r) | Z80.HF};
+            case 5: r = a ^ v; return new int[]{r, sz53(r) | parity(r)};
+            default: r = a | v; return new int[]{r, sz53(r) | parity(r)};
+        }
+    }
+
+    /** DAA según "The Undocumented Z80 Documented" (tablas de corrección y de H). */
+    private static int[] daa(int a, int f) {
+        boolean c = (f & Z80.CF) != 0, h = (f & Z80.HF) != 0, n = (f & Z80.NF) != 0;
+        int low = a & 0x0F;
+        int diff = 0;
+        boolean carry = c;
+        if (c || a > 0x99) { diff |= 0x60; carry = true; }
+        if (h || low > 9) diff |= 0x06;
+        boolean half = n ? h && low < 6 : low > 9;
+        int r = (n ? a - diff : a + diff) & 0xFF;
+        int flags = sz53(r) | parity(r) | (half ? Z80.HF : 0) | (n ? Z80.NF : 0) | (carry ? Z80.CF : 0);
+        return new int[]{r, flags};
+    }
+
+    private static int sz53(int r) {
+        return (r & (Z80.SF | Z80.YF | Z80.XF)) | (r == 0 ? Z80.ZF : 0);
+    }
+
+    private static int parity(int r) {
+        return Integer.bitCount(r) % 2 == 0 ? Z80.PF : 0;
+    }
+}
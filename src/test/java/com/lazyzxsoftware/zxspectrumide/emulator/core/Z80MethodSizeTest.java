@@ -0,0 +1,118 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Z80MethodSizeTest: Vigila el tamaño en bytecode de los métodos del decodificador. Por encima
+ * de HugeMethodLimit (8000 bytes) la JVM no compila el método y se queda interpretado; los
+ * que se reparten la tabla principal por registros deben caber en FreqInlineSize (325) para
+ * que C2 los integre en executeOpcode.
+ *
+ * Los tamaños se leen del atributo Code de Z80.class, lo mismo que mostraría javap -c. Es solo
+ * una aproximación: que un método quepa en FreqInlineSize no garantiza que C2 lo integre (cuenta
+ * también la profundidad, el perfil y el tamaño acumulado del llamador). El resultado real se ve
+ * con -XX:+UnlockDiagnosticVMOptions -XX:+PrintInlining; este test solo evita que un cambio
+ * deje un método fuera de los límites sin que nadie se entere.
+ */
+class Z80MethodSizeTest {
+    private static final int HUGE_METHOD_LIMIT = 8000;
+    private static final int FREQ_INLINE_SIZE = 325;
+
+    @Test
+    void quadrantMethodsStayCompilable() throws IOException {
+        Map<String, Integer> sizes = codeSizes();
+        for (String name : new String[]{"executeOpcode", "executeBlock0", "executeLoad8", "executeAlu",
+                "executeBlock3", "decodeCB", "decodeED", "executeEDMisc", "executeEDBlock"}) {
+            Integer size = sizes.get(name);
+            assertNotNull(size, name + " no existe");
+            assertTrue(size < HUGE_METHOD_LIMIT, name + ": " + size + " bytes");
+        }
+    }
+
+    // Los que decodifican registros y (IX+d)/(IY+d) se llaman en casi todas las instrucciones
+    @Test
+    void registerDecodedMethodsCanBeInlined() throws IOException {
+        Map<String, Integer> sizes = codeSizes();
+        for (String name : new String[]{"executeOpcode", "executeLoad8", "executeAlu", "decodeED",
+                "getReg", "storeReg", "readMemHL", "writeMemHL", "getH", "getL", "setH", "setL"}) {
+            Integer size = sizes.get(name);
+            assertNotNull(size, name + " no existe");
+            assertTrue(size <= FREQ_INLINE_SIZE, name + ": " + size + " bytes");
+        }
+    }
+
+    /** Longitud del código de cada método de Z80 (si hay sobrecargas, la mayor). */
+    private static Map<String, Integer> codeSizes() throws IOException {
+        Map<String, Integer> sizes = new HashMap<>();
+        try (InputStream raw = Z80.class.getResourceAsStream("Z80.class")) {
+            assertNotNull(raw, "Z80.class no encontrado");
+            DataInputStream in = new DataInputStream(raw);
+            in.readInt();   // Magic
+            in.readInt();   // Versión
+            String[] utf8 = readConstantPool(in);
+            in.skipBytes(6); // Acceso, clase y superclase
+            in.skipBytes(2 * in.readUnsignedShort()); // Interfaces
+            int fields = in.readUnsignedShort();
+            for (int i = 0; i < fields; i++) {
+                in.skipBytes(6);
+                skipAttributes(in);
+            }
+            int methods = in.readUnsignedShort();
+            for (int i = 0; i < methods; i++) {
+                in.skipBytes(2);
+                String name = utf8[in.readUnsignedShort()];
+                in.skipBytes(2);
+                int attributes = in.readUnsignedShort();
+                for (int a = 0; a < attributes; a++) {
+                    String attribute = utf8[in.readUnsignedShort()];
+                    int length = in.readInt();
+                    if (attribute.equals("Code")) {
+                        in.skipBytes(4); // max_stack y max_locals
+                        int codeLength = in.readInt();
+                        sizes.merge(name, codeLength, Math::max);
+                        in.skipBytes(length - 8);
+                    } else {
+                        in.skipBytes(length);
+                    }
+                }
+            }
+        }
+        return sizes;
+    }
+
+    /** Lee la tabla de constantes y devuelve las cadenas UTF8 por índice (null el resto). */
+    private static String[] readConstantPool(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: utf8[i] = in.readUTF(); break;                         // Utf8
+                case 3: case 4: in.skipBytes(4); break;                        // Integer, Float
+                case 5: case 6: in.skipBytes(8); i++; break;                   // Long, Double (dos huecos)
+                case 7: case 8: case 16: case 19: case 20: in.skipBytes(2); break;
+                case 9: case 10: case 11: case 12: case 17: case 18: in.skipBytes(4); break;
+                case 15: in.skipBytes(3); break;                               // MethodHandle
+                default: throw new IOException("Constante desconocida: " + tag);
+            }
+        }
+        return utf8;
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        int attributes = in.readUnsignedShort();
+        for (int i = 0; i < attributes; i++) {
+            in.skipBytes(2);
+            in.skipBytes(in.readInt());
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.impl;
+
+import com.lazyzxsoftware.zxspectrumide.emulator.core.Bus;
+import com.lazyzxsoftware.zxspectrumide.emulator.core.Z80;
+import com.lazyzxsoftware.zxspectrumide.emulator.tape.Tape;
+import com.lazyzxsoftware.zxspectrumide.emulator.tape.TapeBlock;
+import com.lazyzxsoftware.zxspectrumide.emulator.tape.TapeSource;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * LoaderAcceleratorTest: un cargador con un bucle de espera de flanco como LD-EDGE de la ROM
+ * debe acabar exactamente igual (registros, R, T-states y lo que guarda en memoria) con el
+ * acelerador que sin él, en cada evento de la máquina. Los pulsos incluyen tiempos de la ROM,
+ * esperas que agotan B y flancos que caen cerca de los eventos.
+ */
+class LoaderAcceleratorTest {
+    private static final int START = 0x8000;
+    private static final int TABLE = 0x9000; // Un byte por flanco: el B con el que se vio
+
+    // Espera de flanco con B contando hacia arriba; si B da la vuelta guarda 0xFF y sigue
+    private static final int[] LOADER = {
+            0x31, 0x00, 0xF0,       // 8000 LD SP,F000
+            0x21, 0x00, 0x90,       // 8003 LD HL,9000
+            0x0E, 0x00,             // 8006 LD C,0
+            0x06, 0x00,             // 8008 LD B,0
+            0x04,                   // 800A INC B
+            0x28, 0x10,             // 800B JR Z,801D
+            0x3E, 0x7F,             // 800D LD A,7F
+            0xDB, 0xFE,             // 800F IN A,(FE)
+            0x1F,                   // 8011 RRA
+            0xA9,                   // 8012 XOR C
+            0xE6, 0x20,             // 8013 AND 20
+            0x28, 0xF3,             // 8015 JR Z,800A
+            0x79,                   // 8017 LD A,C
+            0xEE, 0x20,             // 8018 XOR 20
+            0x4F,                   // 801A LD C,A
+            0x18, 0x01,             // 801B JR 801E
+            0x05,                   // 801D DEC B
+            0x70,                   // 801E LD (HL),B
+            0x23,                   // 801F INC HL
+            0x18, 0xE6,             // 8020 JR 8008
+    };
+
+    private static final int[] PULSES = pulses();
+
+    @Test
+    void acceleratedLoaderMatchesInterpreter() {
+        for (int eventSpacing : new int[]{69888, 10_000, 3_001, 97}) {
+            Machine plain = new Machine(false);
+            Machine fast = new Machine(true);
+            for (long limit = eventSpacing; limit < 1_200_000; limit += eventSpacing) {
+                plain.runUntil(limit);
+                fast.runUntil(limit);
+                assertArrayEquals(plain.state(), fast.state(), "eventos cada " + eventSpacing + ", T-state " + limit);
+            }
+            // Ha pasado por todos los flancos (más los agotamientos de B) y, salvo con eventos
+            // muy seguidos (que no dejan saltar casi nada), el acelerador ha saltado vueltas
+            assertTrue(plain.memory[TABLE + PULSES.length] != 0, "no ha llegado al final de la cinta");
+            if (eventSpacing > 1000) {
+                assertTrue(fast.reads * 4 < plain.reads, "lecturas: " + fast.reads + " de " + plain.reads);
+            }
+        }
+    }
+
+    @Test
+    void edgeCountsMatchTheTape() {
+        // Sin acelerador, el B guardado son las vueltas que caben en el pulso menos la que se
+        // va en guardar el flanco. El primer pulso sube la señal en el T-state 0: se ve con B=1
+        Machine plain = new Machine(false);
+        plain.runUntil(40_000);
+        assertEquals(1, plain.memory[TABLE]);
+        for (int i = 0; i < 9; i++) {
+            int turns = PULSES[i] / plain.period;
+            int b = plain.memory[TABLE + 1 + i];
+            assertTrue(b >= turns - 2 && b <= turns, "pulso " + i + ": B=" + b + ", vueltas " + turns);
+        }
+        assertEquals(0xFF, plain.memory[TABLE + 10]); // 20000 T-states: B se agota
+    }
+
+    private static int[] pulses() {
+        int[] fixed = {
+                2168, 2168, 2168, 667, 735, 855, 855, 1710, 1710, // Tiempos de la ROM
+                20_000, 70_000,                                    // B se agota una y varias veces
+                300, 57, 56, 55, 9999, 10_001, 123_457,            // Flancos cerca de los eventos
+        };
+        // Y pulsos de 3000 a 3063: algún flanco cae justo en el T-state de una lectura
+        int[] pulses = new int[fixed.length + 64];
+        System.arraycopy(fixed, 0, pulses, 0, fixed.length);
+        for (int i = 0; i < 64; i++) pulses[fixed.length + i] = 3000 + i;
+        return pulses;
+    }
+
+    /** Z80 con 64K de RAM y el puerto 0xFE leyendo la cinta como Spectrum48k.tapeEar. */
+    private static final class Machine implements Bus {
+        final int[] memory = new int[0x10000];
+        final Z80 cpu = new Z80(this);
+        final Tape tape = new Tape();
+        final LoaderAccelerator accelerator;
+        long limit;
+        int reads;
+        int period; // T-states entre dos lecturas seguidas de la misma espera
+        private long lastRead;
+
+        Machine(boolean accelerate) {
+            for (int i = 0; i < LOADER.length; i++) memory[START + i] = LOADER[i];
+            cpu.PC = START;
+            accelerator = accelerate ? new LoaderAccelerator(cpu, tape) : null;
+            tape.insert(new TapeSource() {
+                private boolean done;
+                @Override public TapeBlock next() {
+                    if (done) return null;
+                    done = true;
+                    return TapeBlock.pulses(PULSES, 0);
+                }
+                @Override public void close() { }
+            });
+            tape.play(0);
+        }
+
+        void runUntil(long limit) {
+            this.limit = limit;
+            cpu.runUntil(limit);
+        }
+
+        int[] state() {
+            int[] s = new int[16 + 256];
+            int[] regs = {cpu.A, cpu.F, cpu.B, cpu.C, cpu.D, cpu.E, cpu.H, cpu.L,
+                    cpu.IX, cpu.IY, cpu.SP, cpu.PC, cpu.I, cpu.R,
+                    (int) cpu.getTStates(), (int) (cpu.getTStates() >> 32)};
+            System.arraycopy(regs, 0, s, 0, regs.length);
+            System.arraycopy(memory, TABLE, s, 16, 256);
+            return s;
+        }
+
+        @Override public int read(int address) { return memory[address & 0xFFFF]; }
+        @Override public void write(int address, int value) { memory[address & 0xFFFF] = value & 0xFF; }
+        @Override public void output(int port, int value) { }
+
+        @Override
+        public int input(int port) {
+            if ((port & 0x01) != 0 || !tape.isPlaying()) return 0xFF;
+            long now = cpu.getTStates();
+            boolean level = tape.getLevel(now);
+            if (accelerator != null) accelerator.onEarRead(now, limit, level);
+            reads++;
+            if (reads == 3) period = (int) (now - lastRead); // La primera ya ve un flanco
+            lastRead = now;
+            return level ? 0xFF : 0xBF;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.impl;
+
+import com.lazyzxsoftware.zxspectrumide.emulator.core.Memory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ScreenRendererBenchmark: Repintado completo del papel (192 líneas x 32 bytes de una pantalla
+ * al azar, sin patrones que ayuden al predictor de saltos) según cómo se expande cada byte:
+ * - antes: decodifica brillo, FLASH y dirección de fila en cada byte, como sin tablas;
+ * - tablas: tablas de fila y de tinta/papel por atributo, y un condicional por bit (lo que
+ *   hace ScreenRenderer);
+ * - mascaras: las mismas tablas más la de 256 x 8 máscaras de bit, con un xor/and por píxel;
+ * - renderLine: el método real, que además compara cada byte con su sombra.
+ *
+ * mvn test-compile exec:exec -Pbenchmark -Djmh.args=ScreenRendererBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScreenRendererBenchmark {
+    private static final int WIDTH = ScreenRenderer.WIDTH;
+    private static final int LEFT = 32;
+    private static final int TOP = 24;
+    private static final int ATTRIBUTES = 6144;
+    private static final int[] ROW_ADDRESS = new int[192];
+    private static final int[] MASKS = new int[256 * 8]; // -1 si el bit está a 1
+
+    static {
+        for (int y = 0; y < 192; y++) ROW_ADDRESS[y] = ((y & 0xC0) << 5) | ((y & 0x07) << 8) | ((y & 0x38) << 2);
+        for (int p = 0; p < 256; p++) {
+            for (int bit = 0; bit < 8; bit++) MASKS[(p << 3) | bit] = (p & (0x80 >> bit)) != 0 ? -1 : 0;
+        }
+    }
+
+    @Param({"antes", "tablas", "mascaras", "renderLine"})
+    public String expansion;
+
+    private final Memory memory = new Memory();
+    private final int[] palette = new int[16];
+    private final int[] inkOf = new int[512];
+    private final int[] paperOf = new int[512];
+    private final int[] target = new int[WIDTH * ScreenRenderer.HEIGHT];
+    private ScreenRenderer screen;
+    private ScreenRenderer.Canvas canvas;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < 16; i++) palette[i] = 0xFF000000 | (i * 0x0F0F0F);
+        for (int colors = 0; colors < 512; colors++) {
+            int attr = colors & 0xFF;
+            int ink = attr & 0x07, paper = (attr >> 3) & 0x07;
+            if ((attr & 0x40) != 0) { ink += 8; paper += 8; }
+            boolean swap = (attr & 0x80) != 0 && colors >= 0x100;
+            inkOf[colors] = palette[swap ? paper : ink];
+            paperOf[colors] = palette[swap ? ink : paper];
+        }
+        screen = new ScreenRenderer(memory, palette, 1);
+        canvas = screen.canvas(0);
+        byte[] data = new byte[Memory.SCREEN_SIZE];
+        new Random(1).nextBytes(data);
+        memory.writeBlock(0x4000, data, 0, data.length);
+    }
+
+    @Benchmark
+    public int[] redraw() {
+        switch (expansion) {
+            case "antes": redrawDecoding(); break;
+            case "tablas": redrawTables(); break;
+            case "mascaras": redrawMasks(); break;
+            default:
+                screen.invalidate(7);
+                for (int y = 0; y < 192; y++) screen.renderLine(canvas, y, true);
+                return canvas.getPixels();
+        }
+        return target;
+    }
+
+    private void redrawDecoding() {
+        int bank = memory.getScreenBank();
+        for (int y = 0; y < 192; y++) {
+            int o = (y + TOP) * WIDTH + LEFT;
+            for (int col = 0; col < 32; col++, o += 8) {
+                int attr = memory.readRam(bank, ATTRIBUTES + ((y >> 3) << 5) + col);
+                int inkIdx = attr & 0x07;
+                int paperIdx = (attr >> 3) & 0x07;
+                if ((attr & 0x40) != 0) { inkIdx += 8; paperIdx += 8; }
+                if ((attr & 0x80) != 0) {
+                    int temp = inkIdx; inkIdx = paperIdx; paperIdx = temp;
+                }
+                int ink = palette[inkIdx];
+                int paper = palette[paperIdx];
+                int pixels = memory.readRam(bank, (((y & 0xC0) << 5) | ((y & 0x07) << 8) | ((y & 0x38) << 2)) + col);
+                for (int bit = 0; bit < 8; bit++) {
+                    target[o + bit] = ((pixels & (0x80 >> bit)) != 0) ? ink : paper;
+                }
+            }
+        }
+    }
+
+    private void redrawTables() {
+        int bank = memory.getScreenBank();
+        for (int y = 0; y < 192; y++) {
+            int o = (y + TOP) * WIDTH + LEFT;
+            int attrAddress = ATTRIBUTES + ((y >> 3) << 5);
+            for (int col = 0; col < 32; col++, o += 8) {
+                int attr = memory.readRam(bank, attrAddress + col);
+                int colors = (attr & 0x80) != 0 ? 0x100 | attr : attr;
+                int ink = inkOf[colors];
+                int paper = paperOf[colors];
+                int pixels = memory.readRam(bank, ROW_ADDRESS[y] + col);
+                for (int bit = 0; bit < 8; bit++) {
+                    target[o + bit] = ((pixels & (0x80 >> bit)) != 0) ? ink : paper;
+                }
+            }
+        }
+    }
+
+    private void redrawMasks() {
+        int bank = memory.getScreenBank();
+        for (int y = 0; y < 192; y++) {
+            int o = (y + TOP) * WIDTH + LEFT;
+            int attrAddress = ATTRIBUTES + ((y >> 3) << 5);
+            for (int col = 0; col < 32; col++, o += 8) {
+                int attr = memory.readRam(bank, attrAddress + col);
+                int colors = (attr & 0x80) != 0 ? 0x100 | attr : attr;
+                int paper = paperOf[colors];
+                int diff = inkOf[colors] ^ paper;
+                int mask = memory.readRam(bank, ROW_ADDRESS[y] + col) << 3;
+                for (int bit = 0; bit < 8; bit++) {
+                    target[o + bit] = paper ^ (diff & MASKS[mask + bit]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.impl;
+
+import com.lazyzxsoftware.zxspectrumide.emulator.core.Memory;
+import com.lazyzxsoftware.zxspectrumide.emulator.core.TripleBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Repintado incremental (modo frame): una escritura en pantalla repinta solo su celda de 8x8
+ * y el cambio de fase de FLASH solo las celdas con FLASH, en todos los lienzos. Modo haz: una
+ * escritura a mitad de frame se ve en las líneas que aún no ha pintado la ULA y no en las ya
+ * pintadas, y el borde rota con los lienzos del triple buffer como en Spectrum48k.
+ */
+class ScreenRendererTest {
+    private static final int[] PALETTE = new int[16];
+    private static final int LEFT = 32;
+    private static final int TOP = 24;
+    private static final int SCREEN = 0x4000;
+    private static final int ATTRIBUTES = 0x5800;
+    private static final int SENTINEL = 0x12345678; // Ningún color de la paleta
+
+    static {
+        for (int i = 0; i < 16; i++) PALETTE[i] = 0xFF000000 | (i * 0x101010);
+    }
+
+    private final Memory memory = new Memory();
+    private final ScreenRenderer screen = new ScreenRenderer(memory, PALETTE, 3);
+    private final TripleBuffer<ScreenRenderer.Canvas> frames =
+            new TripleBuffer<>(screen.canvas(0), screen.canvas(1), screen.canvas(2));
+
+    // Un frame de la máquina: borde y, si algo ha cambiado, publicar y que la interfaz lo recoja
+    private void frame(int border) {
+        if (screen.renderBorder(frames.back(), border)) frames.publish();
+        frames.acquire();
+    }
+
+    @Test
+    void stripesAreReplacedBySolidBorderOnQuietFrame() {
+        for (int i = 0; i < 4; i++) frame(7);
+
+        // 7 -> 2 -> 7 dentro del frame: franjas en las líneas 10-19
+        int firstVisible = ScreenRenderer.FIRST_PAPER_TSTATE - 24 * ScreenRenderer.TSTATES_PER_LINE - 16;
+        screen.logBorder(firstVisible + 10 * ScreenRenderer.TSTATES_PER_LINE, 2);
+        screen.logBorder(firstVisible + 20 * ScreenRenderer.TSTATES_PER_LINE, 7);
+        frame(7);
+        assertEquals(PALETTE[2], frames.acquire().getPixels()[15 * ScreenRenderer.WIDTH]);
+
+        // El siguiente frame sin cambios debe publicar el borde liso, sea cual sea el lienzo
+        frame(7);
+        int[] shown = frames.acquire().getPixels();
+        for (int line = 0; line < ScreenRenderer.HEIGHT; line++) {
+            assertEquals(PALETTE[7], shown[line * ScreenRenderer.WIDTH], "línea " + line);
+        }
+    }
+
+    // --- MODO FRAME ---
+
+    @Test
+    void attributeWriteRedrawsItsCell() {
+        fillScreen();
+        renderAll(false);
+        scribble();
+        memory.write(ATTRIBUTES + 300, 0x4A); // BRIGHT, papel 1, tinta 2
+        renderAll(false);
+        assertOnlyRedrawn(Set.of(300), false);
+    }
+
+    @Test
+    void bitmapWriteRedrawsOnlyItsCell() {
+        fillScreen();
+        renderAll(false);
+        scribble();
+        // Línea 77 (tercio 1, fila de celdas 9, línea 5 de la celda), columna 13
+        memory.write(SCREEN + rowAddress(77) + 13, 0xA5);
+        renderAll(false);
+        assertOnlyRedrawn(Set.of(9 * 32 + 13), false);
+    }
+
+    @Test
+    void flashToggleRedrawsOnlyFlashingCells() {
+        fillScreen();
+        Set<Integer> flashing = Set.of(0, 45, 400, 767);
+        for (int cell : flashing) memory.write(ATTRIBUTES + cell, 0x80 | 0x0E);
+        renderAll(false);
+        scribble();
+        renderAll(true);
+        assertOnlyRedrawn(flashing, true);
+        scribble();
+        renderAll(true); // Misma fase y nada escrito: no se repinta nada
+        assertOnlyRedrawn(Set.of(), true);
+    }
+
+    // Bitmap con un patrón y atributos distintos por celda (tinta y papel siempre distintos, sin FLASH)
+    private void fillScreen() {
+        for (int i = 0; i < 6144; i++) memory.write(SCREEN + i, i * 37 + (i >> 5));
+        for (int cell = 0; cell < 768; cell++) {
+            int paper = cell % 7;
+            memory.write(ATTRIBUTES + cell, (cell & 0x40) | (paper << 3) | (paper + 1));
+        }
+    }
+
+    // Cada lienzo por turno, como en la rotación del triple buffer: el que pinta primero se
+    // lleva el mapa de sucio de Memory y los demás deben enterarse igual
+    private void renderAll(boolean flash) {
+        for (int i = 0; i < 3; i++) screen.render(screen.canvas(i), 7, flash);
+    }
+
+    private void scribble() {
+        for (int i = 0; i < 3; i++) {
+            int[] pixels = screen.canvas(i).getPixels();
+            for (int y = 0; y < 192; y++) {
+                int o = (y + TOP) * ScreenRenderer.WIDTH + LEFT;
+                Arrays.fill(pixels, o, o + 256, SENTINEL);
+            }
+        }
+    }
+
+    private void assertOnlyRedrawn(Set<Integer> cells, boolean flash) {
+        for (int i = 0; i < 3; i++) {
+            int[] pixels = screen.canvas(i).getPixels();
+            for (int y = 0; y < 192; y++) {
+                for (int x = 0; x < 256; x++) {
+                    int cell = ((y >> 3) << 5) | (x >> 3);
+                    int expected = cells.contains(cell) ? expectedPixel(x, y, flash) : SENTINEL;
+                    assertEquals(expected, pixels[(y + TOP) * ScreenRenderer.WIDTH + LEFT + x],
+                            "lienzo " + i + ", x=" + x + ", y=" + y);
+                }
+            }
+        }
+    }
+
+    // --- MODO HAZ ---
+
+    @Test
+    void beamShowsWritesBelowItAndDefersWritesAboveIt() {
+        fillScreen();
+        ScreenRenderer.Canvas canvas = screen.canvas(0);
+        beamFrame(canvas, -1, null);
+        int above = SCREEN + rowAddress(50) + 4;
+        int below = SCREEN + rowAddress(150) + 20;
+        int oldAbove = memory.read(above);
+
+        // Con el haz en la línea 100 se escriben una línea ya pintada y otra por pintar
+        boolean[] changed = beamFrame(canvas, 100, () -> {
+            memory.write(above, ~oldAbove);
+            memory.write(below, ~memory.read(below));
+        });
+        assertLine(canvas, 150);
+        assertByte(canvas, 50, 4, oldAbove);
+        for (int y = 0; y < 192; y++) assertEquals(y == 150, changed[y], "línea " + y);
+
+        // En el frame siguiente sale también la de arriba, y solo se repinta esa
+        changed = beamFrame(canvas, -1, null);
+        assertLine(canvas, 50);
+        for (int y = 0; y < 192; y++) assertEquals(y == 50, changed[y], "línea " + y);
+    }
+
+    @Test
+    void attributeWriteMidCellSplitsTheCell() {
+        fillScreen();
+        ScreenRenderer.Canvas canvas = screen.canvas(0);
+        beamFrame(canvas, -1, null);
+        int oldAttr = memory.read(ATTRIBUTES + 12 * 32 + 7);
+        // Fila de celdas 12 = líneas 96-103: el haz está en la 100 cuando cambia el atributo
+        beamFrame(canvas, 100, () -> memory.write(ATTRIBUTES + 12 * 32 + 7, 0x17));
+        int[] pixels = canvas.getPixels();
+        for (int y = 96; y < 104; y++) {
+            int attr = y < 100 ? oldAttr : 0x17;
+            int bits = memory.read(SCREEN + rowAddress(y) + 7);
+            for (int x = 56; x < 64; x++) {
+                assertEquals(color(bits, x, attr, false), pixels[(y + TOP) * ScreenRenderer.WIDTH + LEFT + x],
+                        "x=" + x + ", y=" + y);
+            }
+        }
+    }
+
+    @Test
+    void everyCanvasCatchesUpWithTheScreen() {
+        fillScreen();
+        for (int i = 0; i < 3; i++) beamFrame(screen.canvas(i), -1, null);
+        // Cada lienzo pinta un frame de cada tres; el que vuelve debe traer todo lo escrito
+        for (int frame = 0; frame < 6; frame++) {
+            int address = SCREEN + rowAddress(frame * 31) + frame;
+            memory.write(address, ~memory.read(address));
+            memory.write(ATTRIBUTES + frame * 100, 0x80 | (frame << 3));
+            boolean flash = (frame & 1) != 0;
+            ScreenRenderer.Canvas canvas = screen.canvas(frame % 3);
+            beamFrame(canvas, -1, null, flash);
+            for (int y = 0; y < 192; y++) assertLine(canvas, y, flash);
+        }
+    }
+
+    // Un frame en modo haz: las 192 líneas en orden y, justo antes de pintar la línea indicada, la
+    // escritura (lo que haría la CPU entre dos eventos del scheduler). Devuelve qué líneas cambiaron
+    private boolean[] beamFrame(ScreenRenderer.Canvas canvas, int writeLine, Runnable write) {
+        return beamFrame(canvas, writeLine, write, false);
+    }
+
+    private boolean[] beamFrame(ScreenRenderer.Canvas canvas, int writeLine, Runnable write, boolean flash) {
+        boolean[] changed = new boolean[192];
+        for (int y = 0; y < 192; y++) {
+            if (y == writeLine) write.run();
+            changed[y] = screen.renderLine(canvas, y, flash);
+        }
+        return changed;
+    }
+
+    private void assertLine(ScreenRenderer.Canvas canvas, int y) {
+        assertLine(canvas, y, false);
+    }
+
+    private void assertLine(ScreenRenderer.Canvas canvas, int y, boolean flash) {
+        int[] pixels = canvas.getPixels();
+        for (int x = 0; x < 256; x++) {
+            assertEquals(expectedPixel(x, y, flash), pixels[(y + TOP) * ScreenRenderer.WIDTH + LEFT + x],
+                    "x=" + x + ", y=" + y);
+        }
+    }
+
+    private void assertByte(ScreenRenderer.Canvas canvas, int y, int col, int bits) {
+        int[] pixels = canvas.getPixels();
+        int attr = memory.read(ATTRIBUTES + ((y >> 3) << 5) + col);
+        for (int x = col * 8; x < col * 8 + 8; x++) {
+            assertEquals(color(bits, x, attr, false), pixels[(y + TOP) * ScreenRenderer.WIDTH + LEFT + x],
+                    "x=" + x + ", y=" + y);
+        }
+    }
+
+    // --- REFERENCIA ---
+
+    private static int rowAddress(int y) {
+        return ((y & 0xC0) << 5) | ((y & 0x07) << 8) | ((y & 0x38) << 2);
+    }
+
+    private int expectedPixel(int x, int y, boolean flash) {
+        int bits = memory.read(SCREEN + rowAddress(y) + (x >> 3));
+        int attr = memory.read(ATTRIBUTES + ((y >> 3) << 5) + (x >> 3));
+        return color(bits, x, attr, flash);
+    }
+
+    private static int color(int bits, int x, int attr, boolean flash) {
+        int bright = (attr & 0x40) != 0 ? 8 : 0;
+        boolean set = (bits & (0x80 >> (x & 7))) != 0;
+        if (flash && (attr & 0x80) != 0) set = !set;
+        return PALETTE[(set ? attr & 0x07 : (attr >> 3) & 0x07) + bright];
+    }
+}
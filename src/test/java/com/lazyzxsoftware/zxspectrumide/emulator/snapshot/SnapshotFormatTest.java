@@ -0,0 +1,313 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.snapshot;
+
+import com.lazyzxsoftware.zxspectrumide.emulator.core.Memory;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SnapshotFormatTest: ida y vuelta de SNA, Z80 y SZX en 48K y 128K (cada formato con los
+ * campos que guarda), y ficheros Z80 hechos a mano para el RLE (ED suelto, repeticiones de
+ * 255, marca de fin de la v1) y el contador de T-states de la v3.
+ */
+class SnapshotFormatTest {
+    private static final int[] BANKS_48K = {5, 2, 0};
+
+    @Test
+    void snaRoundTrip() throws IOException {
+        Snapshot s48 = sample(false, 0);
+        Snapshot back = roundTrip(new SnaFormat(), s48);
+        assertRegisters(s48, back);
+        assertEquals(s48.border, back.border);
+        assertRam(s48, back);
+
+        // 128K con un banco cualquiera en 0xC000 y con el 5 repetido (fichero más largo)
+        for (int port : new int[]{0x13, 0x05}) {
+            Snapshot s128 = sample(true, port);
+            back = roundTrip(new SnaFormat(), s128);
+            assertTrue(back.is128k);
+            assertEquals(port, back.port7FFD);
+            assertRegisters(s128, back);
+            assertRam(s128, back);
+        }
+        // Con el 5 en 0xC000 se guarda dos veces: 3 + 6 bancos
+        assertEquals(27 + 9 * Memory.BANK_SIZE + 4, new SnaFormat().write(sample(true, 0x05)).remaining());
+    }
+
+    @Test
+    void sna48kKeepsPcOnTheStack() throws IOException {
+        Snapshot s = sample(false, 0);
+        ByteBuffer file = new SnaFormat().write(s);
+        // SP del fichero dos bytes por debajo, apuntando al PC
+        int sp = (file.get(23) & 0xFF) | ((file.get(24) & 0xFF) << 8);
+        assertEquals(s.SP - 2, sp);
+        int offset = 27 + sp - 0x4000;
+        assertEquals(s.PC, (file.get(offset) & 0xFF) | ((file.get(offset + 1) & 0xFF) << 8));
+    }
+
+    @Test
+    void z80RoundTrip() throws IOException {
+        for (Snapshot s : new Snapshot[]{sample(false, 0), sample(true, 0x17)}) {
+            Snapshot back = roundTrip(new Z80Format(), s);
+            assertEquals(s.is128k, back.is128k);
+            assertEquals(s.port7FFD, back.port7FFD);
+            assertRegisters(s, back);
+            assertEquals(s.border, back.border);
+            assertEquals(s.frameTStates, back.frameTStates);
+            assertArrayEquals(s.ayRegs, back.ayRegs);
+            assertEquals(s.aySelected, back.aySelected);
+            assertRam(s, back);
+        }
+    }
+
+    @Test
+    void szxRoundTrip() throws IOException {
+        for (Snapshot s : new Snapshot[]{sample(false, 0), sample(true, 0x1A)}) {
+            Snapshot back = roundTrip(new SzxFormat(), s);
+            assertEquals(s.is128k, back.is128k);
+            assertEquals(s.port7FFD, back.port7FFD);
+            assertRegisters(s, back);
+            assertEquals(s.halted, back.halted);
+            assertEquals(s.MEMPTR, back.MEMPTR);
+            assertEquals(s.border, back.border);
+            assertEquals(s.frameTStates, back.frameTStates);
+            if (s.is128k) {
+                assertArrayEquals(s.ayRegs, back.ayRegs);
+                assertEquals(s.aySelected, back.aySelected);
+            }
+            assertRam(s, back);
+        }
+    }
+
+    @Test
+    void z80IncompressibleBankIsStoredRaw() {
+        // v3 de 48K: páginas 8, 4 y 5 (bancos 5, 2 y 0); el 0 es aleatorio y va sin comprimir
+        ByteBuffer file = new Z80Format().write(sample(false, 0));
+        file.position(30 + 2 + 54);
+        int[] lengths = new int[3];
+        for (int i = 0; i < 3; i++) {
+            int length = file.getShort() & 0xFFFF;
+            int page = file.get() & 0xFF;
+            assertEquals(new int[]{8, 4, 5}[i], page);
+            lengths[i] = length;
+            file.position(file.position() + (length == 0xFFFF ? Memory.BANK_SIZE : length));
+        }
+        assertFalse(file.hasRemaining());
+        assertTrue(lengths[0] < Memory.BANK_SIZE && lengths[1] < Memory.BANK_SIZE, "comprimidas");
+        assertEquals(0xFFFF, lengths[2]);
+    }
+
+    @Test
+    void z80CompressedPages() throws IOException {
+        // ED suelto seguido de un byte normal, tres ED como bloque, y 255 + 45 repeticiones
+        Z80File file = new Z80File(0);
+        file.page(8, bytes(0x12, 0xED, 0x34, 0xED, 0xED, 0x03, 0xED, 0x00,
+                0xED, 0xED, 0xFF, 0xAA, 0xED, 0xED, 45, 0xAA, 0x56));
+        Snapshot s = new Z80Format().read(file.buffer());
+
+        byte[] expected = Arrays.copyOf(bytes(0x12, 0xED, 0x34, 0xED, 0xED, 0xED, 0x00), Memory.BANK_SIZE);
+        Arrays.fill(expected, 7, 7 + 300, (byte) 0xAA);
+        expected[307] = 0x56;
+        assertArrayEquals(expected, s.ram[5]);
+        assertFalse(s.is128k);
+        assertNull(s.ram[1]);
+    }
+
+    @Test
+    void z80RunLongerThanTheBlockIsRejected() {
+        Z80File file = new Z80File(0);
+        byte[] run = new byte[4 * 65];
+        for (int i = 0; i < 65; i++) System.arraycopy(bytes(0xED, 0xED, 0xFF, 0x01), 0, run, 4 * i, 4);
+        file.page(8, run); // 65 * 255 > 16K
+        assertThrows(IOException.class, () -> new Z80Format().read(file.buffer()));
+    }
+
+    @Test
+    void z80CompressorHandlesEdgeCases() throws IOException {
+        // ED en el último byte, ED antes de una repetición, ED ED juntos y repeticiones de 255 y 256
+        Snapshot s = sample(false, 0);
+        byte[] bank = s.ram[2];
+        Arrays.fill(bank, (byte) 0);
+        bank[0] = (byte) 0xED;
+        Arrays.fill(bank, 1, 7, (byte) 0x05);
+        bank[7] = (byte) 0xED;
+        bank[8] = (byte) 0xED;
+        Arrays.fill(bank, 100, 100 + 255, (byte) 0x77);
+        Arrays.fill(bank, 400, 400 + 256, (byte) 0xED);
+        bank[Memory.BANK_SIZE - 1] = (byte) 0xED;
+        assertRam(s, roundTrip(new Z80Format(), s));
+    }
+
+    @Test
+    void z80Version1() throws IOException {
+        // 48K comprimidos seguidos: 192 bloques de 255 y uno de 192, y la marca de fin 00 ED ED 00
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        for (int i = 0; i < 192; i++) image.writeBytes(bytes(0xED, 0xED, 0xFF, i));
+        image.writeBytes(bytes(0xED, 0xED, 0xC0, 0xED));
+        image.writeBytes(bytes(0x00, 0xED, 0xED, 0x00));
+        Z80File file = new Z80File(0x8000);
+        file.header[12] = 0x20 | (3 << 1); // Comprimido, borde 3
+        Snapshot s = new Z80Format().read(file.buffer(image.toByteArray()));
+
+        assertEquals(0x8000, s.PC);
+        assertEquals(3, s.border);
+        byte[] all = new byte[3 * Memory.BANK_SIZE];
+        for (int i = 0; i < 3; i++) System.arraycopy(s.ram[BANKS_48K[i]], 0, all, i * Memory.BANK_SIZE, Memory.BANK_SIZE);
+        for (int i = 0; i < 192 * 255; i++) assertEquals((byte) (i / 255), all[i], "byte " + i);
+        for (int i = 192 * 255; i < all.length; i++) assertEquals((byte) 0xED, all[i], "byte " + i);
+    }
+
+    @Test
+    void z80Version3TStateCounter() throws IOException {
+        // Cuenta atrás por cuartos de frame (17472 T-states): valores conocidos
+        assertEquals(0, readTStates(17471, 3));
+        assertEquals(17471, readTStates(0, 3));
+        assertEquals(17472, readTStates(17471, 0));
+        assertEquals(69887, readTStates(0, 2));
+        assertEquals(0, readTStates(0xFFFF, 0)); // Fuera de rango: principio del frame
+
+        for (int t : new int[]{0, 1, 17471, 17472, 34944, 69887}) {
+            Snapshot s = sample(false, 0);
+            s.frameTStates = t;
+            assertEquals(t, roundTrip(new Z80Format(), s).frameTStates, "T-state " + t);
+        }
+    }
+
+    @Test
+    void malformedFilesAreRejected() {
+        assertThrows(IOException.class, () -> new SnaFormat().read(le(new byte[1000])));
+        assertThrows(IOException.class, () -> new SzxFormat().read(le(bytes('Z', 'X', 'S', 'X', 1, 4, 1, 0))));
+        Z80File file = new Z80File(0);
+        file.extraLength = 40;
+        assertThrows(IOException.class, () -> new Z80Format().read(file.buffer()));
+    }
+
+    // --- SNAPSHOTS DE PRUEBA ---
+
+    /** Registros todos distintos y bancos con datos aleatorios, repeticiones y ED sueltos. */
+    private static Snapshot sample(boolean is128k, int port7FFD) {
+        Snapshot s = new Snapshot();
+        s.is128k = is128k;
+        s.A = 0x12; s.F = 0xD7; s.B = 0x34; s.C = 0x56; s.D = 0x78; s.E = 0x9A; s.H = 0xBC; s.L = 0xDE;
+        s.A_ = 0x21; s.F_ = 0x43; s.B_ = 0x65; s.C_ = 0x87; s.D_ = 0xA9; s.E_ = 0xCB; s.H_ = 0xED; s.L_ = 0x0F;
+        s.IX = 0x1357; s.IY = 0x2468; s.SP = 0xFF00; s.PC = 0x8123;
+        s.I = 0x3F; s.R = 0xA5; s.IM = 2;
+        s.IFF1 = s.IFF2 = true;
+        s.halted = true;
+        s.MEMPTR = 0x4321;
+        s.frameTStates = 12345;
+        s.border = 5;
+        if (is128k) s.port7FFD = port7FFD;
+        for (int r = 0; r < 16; r++) s.ayRegs[r] = (r * 13 + 7) & 0xFF;
+        s.aySelected = 7;
+
+        int[] banks = is128k ? new int[]{0, 1, 2, 3, 4, 5, 6, 7} : BANKS_48K;
+        for (int bank : banks) {
+            byte[] data = new byte[Memory.BANK_SIZE];
+            new Random(bank).nextBytes(data);
+            if (bank != 0) { // El 0 queda aleatorio: en Z80 va como bloque sin comprimir
+                Arrays.fill(data, 0, 300, (byte) 0xAA);
+                Arrays.fill(data, 1000, 3000, (byte) 0);
+                System.arraycopy(bytes(0xED, 0x12, 0xED, 0xED, 0xED, 0x05, 0x05, 0x05, 0x05, 0x05, 0x05),
+                        0, data, 500, 11);
+                data[Memory.BANK_SIZE - 1] = (byte) 0xED;
+            }
+            s.ram[bank] = data;
+        }
+        // El SNA de 48K guarda el PC en la pila: ahí ya estaba, como tras una interrupción
+        byte[] stack = s.ram[s.bankAt(s.SP - 2)];
+        stack[(s.SP - 2) & 0x3FFF] = (byte) s.PC;
+        stack[(s.SP - 1) & 0x3FFF] = (byte) (s.PC >> 8);
+        return s;
+    }
+
+    private static Snapshot roundTrip(SnapshotFormat format, Snapshot s) throws IOException {
+        ByteBuffer file = format.write(s);
+        assertEquals(ByteOrder.LITTLE_ENDIAN, file.order());
+        return format.read(file);
+    }
+
+    private static void assertRegisters(Snapshot e, Snapshot a) {
+        int[] expected = {e.A, e.F, e.B, e.C, e.D, e.E, e.H, e.L, e.A_, e.F_, e.B_, e.C_, e.D_, e.E_, e.H_, e.L_,
+                e.IX, e.IY, e.SP, e.PC, e.I, e.R, e.IM, e.IFF1 ? 1 : 0, e.IFF2 ? 1 : 0};
+        int[] actual = {a.A, a.F, a.B, a.C, a.D, a.E, a.H, a.L, a.A_, a.F_, a.B_, a.C_, a.D_, a.E_, a.H_, a.L_,
+                a.IX, a.IY, a.SP, a.PC, a.I, a.R, a.IM, a.IFF1 ? 1 : 0, a.IFF2 ? 1 : 0};
+        assertArrayEquals(expected, actual);
+    }
+
+    private static void assertRam(Snapshot e, Snapshot a) {
+        for (int bank = 0; bank < Memory.RAM_BANKS; bank++) {
+            if (e.ram[bank] == null) assertNull(a.ram[bank], "banco " + bank);
+            else assertArrayEquals(e.ram[bank], a.ram[bank], "banco " + bank);
+        }
+    }
+
+    private static int readTStates(int low, int high) throws IOException {
+        Z80File file = new Z80File(0);
+        file.extra[23] = (byte) low;
+        file.extra[24] = (byte) (low >> 8);
+        file.extra[25] = (byte) high;
+        return new Z80Format().read(file.buffer()).frameTStates;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] b = new byte[values.length];
+        for (int i = 0; i < values.length; i++) b[i] = (byte) values[i];
+        return b;
+    }
+
+    private static ByteBuffer le(byte[] data) {
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Fichero .z80 mínimo: cabecera v1 con el PC dado (0 = v3, 48K) y bloques de página. */
+    private static final class Z80File {
+        final byte[] header = new byte[30];
+        final byte[] extra = new byte[54];
+        int extraLength = 54;
+        private final ByteArrayOutputStream pages = new ByteArrayOutputStream();
+
+        Z80File(int pc) {
+            header[6] = (byte) pc;
+            header[7] = (byte) (pc >> 8);
+        }
+
+        void page(int number, byte[] compressed) {
+            pages.write(compressed.length & 0xFF);
+            pages.write(compressed.length >> 8);
+            pages.write(number);
+            pages.writeBytes(compressed);
+        }
+
+        ByteBuffer buffer() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.writeBytes(header);
+            out.write(extraLength);
+            out.write(0);
+            out.writeBytes(Arrays.copyOf(extra, extraLength));
+            out.writeBytes(pages.toByteArray());
+            return le(out.toByteArray());
+        }
+
+        // v1: la RAM va justo detrás de la cabecera
+        ByteBuffer buffer(byte[] image) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.writeBytes(header);
+            out.writeBytes(image);
+            return le(out.toByteArray());
+        }
+    }
+}
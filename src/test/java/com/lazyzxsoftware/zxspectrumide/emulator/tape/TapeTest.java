@@ -0,0 +1,313 @@
+package com.lazyzxsoftware.zxspectrumide.emulator.tape;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * TapeTest: ficheros TAP y TZX pequeños escritos a mano. Se comprueba la secuencia de pulsos
+ * (duración y nivel de cada uno) que sale de Tape con los tiempos de cada tipo de bloque, y
+ * qué bloques se lleva el trap de carga rápida (takeRomBlock).
+ */
+class TapeTest {
+    private static final int PAUSE_TSTATES_PER_MILLI = 3500;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void tapBlocksUseRomTimings() throws IOException {
+        Tape tape = insert("test.tap", tap(new byte[]{0x00, (byte) 0xA5}, new byte[]{(byte) 0xFF}));
+        tape.play(1000);
+        List<int[]> pulses = pulses(tape, 1000);
+
+        List<Integer> expected = new ArrayList<>();
+        romData(expected, TapeBlock.PILOT_HEADER, 0x00, 0xA5);
+        expected.add(1000 * PAUSE_TSTATES_PER_MILLI);
+        romData(expected, TapeBlock.PILOT_DATA, 0xFF);
+        expected.add(1000 * PAUSE_TSTATES_PER_MILLI);
+        assertEquals(expected, durations(pulses));
+        assertAlternates(pulses, 1000 * PAUSE_TSTATES_PER_MILLI);
+        assertFalse(tape.isPlaying());
+        assertFalse(tape.hasData());
+    }
+
+    @Test
+    void tzxTurboPureToneAndPulses() throws IOException {
+        Tzx tzx = new Tzx();
+        tzx.text("turbo");                                   // 0x30: no suena
+        tzx.turbo(1000, 10, 300, 400, 500, 900, 4, 2, new byte[]{(byte) 0xB0, 0x40});
+        tzx.tone(2000, 5);
+        tzx.pulses(100, 0, 200, 300);                        // Un pulso 0 no cambia el nivel
+        tzx.pause(3);
+        Tape tape = insert("test.tzx", tzx.bytes());
+        tape.play(0);
+        List<int[]> pulses = pulses(tape, 0);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) expected.add(1000);
+        expected.add(300);
+        expected.add(400);
+        // 0xB0 entero y los 4 primeros bits de 0x40: 1011 0000 0100
+        for (int b : new int[]{1, 0, 1, 1, 0, 0, 0, 0, 0, 1, 0, 0}) {
+            expected.add(b == 1 ? 900 : 500);
+            expected.add(b == 1 ? 900 : 500);
+        }
+        expected.add(2 * PAUSE_TSTATES_PER_MILLI);
+        for (int i = 0; i < 5; i++) expected.add(2000);
+        expected.add(100);
+        expected.add(200);
+        expected.add(300);
+        expected.add(3 * PAUSE_TSTATES_PER_MILLI);
+        assertEquals(expected, durations(pulses));
+        assertAlternates(pulses, 2 * PAUSE_TSTATES_PER_MILLI, 3 * PAUSE_TSTATES_PER_MILLI);
+    }
+
+    @Test
+    void tzxLoopRepeatsAndPauseZeroStopsTheTape() throws IOException {
+        Tzx tzx = new Tzx();
+        tzx.loop(3, () -> tzx.tone(700, 2));
+        tzx.pause(0);          // Parar la cinta
+        tzx.tone(900, 1);
+        Tape tape = insert("loop.tzx", tzx.bytes());
+        tape.play(0);
+        assertEquals(List.of(700, 700, 700, 700, 700, 700), durations(pulses(tape, 0)));
+        assertFalse(tape.isPlaying());
+        assertTrue(tape.hasData());
+
+        // Al volver a dar al play sigue por el bloque siguiente
+        tape.play(100_000);
+        assertEquals(List.of(900), durations(pulses(tape, 100_000)));
+    }
+
+    @Test
+    void notATzxFile() throws IOException {
+        File file = dir.resolve("bad.tzx").toFile();
+        Files.write(file.toPath(), "ZXTape?\u001a\u0001\u0014".getBytes(StandardCharsets.ISO_8859_1));
+        assertThrows(IOException.class, () -> TapeSource.open(file));
+    }
+
+    @Test
+    void takeRomBlockTakesStandardBlocksBetweenBlocks() throws IOException {
+        byte[] header = {0x00, 0x03, 0x41};
+        byte[] data = {(byte) 0xFF, 0x12, 0x34};
+        Tape tape = insert("rom.tap", tap(header, data));
+
+        TapeBlock first = tape.takeRomBlock(0);
+        assertArrayEquals(header, first.getData());
+        assertArrayEquals(data, tape.takeRomBlock(0).getData());
+        assertNull(tape.takeRomBlock(0));
+        assertFalse(tape.hasData());
+    }
+
+    @Test
+    void takeRomBlockLeavesBlocksThatAreAlreadyPlaying() throws IOException {
+        Tape tape = insert("playing.tap", tap(new byte[]{(byte) 0xFF, 0x01}, new byte[]{(byte) 0xFF, 0x02}));
+        tape.play(0);
+        // A mitad de la guía del primero: sigue sonando
+        assertNull(tape.takeRomBlock(10 * TapeBlock.PILOT + 5));
+        assertTrue(tape.isPlaying());
+        assertEquals(11 * TapeBlock.PILOT, tape.nextEdge(10 * TapeBlock.PILOT + 5));
+
+        // Ya en la pausa del primero: el segundo se puede tomar entero
+        long pause = romDataLength(TapeBlock.PILOT_DATA, 0xFF, 0x01) + 10;
+        byte[] second = tape.takeRomBlock(pause).getData();
+        assertArrayEquals(new byte[]{(byte) 0xFF, 0x02}, second);
+    }
+
+    @Test
+    void turboBlocksAreNotTakenAndPlayFromTheStart() throws IOException {
+        Tzx tzx = new Tzx();
+        tzx.turbo(1500, 4, 600, 700, 800, 1600, 8, 1, new byte[]{(byte) 0x80});
+        tzx.standard(1, new byte[]{(byte) 0xFF, 0x55});
+        Tape tape = insert("turbo.tzx", tzx.bytes());
+
+        assertNull(tape.takeRomBlock(0));
+        tape.play(0);
+        List<Integer> pulses = durations(pulses(tape, 0));
+        assertEquals(List.of(1500, 1500, 1500, 1500, 600, 700, 1600, 1600), pulses.subList(0, 8));
+        // El 0x10 que viene detrás sí es de la ROM, con su pausa propia
+        List<Integer> rest = new ArrayList<>();
+        romData(rest, TapeBlock.PILOT_DATA, 0xFF, 0x55);
+        rest.add(PAUSE_TSTATES_PER_MILLI);
+        assertEquals(rest, pulses.subList(8 + 7 * 2 + 1, pulses.size()));
+    }
+
+    @Test
+    void turboBlocksWithRomTimingsAreTaken() throws IOException {
+        byte[] data = {(byte) 0xFF, 0x01};
+        Tzx tzx = new Tzx();
+        // Tiempos medidos, a menos de un 5% de los de la ROM: LD-BYTES los carga
+        tzx.turbo(2200, 3223, 680, 720, 870, 1690, 8, 1, data);
+        // Los mismos tiempos, pero el último byte incompleto: no
+        tzx.turbo(2168, 3223, 667, 735, 855, 1710, 4, 1, data);
+        Tape tape = insert("measured.tzx", tzx.bytes());
+
+        assertArrayEquals(data, tape.takeRomBlock(0).getData());
+        assertNull(tape.takeRomBlock(0));
+        assertTrue(tape.hasData());
+    }
+
+    // --- PULSOS ---
+
+    private Tape insert(String name, byte[] content) throws IOException {
+        File file = dir.resolve(name).toFile();
+        Files.write(file.toPath(), content);
+        Tape tape = new Tape();
+        tape.insert(TapeSource.open(file));
+        return tape;
+    }
+
+    // Pulsos desde start hasta que la cinta se para: {duración, nivel durante el pulso}
+    private static List<int[]> pulses(Tape tape, long start) {
+        List<int[]> pulses = new ArrayList<>();
+        long t = start;
+        while (true) {
+            long next = tape.nextEdge(t);
+            if (next == Long.MAX_VALUE) break;
+            boolean level = tape.getLevel(t);
+            if (next > t) pulses.add(new int[]{(int) (next - t), level ? 1 : 0});
+            t = next;
+        }
+        return pulses;
+    }
+
+    private static List<Integer> durations(List<int[]> pulses) {
+        List<Integer> d = new ArrayList<>();
+        for (int[] p : pulses) d.add(p[0]);
+        return d;
+    }
+
+    // Todos los pulsos alternan el nivel salvo las pausas (por su duración), que van en bajo
+    private static void assertAlternates(List<int[]> pulses, Integer... pauses) {
+        List<Integer> pauseLengths = List.of(pauses);
+        for (int i = 1; i < pulses.size(); i++) {
+            if (pauseLengths.contains(pulses.get(i)[0])) {
+                assertEquals(0, pulses.get(i)[1], "pausa " + i);
+            } else if (!pauseLengths.contains(pulses.get(i - 1)[0])) {
+                assertTrue(pulses.get(i)[1] != pulses.get(i - 1)[1], "pulso " + i);
+            }
+        }
+    }
+
+    // Guía, sincronismo y dos pulsos por bit con los tiempos de la ROM
+    private static void romData(List<Integer> out, int pilots, int... bytes) {
+        for (int i = 0; i < pilots; i++) out.add(TapeBlock.PILOT);
+        out.add(TapeBlock.SYNC1);
+        out.add(TapeBlock.SYNC2);
+        for (int b : bytes) {
+            for (int bit = 7; bit >= 0; bit--) {
+                int pulse = ((b >> bit) & 1) != 0 ? TapeBlock.ONE : TapeBlock.ZERO;
+                out.add(pulse);
+                out.add(pulse);
+            }
+        }
+    }
+
+    private static long romDataLength(int pilots, int... bytes) {
+        List<Integer> pulses = new ArrayList<>();
+        romData(pulses, pilots, bytes);
+        long total = 0;
+        for (int p : pulses) total += p;
+        return total;
+    }
+
+    // --- FICHEROS ---
+
+    private static byte[] tap(byte[]... blocks) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] b : blocks) {
+            out.write(b.length & 0xFF);
+            out.write(b.length >> 8);
+            out.write(b, 0, b.length);
+        }
+        return out.toByteArray();
+    }
+
+    /** Escritor mínimo de TZX 1.20. */
+    private static final class Tzx {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Tzx() {
+            byte[] header = {'Z', 'X', 'T', 'a', 'p', 'e', '!', 0x1A, 1, 20};
+            out.write(header, 0, header.length);
+        }
+
+        void standard(int pauseMillis, byte[] data) {
+            out.write(0x10);
+            word(pauseMillis);
+            word(data.length);
+            out.write(data, 0, data.length);
+        }
+
+        void turbo(int pilot, int pilots, int sync1, int sync2, int zero, int one, int lastBits,
+                   int pauseMillis, byte[] data) {
+            out.write(0x11);
+            word(pilot);
+            word(sync1);
+            word(sync2);
+            word(zero);
+            word(one);
+            word(pilots);
+            out.write(lastBits);
+            word(pauseMillis);
+            word(data.length);
+            out.write(0);
+            out.write(data, 0, data.length);
+        }
+
+        void tone(int pulse, int count) {
+            out.write(0x12);
+            word(pulse);
+            word(count);
+        }
+
+        void pulses(int... pulses) {
+            out.write(0x13);
+            out.write(pulses.length);
+            for (int p : pulses) word(p);
+        }
+
+        void pause(int millis) {
+            out.write(0x20);
+            word(millis);
+        }
+
+        void text(String text) {
+            out.write(0x30);
+            out.write(text.length());
+            for (char c : text.toCharArray()) out.write(c);
+        }
+
+        void loop(int count, Runnable body) {
+            out.write(0x24);
+            word(count);
+            body.run();
+            out.write(0x25);
+        }
+
+        byte[] bytes() {
+            return out.toByteArray();
+        }
+
+        private void word(int value) {
+            out.write(value & 0xFF);
+            out.write((value >> 8) & 0xFF);
+        }
+    }
+}